@@ -0,0 +1,291 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simplelib.simplepersist.annotation.Index;
+import org.simplelib.simplepersist.annotation.Table;
+
+/**
+ * Allocation budgets of the CRUD and search operations: bytes allocated by
+ * operation, read from the allocation counter of the thread, checked against
+ * the budgets below. Exits with status 1 when a budget is exceeded, so it can
+ * run as a build step.
+ * <p>
+ * The SQL operations run against {@link StubDriver}: their figures include
+ * the proxies of the stub (an argument array by JDBC call, a result set by
+ * query), not the allocations of a real driver. Needs a JVM providing
+ * {@code com.sun.management.ThreadMXBean} (HotSpot, OpenJ9).
+ * </p>
+ * <p>
+ * Run with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -cp out org.simplelib.simplepersist.dao.AllocationBudget
+ * </pre>
+ *
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class AllocationBudget {
+    /** In-memory entity. */
+    public static final class Sample extends Entity<Sample> {
+	@Index
+	String category;
+	int code;
+	double price;
+	String name;
+
+	public Sample() {
+	}
+    }
+
+    /** SQL entity. */
+    @Table(name = "alloc_row")
+    public static final class Row extends Entity<Row> {
+	int code;
+	double price;
+	String name;
+
+	public Row() {
+	}
+    }
+
+    // Budgets in bytes by operation, about 25% above the figures measured on
+    // OpenJDK 17 (64 bits, compressed oops).
+    /** {@link Entity#getValues()} of a 5 values entity. */
+    static final long GET_VALUES = 112;
+    /** {@link ObjectDao#add(Entity)}, containers growth included. */
+    static final long OBJECT_ADD = 320;
+    /** {@link ObjectDao#search(Entity)} by index, about 10 results. */
+    static final long OBJECT_SEARCH = 288;
+    /** {@link ObjectDao#update(Entity)}. */
+    static final long OBJECT_UPDATE = 48;
+    /** {@link SqlDao#add(Entity)}. */
+    static final long SQL_ADD = 416;
+    /** {@link SqlDao#search(Entity)}, 10 rows. */
+    static final long SQL_SEARCH = 832;
+    /** {@link SqlDao#update(Entity)}. */
+    static final long SQL_UPDATE = 272;
+    /** {@link RowMapper#map(ResultSet)} of one row. */
+    static final long HYDRATION = 56;
+
+    private static final int OPS = 100000;
+    private static final String[] CATEGORIES = new String[1024];
+    static {
+	for (int i = 0; i < CATEGORIES.length; ++i) {
+	    CATEGORIES[i] = ("c" + i).intern();
+	}
+    }
+
+    private final com.sun.management.ThreadMXBean THREADS;
+    private boolean failed;
+
+    private AllocationBudget() {
+	this.THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+		.getThreadMXBean();
+	this.THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private long allocated() {
+	return this.THREADS.getThreadAllocatedBytes(Thread.currentThread()
+		.getId());
+    }
+
+    /**
+     * Measure the bytes allocated by operation and check the budget.
+     * 
+     * @param c
+     *            Measured operations.
+     * @param ops
+     *            Operations by round.
+     * @param budget
+     *            Budget in bytes by operation.
+     */
+    private void check(final BenchmarkHarness.Case c, final int ops,
+	    final long budget) throws Exception {
+	for (int i = 0; i < 3; ++i) {
+	    c.setUp();
+	    BenchmarkHarness.sink += c.run(ops);
+	}
+	c.setUp();
+	final long start = allocated();
+	BenchmarkHarness.sink += c.run(ops);
+	final double bytes = (double) (allocated() - start) / ops;
+	final boolean exceeded = bytes > budget;
+	this.failed |= exceeded;
+	System.out.printf("%-28s %10.1f B/op  budget %6d  %s%n", c.NAME, bytes,
+		budget, exceeded ? "EXCEEDED" : "ok");
+    }
+
+    private static Sample newSample(final int i) {
+	Sample sample = new Sample();
+	sample.category = CATEGORIES[i % CATEGORIES.length];
+	sample.code = i;
+	sample.price = 0.5;
+	sample.name = "s";
+	return sample;
+    }
+
+    private void run() throws Exception {
+	final Sample sample = newSample(1);
+	check(new BenchmarkHarness.Case("getValues") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += sample.getValues().size();
+		}
+		return h;
+	    }
+	}, OPS, GET_VALUES);
+
+	final List<Sample> samples = new ArrayList<Sample>(OPS);
+	for (int i = 0; i < OPS; ++i) {
+	    samples.add(newSample(i));
+	}
+	check(new BenchmarkHarness.Case("ObjectDao add") {
+	    private ObjectDao<Sample> dao;
+
+	    @Override
+	    void setUp() {
+		this.dao = new ObjectDao<Sample>(null, 100, 2);
+	    }
+
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += this.dao.add(samples.get(i));
+		}
+		return h;
+	    }
+	}, OPS, OBJECT_ADD);
+
+	final ObjectDao<Sample> store = new ObjectDao<Sample>(null, 100, 2);
+	for (int i = 0; i < 10 * CATEGORIES.length; ++i) {
+	    store.add(newSample(i));
+	}
+	check(new BenchmarkHarness.Case("ObjectDao search(T)") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		Sample model = new Sample();
+		for (int i = 0; i < ops; ++i) {
+		    model.category = CATEGORIES[i % CATEGORIES.length];
+		    h += store.search(model).size();
+		}
+		return h;
+	    }
+	}, OPS, OBJECT_SEARCH);
+	check(new BenchmarkHarness.Case("ObjectDao update") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		Sample updated = newSample(0);
+		for (int i = 0; i < ops; ++i) {
+		    updated.setId(1 + i % 1000);
+		    h += store.update(updated);
+		}
+		return h;
+	    }
+	}, OPS, OBJECT_UPDATE);
+
+	StubDriver.register();
+	AccesBdd.connect(StubDriver.URL, "", "");
+	final Row row = new Row();
+	row.code = 3;
+	row.price = 0.5;
+	row.name = "s";
+	check(new BenchmarkHarness.Case("SqlDao add") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    row.setId(null);
+		    row.insert();
+		    h += row.getId();
+		}
+		return h;
+	    }
+	}, OPS, SQL_ADD);
+	StubDriver.rows = 10;
+	check(new BenchmarkHarness.Case("SqlDao search(T)") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		Row model = new Row();
+		for (int i = 0; i < ops; ++i) {
+		    model.code = 1 + i % 64;
+		    h += Queries.search(model).size();
+		}
+		return h;
+	    }
+	}, OPS, SQL_SEARCH);
+	check(new BenchmarkHarness.Case("SqlDao update") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    row.setId(1 + i % 64);
+		    h += row.update();
+		}
+		return h;
+	    }
+	}, OPS, SQL_UPDATE);
+	check(new BenchmarkHarness.Case("row hydration") {
+	    private final RowMapper<Row> MAPPER = new RowMapper<Row>(
+		    Row.class, 1, true);
+	    private ResultSet rs;
+
+	    @Override
+	    void setUp() {
+		this.rs = StubDriver.resultSet(Integer.MAX_VALUE);
+	    }
+
+	    @Override
+	    int run(final int ops) throws Exception {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    this.rs.next();
+		    h += this.MAPPER.map(this.rs).code;
+		}
+		return h;
+	    }
+	}, OPS, HYDRATION);
+
+	if (this.failed) {
+	    System.out.println("Allocation budget exceeded.");
+	    System.exit(1);
+	}
+	System.out.println("(sink " + BenchmarkHarness.sink + ")");
+    }
+
+    public static void main(final String[] args) throws Exception {
+	new AllocationBudget().run();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+/**
+ * Minimal measurement loop shared by the benchmarks: warm-up rounds, then
+ * measured rounds reported as the best and mean time by operation.
+ * <p>
+ * The code under test must return a value depending on its work, folded in
+ * {@link #sink} to avoid dead code elimination.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+final class BenchmarkHarness {
+    /** Measured code. */
+    abstract static class Case {
+	final String NAME;
+
+	Case(final String name) {
+	    this.NAME = name;
+	}
+
+	/** Preparation of a round, not measured. */
+	void setUp() throws Exception {
+	    // Nothing by default
+	}
+
+	/**
+	 * Run the operations of a round.
+	 * 
+	 * @param ops
+	 *            Number of operations.
+	 * @return Value depending on the work done.
+	 */
+	abstract int run(int ops) throws Exception;
+    }
+
+    /** Sink to avoid dead code elimination. */
+    static int sink;
+
+    private final int WARMUPS;
+    private final int ROUNDS;
+
+    /**
+     * @param warmups
+     *            Rounds run before measuring.
+     * @param rounds
+     *            Measured rounds.
+     */
+    BenchmarkHarness(final int warmups, final int rounds) {
+	this.WARMUPS = warmups;
+	this.ROUNDS = rounds;
+    }
+
+    /**
+     * Measure a case and print its result.
+     * 
+     * @param c
+     *            Measured {@link Case}.
+     * @param ops
+     *            Operations by round.
+     */
+    void measure(final Case c, final int ops) throws Exception {
+	for (int i = 0; i < this.WARMUPS; ++i) {
+	    c.setUp();
+	    sink += c.run(ops);
+	}
+	long best = Long.MAX_VALUE;
+	long total = 0;
+	for (int i = 0; i < this.ROUNDS; ++i) {
+	    c.setUp();
+	    long start = System.nanoTime();
+	    sink += c.run(ops);
+	    long time = System.nanoTime() - start;
+	    best = Math.min(best, time);
+	    total += time;
+	}
+	report(c.NAME, best, total / this.ROUNDS, ops);
+    }
+
+    /**
+     * Print a result.
+     * 
+     * @param name
+     *            Case name.
+     * @param bestNanos
+     *            Best round time.
+     * @param meanNanos
+     *            Mean round time.
+     * @param ops
+     *            Operations by round.
+     */
+    static void report(final String name, final long bestNanos,
+	    final long meanNanos, final int ops) {
+	System.out.printf("%-36s %12.1f ns/op (best) %12.1f ns/op (mean)"
+		+ " %12.0f ops/s%n", name, (double) bestNanos / ops,
+		(double) meanNanos / ops, ops * 1e9 / bestNanos);
+    }
+}
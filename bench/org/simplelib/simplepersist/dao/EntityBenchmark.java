@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * Cost of the {@link Entity} hot paths: descriptor build, values extraction
+ * ({@link Entity#getValues()}), model matching and field writes
+ * ({@link Entity#copy()}).
+ * <p>
+ * Run with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -cp out org.simplelib.simplepersist.dao.EntityBenchmark
+ * </pre>
+ *
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class EntityBenchmark {
+    /** Sample entity, in memory. */
+    public static final class Sample extends Entity<Sample> {
+	int quantity = 42;
+	double price = 12.5;
+	boolean active = true;
+	String name = "sample";
+	Integer code = 7;
+
+	public Sample() {
+	}
+    }
+
+    private static final int OPS = 1000000;
+
+    private final Sample sample = new Sample();
+    private final List<Object> model;
+
+    private EntityBenchmark() {
+	Sample modele = new Sample();
+	modele.quantity = 0;
+	modele.price = 0;
+	modele.active = false;
+	modele.name = null;
+	this.model = modele.getValues();
+    }
+
+    private void run() throws Exception {
+	BenchmarkHarness harness = new BenchmarkHarness(3, 5);
+	harness.measure(new BenchmarkHarness.Case("descriptor build") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    // Work of a descriptor build: the descriptor itself is
+		    // built once by class.
+		    for (Field field : Sample.class.getDeclaredFields()) {
+			if (!Modifier.isStatic(field.getModifiers())) {
+			    field.setAccessible(true);
+			    h += new FieldAccessor(field).KIND.ordinal();
+			}
+		    }
+		    h += new RowMapper<Sample>(Sample.class, 1, true).COLUMN_COUNT;
+		}
+		return h;
+	    }
+	}, OPS / 100);
+	harness.measure(new BenchmarkHarness.Case("getValues") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += sample.getValues().size();
+		}
+		return h;
+	    }
+	}, OPS);
+	harness.measure(new BenchmarkHarness.Case("matches") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += sample.matches(model) ? 1 : 0;
+		}
+		return h;
+	    }
+	}, OPS);
+	harness.measure(new BenchmarkHarness.Case("copy (field writes)") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += sample.copy().quantity;
+		}
+		return h;
+	    }
+	}, OPS);
+    }
+
+    public static void main(final String[] args) throws Exception {
+	new EntityBenchmark().run();
+	System.out.println("(sink " + BenchmarkHarness.sink + ")");
+    }
+}
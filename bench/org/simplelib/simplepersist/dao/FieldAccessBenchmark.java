@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.reflect.Field;
+
+/**
+ * Cost per field of the field access layer: reflection ({@link Field}) as
+ * used before {@link FieldAccessor}, against {@link FieldAccessor}.
+ * <p>
+ * Run with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -cp out org.simplelib.simplepersist.dao.FieldAccessBenchmark
+ * </pre>
+ *
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class FieldAccessBenchmark {
+    /** Sample row. */
+    static final class Sample {
+	int quantity = 42;
+	double price = 12.5;
+	boolean active = true;
+	String name = "sample";
+	Integer code = 7;
+    }
+
+    private static final int FIELDS = 5;
+    private static final int ITERATIONS = 2000000;
+    private static final int ROUNDS = 5;
+
+    /** Sink to avoid dead code elimination. */
+    static int sink;
+
+    private final Field[] fields;
+    private final FieldAccessor[] accessors;
+    private final Sample sample = new Sample();
+
+    private FieldAccessBenchmark() throws Exception {
+	String[] names = { "quantity", "price", "active", "name", "code" };
+	this.fields = new Field[FIELDS];
+	this.accessors = new FieldAccessor[FIELDS];
+	for (int i = 0; i < FIELDS; ++i) {
+	    this.fields[i] = Sample.class.getDeclaredField(names[i]);
+	    this.fields[i].setAccessible(true);
+	    this.accessors[i] = new FieldAccessor(this.fields[i]);
+	}
+    }
+
+    /** Read as done by Entity.addAllParamsFrom before the accessors. */
+    private int readReflection() throws Exception {
+	int h = 0;
+	for (Field field : this.fields) {
+	    Class<?> fieldType = field.getType();
+	    boolean nullPrimitive = (fieldType == Integer.TYPE | fieldType == Character.TYPE)
+		    && field.getInt(this.sample) == 0
+		    || fieldType == Double.TYPE
+		    && field.getDouble(this.sample) == 0
+		    || fieldType == Boolean.TYPE
+		    && field.getBoolean(this.sample) == false;
+	    Object value = nullPrimitive ? null : field.get(this.sample);
+	    h += value == null ? 0 : 1;
+	}
+	return h;
+    }
+
+    private int readAccessor() {
+	int h = 0;
+	for (FieldAccessor accessor : this.accessors) {
+	    h += accessor.getNullable(this.sample) == null ? 0 : 1;
+	}
+	return h;
+    }
+
+    private void writeReflection(final Object[] values) throws Exception {
+	for (int i = 0; i < FIELDS; ++i) {
+	    this.fields[i].set(this.sample, values[i]);
+	}
+    }
+
+    private void writeAccessor(final Object[] values) {
+	for (int i = 0; i < FIELDS; ++i) {
+	    this.accessors[i].set(this.sample, values[i]);
+	}
+    }
+
+    private void run() throws Exception {
+	Object[] values = { 3, 4.5, false, "other", 9 };
+	for (int round = 0; round < ROUNDS; ++round) {
+	    long start = System.nanoTime();
+	    for (int i = 0; i < ITERATIONS; ++i) {
+		sink += readReflection();
+	    }
+	    long readRefl = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < ITERATIONS; ++i) {
+		sink += readAccessor();
+	    }
+	    long readAcc = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < ITERATIONS; ++i) {
+		writeReflection(values);
+	    }
+	    long writeRefl = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < ITERATIONS; ++i) {
+		writeAccessor(values);
+	    }
+	    long writeAcc = System.nanoTime() - start;
+
+	    double ops = (double) ITERATIONS * FIELDS;
+	    System.out.printf("round %d  read: reflection %.2f ns/field,"
+		    + " accessor %.2f ns/field  |  write: reflection %.2f"
+		    + " ns/field, accessor %.2f ns/field%n", round,
+		    readRefl / ops, readAcc / ops, writeRefl / ops, writeAcc
+			    / ops);
+	}
+    }
+
+    public static void main(final String[] args) throws Exception {
+	new FieldAccessBenchmark().run();
+	System.out.println("(sink " + sink + ")");
+    }
+}
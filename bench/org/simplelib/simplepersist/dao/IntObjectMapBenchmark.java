@@ -0,0 +1,290 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory by entry, lookup and iteration cost of the {@link ObjectDao}
+ * containers: {@link IntObjectMap} against {@link HashMap} (before the
+ * concurrent store) and {@link ConcurrentHashMap} with boxed keys.
+ * <p>
+ * Run with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -Xmx4g -cp out org.simplelib.simplepersist.dao.IntObjectMapBenchmark [sizes...]
+ * </pre>
+ *
+ * Keys are sequential ids, as allocated by {@link ObjectDao}, all mapped to
+ * the same value so only the container is measured. The
+ * {@link IntObjectMap} is configured as the store of {@link ObjectDao}.
+ * Default sizes are 100000 and 1000000 entries.
+ * </p>
+ * <p>
+ * The postings cases measure the index of a high-cardinality attribute: as
+ * many containers as entries, each holding the id of the only entity with
+ * that value, configured as the postings of {@link ObjectDao}. The cases
+ * of 8 and 16 ids by posting measure the largest compact postings and the
+ * smallest ones held in a segment.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class IntObjectMapBenchmark {
+    private static final Object VALUE = new Object();
+    /** Containers kept alive while measuring the heap. */
+    static Object retained;
+
+    private final int SIZE;
+    /** Random lookup order. */
+    private final int[] KEYS;
+    private final Integer[] BOXED_KEYS;
+
+    private IntObjectMapBenchmark(final int size) {
+	this.SIZE = size;
+	this.KEYS = new int[size];
+	this.BOXED_KEYS = new Integer[size];
+	Random random = new Random(42);
+	for (int i = 0; i < size; ++i) {
+	    this.KEYS[i] = 1 + random.nextInt(size);
+	    this.BOXED_KEYS[i] = Integer.valueOf(this.KEYS[i]);
+	}
+    }
+
+    private static Map<Integer, Object> fill(final Map<Integer, Object> map,
+	    final int size) {
+	for (int i = 1; i <= size; ++i) {
+	    map.put(Integer.valueOf(i), VALUE);
+	}
+	return map;
+    }
+
+    private static IntObjectMap<Object> fill(final IntObjectMap<Object> map,
+	    final int size) {
+	for (int i = 1; i <= size; ++i) {
+	    map.put(i, VALUE);
+	}
+	return map;
+    }
+
+    /** Postings of {@code ids} consecutive keys each. */
+    private static Object[] postings(final boolean intMap, final int size,
+	    final int ids) {
+	Object[] postings = new Object[size / ids];
+	for (int i = 0; i < postings.length; ++i) {
+	    if (intMap) {
+		IntObjectMap<Object> posting = new IntObjectMap<Object>(0, 16,
+			false);
+		for (int j = 1; j <= ids; ++j) {
+		    posting.put(i * ids + j, VALUE);
+		}
+		postings[i] = posting;
+	    } else {
+		Map<Integer, Object> posting = new HashMap<Integer, Object>();
+		for (int j = 1; j <= ids; ++j) {
+		    posting.put(Integer.valueOf(i * ids + j), VALUE);
+		}
+		postings[i] = posting;
+	    }
+	}
+	return postings;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+	Runtime runtime = Runtime.getRuntime();
+	long used = Long.MAX_VALUE;
+	for (int i = 0; i < 5; ++i) {
+	    System.gc();
+	    Thread.sleep(50);
+	    used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+	}
+	return used;
+    }
+
+    /** Retained heap of a container built by the case, by entry. */
+    private void memory(final String name, final BenchmarkHarness.Case c)
+	    throws Exception {
+	retained = null;
+	long before = usedHeap();
+	c.setUp();
+	long after = usedHeap();
+	System.out.printf("%-36s %12.1f bytes/entry%n", name + " ("
+		+ this.SIZE + ")", (double) (after - before) / this.SIZE);
+	retained = null;
+    }
+
+    private void run() throws Exception {
+	final int size = this.SIZE;
+	memory("HashMap", new BenchmarkHarness.Case("") {
+	    @Override
+	    void setUp() {
+		retained = fill(new HashMap<Integer, Object>(), size);
+	    }
+
+	    @Override
+	    int run(final int ops) {
+		return 0;
+	    }
+	});
+	memory("ConcurrentHashMap", new BenchmarkHarness.Case("") {
+	    @Override
+	    void setUp() {
+		retained = fill(new ConcurrentHashMap<Integer, Object>(), size);
+	    }
+
+	    @Override
+	    int run(final int ops) {
+		return 0;
+	    }
+	});
+	memory("IntObjectMap", new BenchmarkHarness.Case("") {
+	    @Override
+	    void setUp() {
+		retained = fill(new IntObjectMap<Object>(0, 16, true), size);
+	    }
+
+	    @Override
+	    int run(final int ops) {
+		return 0;
+	    }
+	});
+	for (final int ids : new int[] { 1, 8, 16 }) {
+	    String suffix = ids == 1 ? "" : " of " + ids;
+	    memory("HashMap postings" + suffix, new BenchmarkHarness.Case("") {
+		@Override
+		void setUp() {
+		    retained = postings(false, size, ids);
+		}
+
+		@Override
+		int run(final int ops) {
+		    return 0;
+		}
+	    });
+	    memory("IntObjectMap postings" + suffix,
+		    new BenchmarkHarness.Case("") {
+			@Override
+			void setUp() {
+			    retained = postings(true, size, ids);
+			}
+
+			@Override
+			int run(final int ops) {
+			    return 0;
+			}
+		    });
+	}
+
+	final Map<Integer, Object> hashMap = fill(
+		new HashMap<Integer, Object>(), size);
+	final Map<Integer, Object> concurrentMap = fill(
+		new ConcurrentHashMap<Integer, Object>(), size);
+	final IntObjectMap<Object> intMap = fill(new IntObjectMap<Object>(0,
+		16, true), size);
+	final int[] keys = this.KEYS;
+	final Integer[] boxedKeys = this.BOXED_KEYS;
+	BenchmarkHarness harness = new BenchmarkHarness(3, 5);
+	harness.measure(new BenchmarkHarness.Case("HashMap get (" + size
+		+ ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += hashMap.get(boxedKeys[i]) == VALUE ? 1 : 0;
+		}
+		return h;
+	    }
+	}, size);
+	harness.measure(new BenchmarkHarness.Case("ConcurrentHashMap get ("
+		+ size + ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += concurrentMap.get(boxedKeys[i]) == VALUE ? 1 : 0;
+		}
+		return h;
+	    }
+	}, size);
+	harness.measure(new BenchmarkHarness.Case("IntObjectMap get (" + size
+		+ ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += intMap.get(keys[i]) == VALUE ? 1 : 0;
+		}
+		return h;
+	    }
+	}, size);
+	harness.measure(new BenchmarkHarness.Case("HashMap values (" + size
+		+ ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (Object value : hashMap.values()) {
+		    h += value == VALUE ? 1 : 0;
+		}
+		return h;
+	    }
+	}, size);
+	harness.measure(new BenchmarkHarness.Case("ConcurrentHashMap values ("
+		+ size + ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (Object value : concurrentMap.values()) {
+		    h += value == VALUE ? 1 : 0;
+		}
+		return h;
+	    }
+	}, size);
+	harness.measure(new BenchmarkHarness.Case("IntObjectMap values ("
+		+ size + ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (Object value : intMap.values()) {
+		    h += value == VALUE ? 1 : 0;
+		}
+		return h;
+	    }
+	}, size);
+    }
+
+    public static void main(final String[] args) throws Exception {
+	int[] sizes = { 100000, 1000000 };
+	if (args.length > 0) {
+	    sizes = new int[args.length];
+	    for (int i = 0; i < args.length; ++i) {
+		sizes[i] = Integer.parseInt(args[i]);
+	    }
+	}
+	for (int size : sizes) {
+	    new IntObjectMapBenchmark(size).run();
+	}
+	System.out.println("(sink " + BenchmarkHarness.sink + ")");
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+/**
+ * Latency histogram in nanoseconds, with 32 buckets by power of two
+ * (relative error under 3.2%). Not thread-safe: one histogram by thread,
+ * merged for the report.
+ *
+ * @author simplelib.org
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * @param nanos
+     *            Latency in ns.
+     */
+    void record(final long nanos) {
+	final long value = Math.max(0, nanos);
+	++this.counts[index(value)];
+	++this.count;
+	if (value > this.max) {
+	    this.max = value;
+	}
+    }
+
+    /** Add the values of another histogram to this one. */
+    void merge(final LatencyHistogram other) {
+	for (int i = 0; i < this.counts.length; ++i) {
+	    this.counts[i] += other.counts[i];
+	}
+	this.count += other.count;
+	this.max = Math.max(this.max, other.max);
+    }
+
+    long getCount() {
+	return this.count;
+    }
+
+    long getMax() {
+	return this.max;
+    }
+
+    /**
+     * @param quantile
+     *            Quantile, between 0 and 1.
+     * @return Upper bound of the bucket holding the quantile, in ns.
+     */
+    long percentile(final double quantile) {
+	if (this.count == 0) {
+	    return 0;
+	}
+	final long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+	long seen = 0;
+	for (int i = 0; i < this.counts.length; ++i) {
+	    seen += this.counts[i];
+	    if (seen >= rank) {
+		return Math.min(upperBound(i), this.max);
+	    }
+	}
+	return this.max;
+    }
+
+    private static int index(final long value) {
+	if (value < SUB_BUCKETS) {
+	    return (int) value;
+	}
+	final int exp = 63 - Long.numberOfLeadingZeros(value);
+	final int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+	return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(final int index) {
+	if (index < SUB_BUCKETS) {
+	    return index;
+	}
+	final int shift = index / SUB_BUCKETS - 1;
+	final int sub = index % SUB_BUCKETS;
+	return ((SUB_BUCKETS + sub + 1L) << shift) - 1;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.simplelib.simplepersist.annotation.Index;
+import org.simplelib.simplepersist.annotation.QueryCache;
+import org.simplelib.simplepersist.annotation.Table;
+
+/**
+ * Mixed workload load generator: N threads run a random mix of reads by id,
+ * searches by model, updates and inserts against a {@link SqlDao} entity or
+ * an {@link ObjectDao} entity, then report the throughput and the latency
+ * percentiles of each operation.
+ * <p>
+ * Run with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -cp out:h2.jar org.simplelib.simplepersist.dao.LoadGenerator [options]
+ * </pre>
+ *
+ * Options, with their default values:
+ * <ul>
+ * <li>{@code --store=sql}: {@code sql} (embedded database) or
+ * {@code object} (in memory).</li>
+ * <li>{@code --threads=8}: worker threads.</li>
+ * <li>{@code --virtual}: virtual threads instead of platform threads (Java
+ * 21 and later).</li>
+ * <li>{@code --duration=30}, {@code --warmup=5}: measured and warm-up time
+ * in seconds.</li>
+ * <li>{@code --rows=10000}: rows inserted before the run.</li>
+ * <li>{@code --mix=read:70,query:20,update:8,insert:2}: weights of the
+ * operations.</li>
+ * <li>{@code --no-cache}: disable the query caches.</li>
+ * <li>{@code --url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1}, {@code --user=sa},
+ * {@code --password=}: database of the {@code sql} store.</li>
+ * </ul>
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class LoadGenerator {
+    /** Generated operations. */
+    static enum Op {
+	/** Read by id. */
+	READ,
+	/** Search by model on an indexed field. */
+	QUERY,
+	/** Update of an existing row. */
+	UPDATE,
+	/** Insert of a new row. */
+	INSERT
+    }
+
+    /** Entity of the {@code sql} store. */
+    @Table(name = "load_person")
+    @QueryCache(maxEntries = 256)
+    public static final class Person extends Entity<Person> {
+	String name;
+	@Index
+	Integer code;
+	double balance;
+
+	public Person() {
+	}
+    }
+
+    /** Entity of the {@code object} store. */
+    @QueryCache(maxEntries = 256)
+    public static final class Item extends Entity<Item> {
+	String name;
+	@Index
+	Integer code;
+	double balance;
+
+	public Item() {
+	}
+    }
+
+    /** Operations on one store. */
+    private abstract static class Workload {
+	/** Distinct codes: a query reads rows / CODES rows. */
+	static final int CODES = 100;
+
+	abstract void setUp(int rows) throws Exception;
+
+	/**
+	 * Run an operation.
+	 * 
+	 * @param op
+	 *            Operation.
+	 * @param random
+	 *            Random source of the thread.
+	 * @param rows
+	 *            Rows inserted before the run: ids to read and update.
+	 * @return Value depending on the work done.
+	 */
+	abstract int execute(Op op, Random random, int rows);
+
+	void tearDown() {
+	    // Nothing by default
+	}
+    }
+
+    private static final class SqlWorkload extends Workload {
+	@Override
+	void setUp(final int rows) {
+	    Queries.dropTableIfExists(Person.class).execute();
+	    Queries.createTable(Person.class).execute();
+	    List<Person> persons = new ArrayList<Person>(rows);
+	    for (int i = 0; i < rows; ++i) {
+		persons.add(newPerson(new Random(i)));
+	    }
+	    Queries.insertAll(persons);
+	}
+
+	private static Person newPerson(final Random random) {
+	    Person p = new Person();
+	    p.name = "person" + random.nextInt(1000000);
+	    p.code = 1 + random.nextInt(CODES);
+	    p.balance = random.nextInt(100000);
+	    return p;
+	}
+
+	@Override
+	int execute(final Op op, final Random random, final int rows) {
+	    switch (op) {
+	    case READ:
+		Person read = Queries.search(Person.class,
+			1 + random.nextInt(rows));
+		return read == null ? 0 : 1;
+	    case QUERY:
+		Person model = new Person();
+		model.code = 1 + random.nextInt(CODES);
+		return Queries.search(model).size();
+	    case UPDATE:
+		Person p = newPerson(random);
+		p.setId(1 + random.nextInt(rows));
+		return p.update();
+	    default:
+		Person added = newPerson(random);
+		added.insert();
+		return added.getId();
+	    }
+	}
+
+	@Override
+	void tearDown() {
+	    System.out.println("Pool: " + AccesBdd.getPoolStatistics());
+	    Queries.dropTableIfExists(Person.class).execute();
+	}
+    }
+
+    private static final class ObjectWorkload extends Workload {
+	@Override
+	void setUp(final int rows) {
+	    for (int i = 0; i < rows; ++i) {
+		newItem(new Random(i)).insert();
+	    }
+	}
+
+	private static Item newItem(final Random random) {
+	    Item item = new Item();
+	    item.name = "item" + random.nextInt(1000000);
+	    item.code = Integer.valueOf(1 + random.nextInt(CODES));
+	    item.balance = random.nextInt(100000);
+	    return item;
+	}
+
+	@Override
+	int execute(final Op op, final Random random, final int rows) {
+	    switch (op) {
+	    case READ:
+		Item read = Queries.search(Item.class, 1 + random.nextInt(rows));
+		return read == null ? 0 : 1;
+	    case QUERY:
+		Item model = new Item();
+		model.code = Integer.valueOf(1 + random.nextInt(CODES));
+		return Queries.search(model).size();
+	    case UPDATE:
+		Item item = newItem(random);
+		item.setId(1 + random.nextInt(rows));
+		return item.update();
+	    default:
+		Item added = newItem(random);
+		added.insert();
+		return added.getId();
+	    }
+	}
+    }
+
+    /** Worker thread state: latencies and errors by operation. */
+    private final class Worker implements Runnable {
+	private final Random RANDOM;
+	private final LatencyHistogram[] LATENCIES = new LatencyHistogram[Op
+		.values().length];
+	private final long[] ERRORS = new long[Op.values().length];
+	private int sink;
+
+	private Worker(final long seed) {
+	    this.RANDOM = new Random(seed);
+	    for (int i = 0; i < this.LATENCIES.length; ++i) {
+		this.LATENCIES[i] = new LatencyHistogram();
+	    }
+	}
+
+	@Override
+	public void run() {
+	    try {
+		while (!stopped) {
+		    final Op op = nextOp(this.RANDOM);
+		    final boolean measured = measuring;
+		    final long start = System.nanoTime();
+		    try {
+			this.sink += workload.execute(op, this.RANDOM, ROWS);
+		    } catch (RuntimeException e) {
+			if (measured) {
+			    ++this.ERRORS[op.ordinal()];
+			}
+			continue;
+		    }
+		    if (measured) {
+			this.LATENCIES[op.ordinal()].record(System.nanoTime()
+				- start);
+		    }
+		}
+	    } finally {
+		done.countDown();
+	    }
+	}
+    }
+
+    private final Workload workload;
+    private final int THREADS;
+    private final boolean VIRTUAL;
+    private final int ROWS;
+    /** Cumulated weights of the operations. */
+    private final int[] WEIGHTS = new int[Op.values().length];
+
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+    private CountDownLatch done;
+
+    private LoadGenerator(final Workload workload, final int threads,
+	    final boolean virtual, final int rows, final String mix) {
+	this.workload = workload;
+	this.THREADS = threads;
+	this.VIRTUAL = virtual;
+	this.ROWS = rows;
+	int total = 0;
+	int[] weights = new int[Op.values().length];
+	for (String part : mix.split(",")) {
+	    String[] kv = part.split(":");
+	    weights[Op.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer
+		    .parseInt(kv[1].trim());
+	}
+	for (int i = 0; i < weights.length; ++i) {
+	    total += weights[i];
+	    this.WEIGHTS[i] = total;
+	}
+	if (total <= 0) {
+	    throw new IllegalArgumentException("Empty mix: " + mix);
+	}
+    }
+
+    private Op nextOp(final Random random) {
+	int r = random.nextInt(this.WEIGHTS[this.WEIGHTS.length - 1]);
+	int i = 0;
+	while (r >= this.WEIGHTS[i]) {
+	    ++i;
+	}
+	return Op.values()[i];
+    }
+
+    /**
+     * New thread. Virtual threads are created by reflection, the library
+     * being compiled for older JVMs.
+     */
+    private Thread newThread(final Runnable task, final int index)
+	    throws Exception {
+	if (this.VIRTUAL) {
+	    Method ofVirtual;
+	    try {
+		ofVirtual = Thread.class.getMethod("ofVirtual");
+	    } catch (NoSuchMethodException e) {
+		throw new UnsupportedOperationException(
+			"Virtual threads require Java 21 or later.");
+	    }
+	    Object builder = ofVirtual.invoke(null);
+	    Method unstarted = Class.forName("java.lang.Thread$Builder")
+		    .getMethod("unstarted", Runnable.class);
+	    return (Thread) unstarted.invoke(builder, task);
+	}
+	Thread thread = new Thread(task, "load-" + index);
+	thread.setDaemon(true);
+	return thread;
+    }
+
+    private void run(final long warmupMillis, final long durationMillis)
+	    throws Exception {
+	Worker[] workers = new Worker[this.THREADS];
+	Thread[] threads = new Thread[this.THREADS];
+	for (int i = 0; i < this.THREADS; ++i) {
+	    workers[i] = new Worker(i);
+	    threads[i] = newThread(workers[i], i);
+	}
+	System.out.println("Preparing " + this.ROWS + " rows...");
+	this.workload.setUp(this.ROWS);
+
+	this.done = new CountDownLatch(this.THREADS);
+	for (Thread thread : threads) {
+	    thread.start();
+	}
+	Thread.sleep(warmupMillis);
+	this.measuring = true;
+	final long start = System.nanoTime();
+	Thread.sleep(durationMillis);
+	this.measuring = false;
+	final long elapsed = System.nanoTime() - start;
+	this.stopped = true;
+	this.done.await();
+
+	report(workers, elapsed);
+	this.workload.tearDown();
+    }
+
+    private void report(final Worker[] workers, final long elapsedNanos) {
+	final double seconds = elapsedNanos / 1e9;
+	long total = 0;
+	int sink = 0;
+	System.out.printf("%-8s %10s %10s %8s %10s %10s %10s %10s%n", "op",
+		"count", "ops/s", "errors", "p50 us", "p99 us", "p999 us",
+		"max us");
+	for (Op op : Op.values()) {
+	    LatencyHistogram latencies = new LatencyHistogram();
+	    long errors = 0;
+	    for (Worker worker : workers) {
+		latencies.merge(worker.LATENCIES[op.ordinal()]);
+		errors += worker.ERRORS[op.ordinal()];
+	    }
+	    total += latencies.getCount();
+	    System.out.printf("%-8s %10d %10.0f %8d %10.1f %10.1f %10.1f %10.1f%n",
+		    op.name().toLowerCase(), latencies.getCount(),
+		    latencies.getCount() / seconds, errors,
+		    latencies.percentile(0.5) / 1e3,
+		    latencies.percentile(0.99) / 1e3,
+		    latencies.percentile(0.999) / 1e3,
+		    latencies.getMax() / 1e3);
+	}
+	for (Worker worker : workers) {
+	    sink += worker.sink;
+	}
+	System.out.printf("total    %10d %10.0f  (%d %s threads, sink %d)%n",
+		total, total / seconds, this.THREADS, this.VIRTUAL ? "virtual"
+			: "platform", sink);
+    }
+
+    public static void main(final String[] args) throws Exception {
+	String store = "sql";
+	int threads = 8;
+	boolean virtual = false;
+	long duration = 30;
+	long warmup = 5;
+	int rows = 10000;
+	String mix = "read:70,query:20,update:8,insert:2";
+	String url = "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1";
+	String user = "sa";
+	String password = "";
+	for (String arg : args) {
+	    String value = arg.substring(arg.indexOf('=') + 1);
+	    if (arg.startsWith("--store=")) {
+		store = value;
+	    } else if (arg.startsWith("--threads=")) {
+		threads = Integer.parseInt(value);
+	    } else if (arg.equals("--virtual")) {
+		virtual = true;
+	    } else if (arg.startsWith("--duration=")) {
+		duration = Long.parseLong(value);
+	    } else if (arg.startsWith("--warmup=")) {
+		warmup = Long.parseLong(value);
+	    } else if (arg.startsWith("--rows=")) {
+		rows = Integer.parseInt(value);
+	    } else if (arg.startsWith("--mix=")) {
+		mix = value;
+	    } else if (arg.equals("--no-cache")) {
+		Queries.setUseCache(false);
+	    } else if (arg.startsWith("--url=")) {
+		url = value;
+	    } else if (arg.startsWith("--user=")) {
+		user = value;
+	    } else if (arg.startsWith("--password=")) {
+		password = value;
+	    } else {
+		throw new IllegalArgumentException("Unknown option: " + arg);
+	    }
+	}
+	Workload workload;
+	if (store.equals("sql")) {
+	    AccesBdd.connect(url, user, password);
+	    workload = new SqlWorkload();
+	} else if (store.equals("object")) {
+	    workload = new ObjectWorkload();
+	} else {
+	    throw new IllegalArgumentException("Unknown store: " + store);
+	}
+	new LoadGenerator(workload, threads, virtual, rows, mix).run(
+		warmup * 1000, duration * 1000);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import org.simplelib.simplepersist.annotation.Index;
+
+/**
+ * Cost of the {@link ObjectDao} operations by store size: add, search on an
+ * indexed field and full scan search.
+ * <p>
+ * Run with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -Xmx8g -cp out org.simplelib.simplepersist.dao.ObjectDaoBenchmark [sizes...]
+ * </pre>
+ *
+ * Default sizes are 10000 and 1000000 entities; 10000000 needs a large heap.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class ObjectDaoBenchmark {
+    /** Sample entity, in memory. */
+    public static final class Item extends Entity<Item> {
+	@Index
+	String category;
+	int code;
+	double price;
+
+	public Item() {
+	}
+    }
+
+    /** Distinct indexed values. */
+    private static final String[] CATEGORIES = new String[1024];
+    static {
+	for (int i = 0; i < CATEGORIES.length; ++i) {
+	    CATEGORIES[i] = ("c" + i).intern();
+	}
+    }
+
+    /** Distinct values of the non indexed field. */
+    private static final int CODES = 100000;
+
+    private final int SIZE;
+    private ObjectDao<Item> dao;
+
+    private ObjectDaoBenchmark(final int size) {
+	this.SIZE = size;
+    }
+
+    private static Item newItem(final int i) {
+	Item item = new Item();
+	item.category = CATEGORIES[i % CATEGORIES.length];
+	item.code = 1 + i % CODES;
+	item.price = i;
+	return item;
+    }
+
+    /** Fill a new store, timing the adds after a warm-up fill. */
+    private void fill() {
+	ObjectDao<Item> warmup = new ObjectDao<Item>(null, 100, 2);
+	for (int i = 0; i < 100000; ++i) {
+	    warmup.add(newItem(i));
+	}
+	// Same configuration as the DAOs created by Entity.
+	this.dao = new ObjectDao<Item>(null, 100, 2);
+	long start = System.nanoTime();
+	for (int i = 0; i < this.SIZE; ++i) {
+	    this.dao.add(newItem(i));
+	}
+	long time = System.nanoTime() - start;
+	BenchmarkHarness.report("add (" + this.SIZE + ")", time, time,
+		this.SIZE);
+    }
+
+    private void run() throws Exception {
+	fill();
+	BenchmarkHarness harness = new BenchmarkHarness(2, 5);
+	harness.measure(new BenchmarkHarness.Case("indexed search ("
+		+ this.SIZE + ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		Item model = new Item();
+		for (int i = 0; i < ops; ++i) {
+		    model.category = CATEGORIES[i % CATEGORIES.length];
+		    h += dao.search(model).size();
+		}
+		return h;
+	    }
+	}, Math.max(1, (int) (2000000000L / this.SIZE)));
+	harness.measure(new BenchmarkHarness.Case("full scan search ("
+		+ this.SIZE + ")") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		Item model = new Item();
+		for (int i = 0; i < ops; ++i) {
+		    model.code = 1 + i % CODES;
+		    h += dao.search(model).size();
+		}
+		return h;
+	    }
+	}, Math.max(1, 20000000 / this.SIZE));
+	this.dao = null;
+    }
+
+    public static void main(final String[] args) throws Exception {
+	int[] sizes = { 10000, 1000000 };
+	if (args.length > 0) {
+	    sizes = new int[args.length];
+	    for (int i = 0; i < args.length; ++i) {
+		sizes[i] = Integer.parseInt(args[i]);
+	    }
+	}
+	for (int size : sizes) {
+	    new ObjectDaoBenchmark(size).run();
+	}
+	System.out.println("(sink " + BenchmarkHarness.sink + ")");
+    }
+}
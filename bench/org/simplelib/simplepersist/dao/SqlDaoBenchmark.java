@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simplelib.simplepersist.annotation.Table;
+import org.simplelib.simplepersist.dao.Queries.Query;
+
+/**
+ * Cost of the {@link SqlDao} operations against an embedded in-process
+ * database: add, addAll, search by model, update and DSL select.
+ * <p>
+ * The JDBC driver of the database (H2 by default, or HSQLDB) must be on the
+ * class path. Run with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -cp out:h2.jar org.simplelib.simplepersist.dao.SqlDaoBenchmark [url user password]
+ * </pre>
+ *
+ * For HSQLDB: {@code jdbc:hsqldb:mem:bench SA ""}.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class SqlDaoBenchmark {
+    /** Sample entity. */
+    @Table(name = "bench_person")
+    public static final class Person extends Entity<Person> {
+	String name;
+	int age;
+	int code;
+	double balance;
+
+	public Person() {
+	}
+    }
+
+    /** Rows inserted before measuring. */
+    private static final int ROWS = 10000;
+    /** Distinct codes: a search by code reads ROWS / CODES rows. */
+    private static final int CODES = 100;
+    private static final int BATCH = 100;
+    private static final int OPS = 2000;
+
+    private int next;
+    private List<Person> persons;
+
+    private Person newPerson() {
+	Person p = new Person();
+	p.name = "person" + this.next;
+	p.age = 1 + this.next % 90;
+	p.code = 1 + this.next % CODES;
+	p.balance = this.next;
+	++this.next;
+	return p;
+    }
+
+    private void setUp() {
+	Queries.dropTableIfExists(Person.class).execute();
+	Queries.createTable(Person.class).execute();
+	List<Person> rows = new ArrayList<Person>(ROWS);
+	for (int i = 0; i < ROWS; ++i) {
+	    rows.add(newPerson());
+	}
+	Queries.insertAll(rows);
+	this.persons = rows;
+    }
+
+    private void run() throws Exception {
+	setUp();
+	BenchmarkHarness harness = new BenchmarkHarness(2, 5);
+	harness.measure(new BenchmarkHarness.Case("add") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    Person p = newPerson();
+		    p.insert();
+		    h += p.getId();
+		}
+		return h;
+	    }
+	}, OPS);
+	harness.measure(new BenchmarkHarness.Case("addAll (" + BATCH
+		+ " rows)") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    List<Person> batch = new ArrayList<Person>(BATCH);
+		    for (int j = 0; j < BATCH; ++j) {
+			batch.add(newPerson());
+		    }
+		    Queries.insertAll(batch);
+		    h += batch.get(BATCH - 1).getId();
+		}
+		return h;
+	    }
+	}, OPS / BATCH);
+	harness.measure(new BenchmarkHarness.Case("search(T)") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		Person model = new Person();
+		for (int i = 0; i < ops; ++i) {
+		    model.code = 1 + i % CODES;
+		    h += Queries.search(model).size();
+		}
+		return h;
+	    }
+	}, OPS);
+	harness.measure(new BenchmarkHarness.Case("update") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    Person p = persons.get(i % persons.size());
+		    p.balance += 1;
+		    h += p.update();
+		}
+		return h;
+	    }
+	}, OPS);
+	final Query<List<Person>> byCode = Queries.select(Person.class).where(
+		"code = ?", 1);
+	harness.measure(new BenchmarkHarness.Case("select (DSL)") {
+	    @Override
+	    int run(final int ops) {
+		int h = 0;
+		for (int i = 0; i < ops; ++i) {
+		    h += byCode.executeWith(1 + i % CODES).size();
+		}
+		return h;
+	    }
+	}, OPS);
+	Queries.dropTableIfExists(Person.class).execute();
+    }
+
+    public static void main(final String[] args) throws Exception {
+	String url = "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+	String user = "sa";
+	String password = "";
+	if (args.length >= 3) {
+	    url = args[0];
+	    user = args[1];
+	    password = args[2];
+	}
+	AccesBdd.connect(url, user, password);
+	new SqlDaoBenchmark().run();
+	System.out.println("(sink " + BenchmarkHarness.sink + ")");
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * In-process JDBC driver answering every query with canned rows, for the
+ * measures of the library's own costs ({@code jdbc:stub:} URLs).
+ * <p>
+ * Statements accept any SQL: updates count one row, queries return
+ * {@link #rows} rows whose integer columns hold a small number (1 to 64, so
+ * that boxing uses the {@link Integer} cache), string columns {@code "s"}
+ * and double columns {@code 0.5}. The JDBC objects are dynamic proxies, whose
+ * dispatch allocates an argument array by call.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+final class StubDriver implements Driver {
+    static final String URL = "jdbc:stub:";
+
+    /** Rows returned by the queries. */
+    static volatile int rows = 10;
+
+    private static final Double DOUBLE_VALUE = Double.valueOf(0.5);
+    private static final Double ZERO = Double.valueOf(0);
+
+    static {
+	try {
+	    DriverManager.registerDriver(new StubDriver());
+	} catch (SQLException e) {
+	    throw new ExceptionInInitializerError(e);
+	}
+    }
+
+    /** Register the driver. */
+    static void register() {
+	// Done by the class initialization.
+    }
+
+    /**
+     * @param count
+     *            Number of rows.
+     * @return New {@link ResultSet} before its first row.
+     */
+    static ResultSet resultSet(final int count) {
+	return (ResultSet) proxy(ResultSet.class, new ResultSetHandler(count));
+    }
+
+    private static Object proxy(final Class<?> type,
+	    final InvocationHandler handler) {
+	return Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+		new Class<?>[] { type }, handler);
+    }
+
+    /** Default value of a method returning a primitive. */
+    private static Object defaultValue(final Class<?> type) {
+	if (type == Boolean.TYPE) {
+	    return Boolean.FALSE;
+	} else if (type == Integer.TYPE) {
+	    return Integer.valueOf(0);
+	} else if (type == Long.TYPE) {
+	    return Long.valueOf(0);
+	} else if (type == Double.TYPE) {
+	    return ZERO;
+	}
+	return null;
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+	private boolean autoCommit = true;
+
+	@Override
+	public Object invoke(final Object proxy, final Method method,
+		final Object[] args) {
+	    String name = method.getName();
+	    if (name.equals("prepareStatement")
+		    || name.equals("createStatement")) {
+		return proxy(PreparedStatement.class, new StatementHandler());
+	    } else if (name.equals("getAutoCommit")) {
+		return Boolean.valueOf(this.autoCommit);
+	    } else if (name.equals("setAutoCommit")) {
+		this.autoCommit = (Boolean) args[0];
+		return null;
+	    } else if (name.equals("isValid")) {
+		return Boolean.TRUE;
+	    }
+	    return defaultValue(method.getReturnType());
+	}
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+	private int batch;
+
+	@Override
+	public Object invoke(final Object proxy, final Method method,
+		final Object[] args) {
+	    String name = method.getName();
+	    if (name.equals("executeQuery")) {
+		return proxy(ResultSet.class, new ResultSetHandler(rows));
+	    } else if (name.equals("getGeneratedKeys")) {
+		return proxy(ResultSet.class, new ResultSetHandler(
+			Math.max(1, this.batch)));
+	    } else if (name.equals("executeUpdate")) {
+		return Integer.valueOf(1);
+	    } else if (name.equals("addBatch")) {
+		++this.batch;
+		return null;
+	    } else if (name.equals("executeBatch")) {
+		int[] counts = new int[this.batch];
+		Arrays.fill(counts, 1);
+		return counts;
+	    } else if (name.equals("clearBatch")) {
+		this.batch = 0;
+		return null;
+	    }
+	    return defaultValue(method.getReturnType());
+	}
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+	private final int ROWS;
+	private int row;
+
+	private ResultSetHandler(final int rows) {
+	    this.ROWS = rows;
+	}
+
+	@Override
+	public Object invoke(final Object proxy, final Method method,
+		final Object[] args) {
+	    String name = method.getName();
+	    if (name.equals("next")) {
+		return Boolean.valueOf(++this.row <= this.ROWS);
+	    } else if (name.equals("getInt") || name.equals("getObject")) {
+		return Integer.valueOf(1 + (this.row & 63));
+	    } else if (name.equals("getLong")) {
+		return Long.valueOf(1 + (this.row & 63));
+	    } else if (name.equals("getDouble")) {
+		return DOUBLE_VALUE;
+	    } else if (name.equals("getString")) {
+		return "s";
+	    }
+	    return defaultValue(method.getReturnType());
+	}
+    }
+
+    @Override
+    public Connection connect(final String url, final Properties info) {
+	if (!acceptsURL(url)) {
+	    return null;
+	}
+	return (Connection) proxy(Connection.class, new ConnectionHandler());
+    }
+
+    @Override
+    public boolean acceptsURL(final String url) {
+	return url.startsWith(URL);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(final String url,
+	    final Properties info) {
+	return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+	return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+	return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+	return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+	throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Enable identity cache: entities loaded by id are kept by DAO, so repeated
+ * lookups by id of rarely modified entities (reference tables) do not reach
+ * the database. Lookups take no lock. Entries are evicted by updates and
+ * removals through the DAO, and beyond {@link #maxEntries()} the entities not
+ * used recently (approximate LRU).
+ * 
+ * @author simplelib.org
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface IdentityCache {
+    /** Maximal number of cached entities. */
+    int maxEntries() default 10000;
+
+    /** Time to live of a cached entity in seconds, 0 for no expiration. */
+    int ttlSeconds() default 0;
+}
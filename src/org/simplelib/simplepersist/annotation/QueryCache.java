@@ -1,37 +1,44 @@
-/*
- * Copyright 2012 simplelib.org
- * 
- * This file is part of SimplePersist.
- * 
- * SimplePersist is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * SimplePersist is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.simplelib.simplepersist.annotation;
-
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
-
-/**
- * Enable query cache. Object must implement {@link Cloneable} interface,
- * <code>clone()</code> and <code>equals()</code> methods.
- * 
- * @author simplelib.org
- */
-@Target(ElementType.TYPE)
-@Retention(RetentionPolicy.RUNTIME)
-public @interface QueryCache {
-
-}
+/*
+ * Copyright 2012 simplelib.org
+ * 
+ * This file is part of SimplePersist.
+ * 
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Enable query cache: search results are kept by DAO, keyed by the values of
+ * the search model, the results not used recently (approximate LRU) being
+ * evicted beyond {@link #maxEntries()}. A write through the DAO only
+ * invalidates the results which contained the written entity or whose model
+ * matches its new values.
+ * 
+ * @author simplelib.org
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface QueryCache {
+    /** Maximal number of cached results. */
+    int maxEntries() default 64;
+
+    /** Time to live of a cached result in seconds, 0 for no expiration. */
+    int ttlSeconds() default 0;
+}
@@ -19,24 +19,58 @@
 
 package org.simplelib.simplepersist.dao;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.regex.Pattern;
 
+import org.simplelib.simplepersist.annotation.QueryCache;
+import org.simplelib.simplepersist.dao.DaoStats.Operation;
+import org.simplelib.simplepersist.dao.Queries.CacheStatistics;
 import org.simplelib.simplepersist.dao.Queries.Query;
 
 abstract class AbstractDao<T extends Entity<?>> implements IDao<T> {
     /** Generated serial version UID. */
     private static final long serialVersionUID = -8893032967789623818L;
     protected static final Pattern RC_PATTERN = Pattern.compile("\\r?\\n");
-    /** Using cache for last query. */
-    private final boolean USE_QUERY_CACHE;
-    /** Last search model. */
-    private T lastModel;
-    /** Last result. */
-    private List<T> lastResult;
+    /** Cached search result and ids of the entities found. */
+    private static final class CachedSearch<T extends Entity<?>> {
+	private final List<T> RESULT;
+	private final Set<Integer> IDS;
 
-    public AbstractDao(final boolean queryCache) {
-	this.USE_QUERY_CACHE = Queries.useCache;
+	private CachedSearch(final List<T> result) {
+	    this.RESULT = new ArrayList<T>(result);
+	    this.IDS = new HashSet<Integer>(result.size() * 4 / 3 + 1);
+	    for (T entity : result) {
+		if (entity.isInserted()) {
+		    this.IDS.add(entity.getId());
+		}
+	    }
+	}
+    }
+
+    /**
+     * Search results by model values, {@code null} if the entity is not
+     * annotated {@link QueryCache}.
+     */
+    private final transient QueryResultCache<List<Object>, CachedSearch<T>> QUERY_CACHE;
+    /** Writes count, incremented after each write. */
+    private final AtomicLong VERSION = new AtomicLong();
+    /** Operations statistics, published through JMX. */
+    final transient DaoStats STATS = new DaoStats();
+
+    /**
+     * @param queryCache
+     *            Query cache configuration, {@code null} to disable it.
+     */
+    public AbstractDao(final QueryCache queryCache) {
+	this.QUERY_CACHE = queryCache == null ? null
+		: new QueryResultCache<List<Object>, CachedSearch<T>>(
+			queryCache.maxEntries(), queryCache.ttlSeconds());
     }
 
     /**
@@ -48,10 +82,17 @@ abstract class AbstractDao<T extends Entity<?>> implements IDao<T> {
      */
     @Override
     public int addAll(final List<T> objects) {
-	unCache();
+	final long start = System.nanoTime();
 	int i = 0;
-	for (T o : objects) {
-	    i += add(o);
+	try {
+	    for (T o : objects) {
+		i += add(o);
+	    }
+	} catch (RuntimeException e) {
+	    this.STATS.failed(Operation.ADD_ALL);
+	    throw e;
+	} finally {
+	    this.STATS.record(Operation.ADD_ALL, start);
 	}
 	return i;
     }
@@ -65,10 +106,17 @@ abstract class AbstractDao<T extends Entity<?>> implements IDao<T> {
      */
     @Override
     public int updateAll(final List<T> objects) {
-	unCache();
+	final long start = System.nanoTime();
 	int i = 0;
-	for (T o : objects) {
-	    i += update(o);
+	try {
+	    for (T o : objects) {
+		i += update(o);
+	    }
+	} catch (RuntimeException e) {
+	    this.STATS.failed(Operation.UPDATE_ALL);
+	    throw e;
+	} finally {
+	    this.STATS.record(Operation.UPDATE_ALL, start);
 	}
 	return i;
     };
@@ -107,35 +155,156 @@ abstract class AbstractDao<T extends Entity<?>> implements IDao<T> {
 			+ " Use @Table annotation to link an entity with a SQL database.");
     }
 
-    protected boolean isInCache(final T model) {
-	return USE_QUERY_CACHE && Queries.useCache
-		&& model.equals(this.lastModel);
+    public <R> R execute(Query<R> query, Object[] params) {
+	if (params == null || params.length == 0) {
+	    return execute(query);
+	}
+	throw new UnsupportedOperationException(
+		"Unsupported operation on this DAO."
+			+ " Use @Table annotation to link an entity with a SQL database.");
     }
 
-    protected void unCache() {
-	if (USE_QUERY_CACHE) {
-	    lastModel = null;
+    public Cursor<T> stream(Query<?> query) {
+	throw new UnsupportedOperationException(
+		"Unsupported operation on this DAO."
+			+ " Use @Table annotation to link an entity with a SQL database.");
+    }
+
+    /**
+     * Writes count of the entity, to read before a search whose result is
+     * to be cached.
+     * 
+     * @return Current version.
+     */
+    long getVersion() {
+	return this.VERSION.get();
+    }
+
+    /**
+     * Cached result of a search.
+     * 
+     * @param key
+     *            Model values, as returned by {@link Entity#getValues()}.
+     * @return Copy of the cached result, {@code null} if absent.
+     */
+    protected List<T> getCached(final List<Object> key) {
+	if (this.QUERY_CACHE == null || !Queries.useCache) {
+	    return null;
 	}
-    };
+	CachedSearch<T> cached = this.QUERY_CACHE.get(key);
+	if (cached == null) {
+	    this.STATS.cacheMiss();
+	    return null;
+	}
+	this.STATS.cacheHit();
+	if (AccesBdd.LOGGER.isLoggable(Level.FINEST)) {
+	    AccesBdd.LOGGER.finest("Using query cache.");
+	}
+	return new ArrayList<T>(cached.RESULT);
+    }
+
+    /**
+     * Cache the result of a search, unless a write occurred since the search
+     * started.
+     * 
+     * @param key
+     *            Model values, as returned by {@link Entity#getValues()}.
+     * @param result
+     *            Search result, copied.
+     * @param version
+     *            {@link #getVersion()} read before the search.
+     */
+    protected void toCache(final List<Object> key, final List<T> result,
+	    final long version) {
+	if (this.QUERY_CACHE != null && Queries.useCache) {
+	    CachedSearch<T> cached = new CachedSearch<T>(result);
+	    // Checked with the lock held by invalidations.
+	    synchronized (this.QUERY_CACHE) {
+		if (this.VERSION.get() == version) {
+		    this.QUERY_CACHE.put(key, cached);
+		}
+	    }
+	}
+    }
 
-    protected List<T> getCache(final T model) {
-	AccesBdd.LOGGER.finest("Using query cache.");
-	return this.lastResult;
-    }
-
-    @SuppressWarnings("unchecked")
-    protected void toCache(final T model, final List<T> result) {
-	if (USE_QUERY_CACHE && Queries.useCache) {
-	    try {
-		this.lastModel = (T) model.getClass().getMethod("clone")
-			.invoke(model);
-		this.lastResult = result;
-	    } catch (Exception e) {
-		AccesBdd.LOGGER
-			.warning("Using query cache on a non clonable entity.");
-		this.lastModel = null;
-		this.lastResult = null;
+    /**
+     * Invalidation after the write of an entity.
+     * 
+     * @param written
+     *            Entity added, updated or removed.
+     * @see #invalidate(List)
+     */
+    protected final void invalidate(final T written) {
+	invalidate(Collections.singletonList(written));
+    }
+
+    /**
+     * Invalidation after the write of entities, to call once written. Only
+     * the cached results which contained one of them, or whose model matches
+     * their new values, are removed.
+     * 
+     * @param written
+     *            Entities added, updated or removed.
+     */
+    protected void invalidate(final List<T> written) {
+	this.VERSION.incrementAndGet();
+	if (this.QUERY_CACHE == null || written.isEmpty()) {
+	    return;
+	}
+	final List<Integer> ids = new ArrayList<Integer>(written.size());
+	for (T entity : written) {
+	    if (entity.isInserted()) {
+		ids.add(entity.getId());
 	    }
 	}
+	this.QUERY_CACHE
+		.removeIf(new QueryResultCache.Filter<List<Object>, CachedSearch<T>>() {
+		    @Override
+		    public boolean accept(final List<Object> model,
+			    final CachedSearch<T> cached) {
+			for (Integer id : ids) {
+			    if (cached.IDS.contains(id)) {
+				return true;
+			    }
+			}
+			for (T entity : written) {
+			    if (mayMatch(entity, model)) {
+				return true;
+			    }
+			}
+			return false;
+		    }
+		});
+    }
+
+    /**
+     * Test if a written entity may be a result of a cached search, with the
+     * comparisons of the store: {@link Entity#matches(List)} by default.
+     * 
+     * @param written
+     *            Entity added, updated or removed.
+     * @param model
+     *            Model values of the cached search.
+     * @return {@code false} only if the entity can not be a result.
+     */
+    protected boolean mayMatch(final T written, final List<Object> model) {
+	return written.matches(model);
+    }
+
+    /**
+     * Invalidate all the cached results, after writes not made through the
+     * DAO.
+     */
+    protected void unCache() {
+	this.VERSION.incrementAndGet();
+	if (this.QUERY_CACHE != null) {
+	    this.QUERY_CACHE.clear();
+	}
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+	return this.QUERY_CACHE == null ? null : new CacheStatistics(
+		this.QUERY_CACHE);
     }
 }
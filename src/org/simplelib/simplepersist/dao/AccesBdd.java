@@ -1,361 +1,889 @@
-/*
- * Copyright 2012 simplelib.org
- * 
- * This file is part of SimplePersist.
- * 
- * SimplePersist is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * SimplePersist is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.simplelib.simplepersist.dao;
-
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Properties;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-/**
- * Connection class.
- * 
- * @author simplelib.org
- */
-public final class AccesBdd {
-    static final Logger LOGGER = Logger.getLogger("dao");
-    /** Properties file path with access data. */
-    private static final String PROPERTIES = "db.properties";
-    /** Avalaible databases list. */
-    private static List<Database> dbList = new ArrayList<AccesBdd.Database>();
-    /** Current database. */
-    private static Database currentDb;
-    /** Auto-connection. */
-    private static boolean autoConnect = true;
-
-    static class Database {
-	private final DatabaseType TYPE;
-	private Connection dbConnection;
-	// Database cache
-	private static Map<String, Database> dbMap = new HashMap<String, AccesBdd.Database>();
-
-	private Database(DatabaseType type) {
-	    this.TYPE = type;
-	}
-
-	private static Database valueOf(String url, String user, String password)
-		throws SQLException {
-	    Database db;
-	    if (dbMap.containsKey(url)) {
-		db = dbMap.get(url);
-	    } else {
-		db = new Database(DatabaseType.extractFrom(url));
-		dbMap.put(url, db);
-	    }
-	    if (db.dbConnection == null || db.dbConnection.isClosed()) {
-		db.dbConnection = DriverManager.getConnection(url, user,
-			password);
-	    }
-	    return db;
-	}
-
-	protected void close() throws SQLException {
-	    if (this.dbConnection.getAutoCommit() == false) {
-		this.dbConnection.commit();
-	    }
-	    this.dbConnection.close();
-	}
-
-	DatabaseType getType() {
-	    return TYPE;
-	}
-
-	private Connection getConnection() {
-	    return dbConnection;
-	}
-    }
-
-    static enum DatabaseType {
-	MYSQL("INTEGER AUTO_INCREMENT"), POSTGRESQL("SERIAL"), STANDARD_SQL(
-		"INTEGER GENERATED BY DEFAULT AS IDENTITY");
-
-	private DatabaseType(String automaticKey) {
-	    AUTOMATIC_KEY = automaticKey;
-	}
-
-	private final String AUTOMATIC_KEY;
-
-	void appendAutomaticKey(Appendable app, String field)
-		throws IOException {
-	    app.append(field);
-	    app.append(' ');
-	    app.append(AUTOMATIC_KEY);
-	}
-
-	private static DatabaseType extractFrom(String url) {
-	    String dbName = url.substring(5).toLowerCase();
-	    if (dbName.startsWith("mysql")) {
-		return DatabaseType.MYSQL;
-	    } else if (dbName.startsWith("postgresql")) {
-		return DatabaseType.POSTGRESQL;
-	    }
-	    // USING STANDARDIZED SQL SYNTAX
-	    else {
-		return DatabaseType.STANDARD_SQL;
-	    }
-	}
-    }
-
-    static Database currentDb() {
-	ensureDbConnection();
-	return currentDb;
-    }
-
-    /**
-     * Connect to a Database.
-     * 
-     * @param url
-     *            Database url.
-     * @param user
-     *            User name.
-     * @param pwd
-     *            Password.
-     * @throws SQLException
-     *             Connection error.
-     */
-    public static void connect(String url, String user, String pwd)
-	    throws SQLException {
-	currentDb = Database.valueOf(url, user, pwd);
-	if (!dbList.contains(currentDb)) {
-	    dbList.add(currentDb);
-	}
-    }
-
-    public static void connect(String propSource) throws SQLException {
-	if (!propSource.endsWith(".properties")) {
-	    propSource += ".properties";
-	}
-	Properties propFile = loadProperties(propSource);
-	String url = propFile.getProperty("url");
-	String user = propFile.getProperty("user");
-	String password = propFile.getProperty("password");
-	connect(url, user, password);
-    }
-
-    /** Disable autoconnection with properties file on first database access. */
-    public void disableAutoconnect() {
-	AccesBdd.autoConnect = false;
-    }
-
-    /** Disable autoconnection with properties file on first database access. */
-    public void enableAutoconnect() {
-	AccesBdd.autoConnect = true;
-    }
-
-    /**
-     * Déconnecte le serveur de toutes les BDD.
-     * 
-     * @throws Exception
-     *             En cas d'erreur SQL.
-     */
-    public static void close() {
-	for (Database db : dbList) {
-	    Connection con = db.getConnection();
-	    if (con != null) {
-		try {
-		    currentDb.getConnection().close();
-		} catch (Exception e) {
-		    LOGGER.severe("Problème de déconnection du serveur !");
-		    throw new RuntimeException(e);
-		}
-	    }
-	}
-    }
-
-    /**
-     * Checked {@link Statement} close.
-     * 
-     * @param stmt
-     *            {@link Statement} to close.
-     */
-    static void closeStatement(final Statement stmt) {
-	try {
-	    if (stmt != null) {
-		stmt.close();
-	    }
-	} catch (SQLException e) {
-	    // Erreur non blocante.
-	    e.printStackTrace();
-	    LOGGER.severe("Erreur lors de la fermeture du statement");
-	}
-    }
-
-    private static Properties loadProperties(String source) {
-	Properties propBD = new Properties();
-	InputStream in = null;
-	try {
-	    in = ClassLoader.getSystemResourceAsStream(source);
-	    propBD.load(in);
-	} catch (Exception e) {
-	    LOGGER.severe("Impossible de lire le fichier " + "properties: "
-		    + PROPERTIES);
-	    throw new RuntimeException(e);
-	} finally {
-	    if (in != null) {
-		try {
-		    in.close();
-		} catch (IOException e) {
-		    throw new RuntimeException(e);
-		}
-	    }
-	}
-	return propBD;
-    }
-
-    private static void ensureDbConnection() {
-	if (currentDb == null || currentDb.getConnection() == null) {
-	    if (autoConnect) {
-		// AUTOCONNECT
-		try {
-		    connect(PROPERTIES);
-		} catch (SQLException e) {
-		    LOGGER.severe("Impossible d'établir la connexion à la base de données.");
-		    throw new RuntimeException(e);
-		}
-	    }
-	}
-    }
-
-    /**
-     * Renvoie l'instance de connection après l'avoir créée si ce n'était pas
-     * déjà fait ou si la connection était fermée.
-     * 
-     * @return L'instance de connexion.
-     * @throws Exception
-     *             En cas d'erreur de connection.
-     */
-    public static Connection getConnection() {
-	ensureDbConnection();
-	Connection conn = currentDb.getConnection();
-	if (conn == null) {
-	    throw new IllegalStateException("No database connection avalaible.");
-	}
-	return conn;
-    }
-
-    /**
-     * Crée un PreparedStatement basé sur la requête SQL fournie.
-     * 
-     * @return Le PreparedStatement.
-     * @param req
-     *            La requête SQL.
-     * @throws Exception
-     *             En cas d'erreur SQL.
-     */
-    static PreparedStatement getPreparedStatement(final String req) {
-	try {
-	    return AccesBdd.getConnection().prepareStatement(req);
-	} catch (SQLException e) {
-	    LOGGER.severe("Impossible d'obtenir un PreparedStatement !");
-	    throw new RuntimeException(e);
-	}
-    }
-
-    /**
-     * Crée un PreparedStatement basé sur la requête SQL fournie.
-     * 
-     * @return Le PreparedStatement.
-     * @param req
-     *            La requête SQL.
-     * @throws Exception
-     *             En cas d'erreur SQL.
-     */
-    static PreparedStatement getPreparedStatementWithGenKeys(final String req) {
-	try {
-	    return AccesBdd.getConnection().prepareStatement(req,
-		    Statement.RETURN_GENERATED_KEYS);
-	} catch (SQLException e) {
-	    LOGGER.severe("Impossible d'obtenir un PreparedStatement !");
-	    throw new RuntimeException(e);
-	}
-    }
-
-    /**
-     * Fournit directement un Statement pour l'envoi direct d'une requète SQL.
-     * 
-     * @return Un Statement.
-     * @throws Exception
-     *             En cas d'erreur SQL.
-     */
-    static Statement getStatement() {
-	try {
-	    return AccesBdd.getConnection().createStatement();
-	} catch (Exception e) {
-	    LOGGER.severe("Impossible d'obtenir un Statement !");
-	    throw new RuntimeException(e);
-	}
-    }
-
-    /**
-     * Execute a batch of SQL commands.
-     * 
-     * @param file
-     *            Path of SQL file to execute.
-     * @throws Exception
-     */
-    public static void executeBatch(final String file) {
-	Statement stmt = null;
-	try {
-	    InputStream in = new BufferedInputStream(
-		    ClassLoader.getSystemResourceAsStream(file));
-	    StringBuilder sql = new StringBuilder();
-	    int i;
-	    while ((i = in.read()) != -1) {
-		sql.append((char) i);
-	    }
-	    in.close();
-	    stmt = getStatement();
-
-	    String[] queries = sql.toString().split(";");
-	    // On élimine la dernière chaine car elle ne correspond pas à une
-	    // requête.
-	    int max = queries.length - 1;
-	    for (i = 0; i < max; ++i) {
-		if (queries[i].trim().isEmpty()) {
-		    LOGGER.info("Requête vide : ignorée.");
-		} else {
-		    LOGGER.log(Level.FINEST, queries[i]);
-		    stmt.addBatch(queries[i]);
-		}
-	    }
-	    stmt.executeBatch();
-	} catch (Exception e) {
-	    LOGGER.severe("L'execution de la requête a échouée.");
-	    throw new RuntimeException(e);
-	} finally {
-	    closeStatement(stmt);
-	}
-    }
-
-    /** Private constructor to forbidden instanciation. */
-    private AccesBdd() {
-    }
-}
+/*
+ * Copyright 2012 simplelib.org
+ * 
+ * This file is part of SimplePersist.
+ * 
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connection class.
+ * 
+ * @author simplelib.org
+ */
+public final class AccesBdd {
+    static final Logger LOGGER = Logger.getLogger("dao");
+    /** Properties file path with access data. */
+    private static final String PROPERTIES = "db.properties";
+    /** Avalaible databases list. */
+    private static final CopyOnWriteArrayList<Database> dbList = new CopyOnWriteArrayList<AccesBdd.Database>();
+    /** Current database. */
+    private static volatile Database currentDb;
+    /** Auto-connection. */
+    private static boolean autoConnect = true;
+    /** Connections opened at connection time. */
+    private static int poolMinSize = 1;
+    /** Maximal number of simultaneous connections. */
+    private static int poolMaxSize = 10;
+    /** Idle time (ms) before closing a connection above the minimal size. */
+    private static long poolIdleTimeout = 600000L;
+    /** Maximal wait (ms) for a free connection. */
+    private static long poolBorrowTimeout = 30000L;
+    /** Idle time (ms) before validating a connection on borrow. */
+    private static long poolValidationInterval = 1000L;
+    /** Prepared statements cached by connection. */
+    private static int statementCacheSize = 50;
+    /** Connection bound to the current thread (transactions). */
+    private static final ThreadLocal<Connection> BOUND_CONNECTION = new ThreadLocal<Connection>();
+    /**
+     * Pool entries of the connections borrowed by the current thread, with
+     * their statement cache: found without taking the pool lock.
+     */
+    private static final ThreadLocal<List<ConnectionPool.PooledConnection>> LEASES = new ThreadLocal<List<ConnectionPool.PooledConnection>>() {
+	@Override
+	protected List<ConnectionPool.PooledConnection> initialValue() {
+	    return new ArrayList<ConnectionPool.PooledConnection>(2);
+	}
+    };
+
+    static class Database {
+	private final DatabaseType TYPE;
+	private ConnectionPool pool;
+	private String url;
+	private String user;
+	private String password;
+	/** Unpooled connection of {@link AccesBdd#getConnection()}. */
+	private Connection shared;
+	// Database cache
+	private static Map<String, Database> dbMap = new HashMap<String, AccesBdd.Database>();
+
+	private Database(DatabaseType type) {
+	    this.TYPE = type;
+	}
+
+	private static synchronized Database valueOf(String url, String user,
+		String password) throws SQLException {
+	    Database db;
+	    if (dbMap.containsKey(url)) {
+		db = dbMap.get(url);
+	    } else {
+		db = new Database(DatabaseType.extractFrom(url));
+		dbMap.put(url, db);
+	    }
+	    db.url = url;
+	    db.user = user;
+	    db.password = password;
+	    if (db.pool == null || db.pool.isClosed()) {
+		db.pool = new ConnectionPool(url, user, password, poolMinSize,
+			poolMaxSize, poolIdleTimeout, poolBorrowTimeout,
+			poolValidationInterval, statementCacheSize);
+	    }
+	    return db;
+	}
+
+	protected void close() throws SQLException {
+	    if (this.pool != null) {
+		this.pool.close();
+	    }
+	    Connection con;
+	    synchronized (this) {
+		con = this.shared;
+		this.shared = null;
+	    }
+	    if (con != null) {
+		con.close();
+	    }
+	}
+
+	private synchronized Connection getSharedConnection()
+		throws SQLException {
+	    if (this.shared == null || this.shared.isClosed()) {
+		this.shared = DriverManager.getConnection(this.url, this.user,
+			this.password);
+	    }
+	    return this.shared;
+	}
+
+	DatabaseType getType() {
+	    return TYPE;
+	}
+
+	private ConnectionPool getPool() {
+	    return pool;
+	}
+
+	private boolean isClosed() {
+	    return pool == null || pool.isClosed();
+	}
+    }
+
+    static enum DatabaseType {
+	MYSQL("INTEGER AUTO_INCREMENT", 65535), POSTGRESQL("SERIAL", 32767), STANDARD_SQL(
+		"INTEGER GENERATED BY DEFAULT AS IDENTITY", 2000);
+
+	private DatabaseType(String automaticKey, int maxParameters) {
+	    AUTOMATIC_KEY = automaticKey;
+	    MAX_PARAMETERS = maxParameters;
+	}
+
+	private final String AUTOMATIC_KEY;
+	/** Maximal number of parameters of a statement. */
+	private final int MAX_PARAMETERS;
+
+	int getMaxParameters() {
+	    return MAX_PARAMETERS;
+	}
+
+	/**
+	 * Configure a statement to stream its results instead of loading them
+	 * at once.
+	 * 
+	 * @param stmt
+	 *            Forward only, read only {@link Statement}.
+	 * @param fetchSize
+	 *            Rows fetched by round trip.
+	 * @throws SQLException
+	 *             SQL error.
+	 */
+	void setStreaming(Statement stmt, int fetchSize) throws SQLException {
+	    if (this == MYSQL) {
+		// Row by row streaming, the only one of MySQL Connector/J.
+		stmt.setFetchSize(Integer.MIN_VALUE);
+	    } else {
+		stmt.setFetchSize(fetchSize);
+	    }
+	}
+
+	/**
+	 * Append the pagination clause of a SELECT.
+	 * 
+	 * @param builder
+	 *            Request, ORDER BY included.
+	 * @param limit
+	 *            Maximal number of rows, -1 if unlimited.
+	 * @param offset
+	 *            Rows to skip.
+	 */
+	void appendLimit(StringBuilder builder, int limit, int offset) {
+	    if (this == STANDARD_SQL) {
+		// SQL:2008
+		builder.append(" OFFSET ").append(offset).append(" ROWS");
+		if (limit >= 0) {
+		    builder.append(" FETCH NEXT ").append(limit)
+			    .append(" ROWS ONLY");
+		}
+		return;
+	    }
+	    if (limit >= 0) {
+		builder.append(" LIMIT ").append(limit);
+	    } else if (this == MYSQL) {
+		// No OFFSET without LIMIT in MySQL
+		builder.append(" LIMIT 18446744073709551615");
+	    }
+	    if (offset > 0) {
+		builder.append(" OFFSET ").append(offset);
+	    }
+	}
+
+	/**
+	 * @return {@code true} if a server side cursor requires a transaction.
+	 */
+	boolean isCursorTransactional() {
+	    return this == POSTGRESQL;
+	}
+
+	void appendAutomaticKey(Appendable app, String field)
+		throws IOException {
+	    app.append(field);
+	    app.append(' ');
+	    app.append(AUTOMATIC_KEY);
+	}
+
+	private static DatabaseType extractFrom(String url) {
+	    String dbName = url.substring(5).toLowerCase();
+	    if (dbName.startsWith("mysql")) {
+		return DatabaseType.MYSQL;
+	    } else if (dbName.startsWith("postgresql")) {
+		return DatabaseType.POSTGRESQL;
+	    }
+	    // USING STANDARDIZED SQL SYNTAX
+	    else {
+		return DatabaseType.STANDARD_SQL;
+	    }
+	}
+    }
+
+    static Database currentDb() {
+	ensureDbConnection();
+	return currentDb;
+    }
+
+    /**
+     * Connect to a Database.
+     * 
+     * @param url
+     *            Database url.
+     * @param user
+     *            User name.
+     * @param pwd
+     *            Password.
+     * @throws SQLException
+     *             Connection error.
+     */
+    public static void connect(String url, String user, String pwd)
+	    throws SQLException {
+	Database db = Database.valueOf(url, user, pwd);
+	dbList.addIfAbsent(db);
+	currentDb = db;
+    }
+
+    public static void connect(String propSource) throws SQLException {
+	if (!propSource.endsWith(".properties")) {
+	    propSource += ".properties";
+	}
+	Properties propFile = loadProperties(propSource);
+	String url = propFile.getProperty("url");
+	String user = propFile.getProperty("user");
+	String password = propFile.getProperty("password");
+	String value = propFile.getProperty("pool.minSize");
+	if (value != null) {
+	    poolMinSize = Integer.parseInt(value.trim());
+	}
+	value = propFile.getProperty("pool.maxSize");
+	if (value != null) {
+	    poolMaxSize = Integer.parseInt(value.trim());
+	}
+	value = propFile.getProperty("pool.idleTimeout");
+	if (value != null) {
+	    poolIdleTimeout = Long.parseLong(value.trim());
+	}
+	value = propFile.getProperty("pool.borrowTimeout");
+	if (value != null) {
+	    poolBorrowTimeout = Long.parseLong(value.trim());
+	}
+	value = propFile.getProperty("pool.validationInterval");
+	if (value != null) {
+	    poolValidationInterval = Long.parseLong(value.trim());
+	}
+	value = propFile.getProperty("pool.statementCacheSize");
+	if (value != null) {
+	    statementCacheSize = Integer.parseInt(value.trim());
+	}
+	value = propFile.getProperty("log.slowQueryThreshold");
+	if (value != null) {
+	    setSlowQueryLog(Long.parseLong(value.trim()), Boolean
+		    .parseBoolean(propFile.getProperty("log.redactValues")));
+	}
+	connect(url, user, password);
+    }
+
+    /** Disable autoconnection with properties file on first database access. */
+    public void disableAutoconnect() {
+	AccesBdd.autoConnect = false;
+    }
+
+    /** Disable autoconnection with properties file on first database access. */
+    public void enableAutoconnect() {
+	AccesBdd.autoConnect = true;
+    }
+
+    /**
+     * Set the connection pool size of the next connections. Can also be set
+     * in the properties file with {@code pool.minSize} and
+     * {@code pool.maxSize}.
+     * 
+     * @param min
+     *            Connections opened at connection time and kept opened.
+     * @param max
+     *            Maximal number of simultaneous connections.
+     */
+    public static void setPoolSize(int min, int max) {
+	if (min < 0 || max < 1 || min > max) {
+	    throw new IllegalArgumentException("Invalid pool size: " + min
+		    + ".." + max);
+	}
+	AccesBdd.poolMinSize = min;
+	AccesBdd.poolMaxSize = max;
+    }
+
+    /**
+     * Set the connection pool timeouts of the next connections. Can also be
+     * set in the properties file with {@code pool.idleTimeout},
+     * {@code pool.borrowTimeout} and {@code pool.validationInterval}.
+     * 
+     * @param idleTimeout
+     *            Idle time (ms) before closing a connection above the minimal
+     *            size.
+     * @param borrowTimeout
+     *            Maximal wait (ms) for a free connection.
+     * @param validationInterval
+     *            Idle time (ms) before validating a connection on borrow.
+     *            {@code 0} to validate on every borrow.
+     */
+    public static void setPoolTimeouts(long idleTimeout, long borrowTimeout,
+	    long validationInterval) {
+	AccesBdd.poolIdleTimeout = idleTimeout;
+	AccesBdd.poolBorrowTimeout = borrowTimeout;
+	AccesBdd.poolValidationInterval = validationInterval;
+    }
+
+    /**
+     * Set the number of prepared statements cached by connection for the next
+     * connections. Can also be set in the properties file with
+     * {@code pool.statementCacheSize}.
+     * 
+     * @param size
+     *            Cached statements by connection, {@code 0} to disable.
+     */
+    public static void setStatementCacheSize(int size) {
+	if (size < 0) {
+	    throw new IllegalArgumentException("Invalid cache size: " + size);
+	}
+	AccesBdd.statementCacheSize = size;
+    }
+
+    /**
+     * Log the statements slower than a threshold at {@code WARNING} level on
+     * the {@code dao.slow} logger, with the SQL template, the bound values,
+     * the elapsed time, the rows count and the entity. Can also be set in the
+     * properties file with {@code log.slowQueryThreshold} and
+     * {@code log.redactValues}.
+     * 
+     * @param thresholdMillis
+     *            Threshold in ms, negative to disable the log (default).
+     * @param redactValues
+     *            Log the types of the bound values instead of the values.
+     */
+    public static void setSlowQueryLog(long thresholdMillis,
+	    boolean redactValues) {
+	SlowQueryLog.configure(thresholdMillis, redactValues);
+    }
+
+    /**
+     * Connection pool statistics of the current database.
+     * 
+     * @return Statistics summary.
+     */
+    public static PoolStatistics getPoolStatistics() {
+	return new PoolStatistics(currentDb().getPool());
+    }
+
+    /**
+     * Snapshot of the connection pool statistics.
+     */
+    public static final class PoolStatistics {
+	private final int active;
+	private final int idle;
+	private final long borrowCount;
+	private final long waitCount;
+	private final long totalWaitNanos;
+	private final long maxWaitNanos;
+	private final long statementHits;
+	private final long statementMisses;
+
+	private PoolStatistics(ConnectionPool pool) {
+	    synchronized (pool) {
+		this.active = pool.getActiveCount();
+		this.idle = pool.getIdleCount();
+		this.borrowCount = pool.getBorrowCount();
+		this.waitCount = pool.getWaitCount();
+		this.totalWaitNanos = pool.getTotalWaitNanos();
+		this.maxWaitNanos = pool.getMaxWaitNanos();
+	    }
+	    this.statementHits = pool.getStatementHits();
+	    this.statementMisses = pool.getStatementMisses();
+	}
+
+	/** @return Borrowed connections count. */
+	public int getActive() {
+	    return active;
+	}
+
+	/** @return Idle connections count. */
+	public int getIdle() {
+	    return idle;
+	}
+
+	/** @return Total borrows. */
+	public long getBorrowCount() {
+	    return borrowCount;
+	}
+
+	/** @return Borrows which had to wait for a released connection. */
+	public long getWaitCount() {
+	    return waitCount;
+	}
+
+	/** @return Cumulated borrow time in ns. */
+	public long getTotalWaitNanos() {
+	    return totalWaitNanos;
+	}
+
+	/** @return Longest borrow time in ns. */
+	public long getMaxWaitNanos() {
+	    return maxWaitNanos;
+	}
+
+	/** @return Prepared statements found in the statement cache. */
+	public long getStatementHits() {
+	    return statementHits;
+	}
+
+	/** @return Prepared statements not found in the statement cache. */
+	public long getStatementMisses() {
+	    return statementMisses;
+	}
+
+	@Override
+	public String toString() {
+	    return "active=" + active + " idle=" + idle + " borrows="
+		    + borrowCount + " waits=" + waitCount + " maxWaitMs="
+		    + maxWaitNanos / 1000000L + " statementHits="
+		    + statementHits + " statementMisses=" + statementMisses;
+	}
+    }
+
+    /**
+     * Déconnecte le serveur de toutes les BDD.
+     * 
+     * @throws Exception
+     *             En cas d'erreur SQL.
+     */
+    public static void close() {
+	for (Database db : dbList) {
+	    try {
+		db.close();
+	    } catch (Exception e) {
+		LOGGER.severe("Problème de déconnection du serveur !");
+		throw new RuntimeException(e);
+	    }
+	}
+    }
+
+    /**
+     * Checked {@link Statement} close.
+     * 
+     * @param stmt
+     *            {@link Statement} to close.
+     */
+    static void closeStatement(final Statement stmt) {
+	try {
+	    if (stmt != null) {
+		stmt.close();
+	    }
+	} catch (SQLException e) {
+	    // Erreur non blocante.
+	    e.printStackTrace();
+	    LOGGER.severe("Erreur lors de la fermeture du statement");
+	}
+    }
+
+    private static Properties loadProperties(String source) {
+	Properties propBD = new Properties();
+	InputStream in = null;
+	try {
+	    in = ClassLoader.getSystemResourceAsStream(source);
+	    propBD.load(in);
+	} catch (Exception e) {
+	    LOGGER.severe("Impossible de lire le fichier " + "properties: "
+		    + PROPERTIES);
+	    throw new RuntimeException(e);
+	} finally {
+	    if (in != null) {
+		try {
+		    in.close();
+		} catch (IOException e) {
+		    throw new RuntimeException(e);
+		}
+	    }
+	}
+	return propBD;
+    }
+
+    private static void ensureDbConnection() {
+	Database db = currentDb;
+	if (db == null || db.isClosed()) {
+	    if (autoConnect) {
+		// AUTOCONNECT
+		try {
+		    connect(PROPERTIES);
+		} catch (SQLException e) {
+		    LOGGER.severe("Impossible d'établir la connexion à la base de données.");
+		    throw new RuntimeException(e);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Renvoie la connexion liée au thread courant par
+     * {@link #bindConnection()}, sinon une connexion de la base courante
+     * partagée par tous les threads, hors pool, ouverte au premier appel et
+     * fermée par {@link #close()}.
+     * 
+     * @return L'instance de connexion.
+     * @throws Exception
+     *             En cas d'erreur de connection.
+     * @deprecated Hors transaction, les DAO n'utilisent pas cette connexion.
+     *             Utiliser {@link #bindConnection()} et
+     *             {@link #unbindConnection()}.
+     */
+    @Deprecated
+    public static Connection getConnection() {
+	Connection conn = BOUND_CONNECTION.get();
+	if (conn != null) {
+	    return conn;
+	}
+	ensureDbConnection();
+	Database db = currentDb;
+	if (db == null) {
+	    throw new IllegalStateException("No database connection avalaible.");
+	}
+	try {
+	    return db.getSharedConnection();
+	} catch (SQLException e) {
+	    LOGGER.severe("Impossible d'obtenir une connexion !");
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Emprunte une connexion au pool et la lie au thread courant : toutes les
+     * opérations des DAO du thread l'utilisent (transactions) jusqu'à l'appel
+     * de {@link #unbindConnection()}, à placer dans un bloc finally.
+     * 
+     * @return La connexion liée au thread.
+     */
+    public static Connection bindConnection() {
+	Connection conn = BOUND_CONNECTION.get();
+	if (conn == null) {
+	    conn = borrowConnection();
+	    BOUND_CONNECTION.set(conn);
+	}
+	return conn;
+    }
+
+    /**
+     * Rend au pool la connexion liée au thread courant par
+     * {@link #bindConnection()}. Une transaction non terminée est annulée.
+     * <p>
+     * Les écritures des DAO faites dans une transaction JDBC sur cette
+     * connexion ne sont invalidées dans les caches des autres threads et des
+     * autres noeuds qu'ici, validées ou non (une invalidation en trop ne
+     * coûte qu'une relecture).
+     * </p>
+     */
+    public static void unbindConnection() {
+	Connection conn = BOUND_CONNECTION.get();
+	if (conn != null) {
+	    BOUND_CONNECTION.remove();
+	    try {
+		releaseConnection(conn);
+	    } finally {
+		Invalidations.endTransaction(true);
+	    }
+	}
+    }
+
+    /**
+     * @return {@code true} si le thread courant a ouvert une transaction.
+     */
+    static boolean isInTransaction() {
+	Connection conn = BOUND_CONNECTION.get();
+	try {
+	    return conn != null && !conn.getAutoCommit();
+	} catch (SQLException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * Emprunte une connexion pour la durée d'une opération. La connexion liée
+     * au thread courant est utilisée en priorité.
+     * 
+     * @return La connexion, à rendre avec
+     *         {@link #releaseConnection(Connection)}.
+     */
+    static Connection borrowConnection() {
+	Connection conn = BOUND_CONNECTION.get();
+	if (conn != null) {
+	    return conn;
+	}
+	return borrowPooledConnection();
+    }
+
+    /**
+     * Emprunte une connexion pour un curseur : la connexion liée au thread
+     * n'est utilisée que dans une transaction, le curseur pouvant sinon
+     * désactiver l'auto-commit de sa connexion jusqu'à sa fermeture.
+     * 
+     * @return La connexion, à rendre avec
+     *         {@link #releaseConnection(Connection)}.
+     */
+    static Connection borrowCursorConnection() {
+	if (isInTransaction()) {
+	    return BOUND_CONNECTION.get();
+	}
+	return borrowPooledConnection();
+    }
+
+    private static Connection borrowPooledConnection() {
+	ensureDbConnection();
+	Database db = currentDb;
+	if (db == null) {
+	    throw new IllegalStateException("No database connection avalaible.");
+	}
+	try {
+	    ConnectionPool.PooledConnection pc = db.getPool().borrow();
+	    List<ConnectionPool.PooledConnection> leases = LEASES.get();
+	    // An entry released by another thread may still be listed.
+	    if (!leases.contains(pc)) {
+		leases.add(pc);
+	    }
+	    return pc.CONNECTION;
+	} catch (SQLException e) {
+	    LOGGER.severe("Impossible d'obtenir une connexion !");
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Rend une connexion empruntée par {@link #borrowConnection()}.
+     * 
+     * @param conn
+     *            La connexion.
+     */
+    static void releaseConnection(final Connection conn) {
+	if (conn == null || conn == BOUND_CONNECTION.get()) {
+	    return;
+	}
+	List<ConnectionPool.PooledConnection> leases = LEASES.get();
+	for (int i = leases.size() - 1; i >= 0; --i) {
+	    if (leases.get(i).CONNECTION == conn) {
+		ConnectionPool.PooledConnection pc = leases.remove(i);
+		pc.POOL.release(pc);
+		return;
+	    }
+	}
+	// Borrowed by another thread
+	ConnectionPool pool = poolOf(conn);
+	if (pool != null) {
+	    pool.release(conn);
+	    return;
+	}
+	LOGGER.warning("Connexion inconnue : fermée.");
+	try {
+	    conn.close();
+	} catch (SQLException e) {
+	    LOGGER.severe("Erreur lors de la fermeture de la connexion");
+	}
+    }
+
+    private static ConnectionPool poolOf(final Connection conn) {
+	for (Database db : dbList) {
+	    ConnectionPool pool = db.getPool();
+	    if (pool != null && pool.entryOf(conn) != null) {
+		return pool;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Statement cache of a borrowed connection, looked up without lock among
+     * the connections of the current thread.
+     */
+    private static StatementCache statementCacheOf(final Connection conn) {
+	List<ConnectionPool.PooledConnection> leases = LEASES.get();
+	for (int i = leases.size() - 1; i >= 0; --i) {
+	    if (leases.get(i).CONNECTION == conn) {
+		return leases.get(i).STATEMENTS;
+	    }
+	}
+	// Borrowed by another thread
+	for (Database db : dbList) {
+	    ConnectionPool pool = db.getPool();
+	    if (pool != null) {
+		ConnectionPool.PooledConnection entry = pool.entryOf(conn);
+		if (entry != null) {
+		    return entry.STATEMENTS;
+		}
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Crée un PreparedStatement basé sur la requête SQL fournie. Le statement
+     * est pris dans le cache de la connexion si possible.
+     * 
+     * @return Le PreparedStatement, à rendre avec
+     *         {@link #releaseStatement(Connection, PreparedStatement)}.
+     * @param conn
+     *            Connexion empruntée.
+     * @param req
+     *            La requête SQL.
+     * @throws Exception
+     *             En cas d'erreur SQL.
+     */
+    static PreparedStatement getPreparedStatement(final Connection conn,
+	    final String req) {
+	try {
+	    StatementCache cache = statementCacheOf(conn);
+	    if (cache != null) {
+		return cache.prepare(req, false);
+	    }
+	    return conn.prepareStatement(req);
+	} catch (SQLException e) {
+	    LOGGER.severe("Impossible d'obtenir un PreparedStatement !");
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Crée un PreparedStatement basé sur la requête SQL fournie. Le statement
+     * est pris dans le cache de la connexion si possible.
+     * 
+     * @return Le PreparedStatement, à rendre avec
+     *         {@link #releaseStatement(Connection, PreparedStatement)}.
+     * @param conn
+     *            Connexion empruntée.
+     * @param req
+     *            La requête SQL.
+     * @throws Exception
+     *             En cas d'erreur SQL.
+     */
+    static PreparedStatement getPreparedStatementWithGenKeys(
+	    final Connection conn, final String req) {
+	try {
+	    StatementCache cache = statementCacheOf(conn);
+	    if (cache != null) {
+		return cache.prepare(req, true);
+	    }
+	    return conn.prepareStatement(req, Statement.RETURN_GENERATED_KEYS);
+	} catch (SQLException e) {
+	    LOGGER.severe("Impossible d'obtenir un PreparedStatement !");
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Rend un PreparedStatement obtenu par
+     * {@link #getPreparedStatement(Connection, String)} ou
+     * {@link #getPreparedStatementWithGenKeys(Connection, String)} : il est
+     * remis en cache ou fermé.
+     * 
+     * @param conn
+     *            Connexion empruntée.
+     * @param stmt
+     *            Le PreparedStatement.
+     */
+    static void releaseStatement(final Connection conn,
+	    final PreparedStatement stmt) {
+	if (stmt == null) {
+	    return;
+	}
+	StatementCache cache = statementCacheOf(conn);
+	if (cache != null) {
+	    cache.release(stmt);
+	} else {
+	    closeStatement(stmt);
+	}
+    }
+
+    /**
+     * Fournit directement un Statement pour l'envoi direct d'une requète SQL.
+     * 
+     * @param conn
+     *            Connexion empruntée.
+     * @return Un Statement.
+     * @throws Exception
+     *             En cas d'erreur SQL.
+     */
+    static Statement getStatement(final Connection conn) {
+	try {
+	    return conn.createStatement();
+	} catch (Exception e) {
+	    LOGGER.severe("Impossible d'obtenir un Statement !");
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Execute a batch of SQL commands.
+     * 
+     * @param file
+     *            Path of SQL file to execute.
+     * @throws Exception
+     */
+    public static void executeBatch(final String file) {
+	Statement stmt = null;
+	Connection conn = null;
+	try {
+	    InputStream in = new BufferedInputStream(
+		    ClassLoader.getSystemResourceAsStream(file));
+	    StringBuilder sql = new StringBuilder();
+	    int i;
+	    while ((i = in.read()) != -1) {
+		sql.append((char) i);
+	    }
+	    in.close();
+	    conn = borrowConnection();
+	    stmt = getStatement(conn);
+
+	    String[] queries = sql.toString().split(";");
+	    // On élimine la dernière chaine car elle ne correspond pas à une
+	    // requête.
+	    int max = queries.length - 1;
+	    for (i = 0; i < max; ++i) {
+		if (queries[i].trim().isEmpty()) {
+		    LOGGER.info("Requête vide : ignorée.");
+		} else {
+		    LOGGER.log(Level.FINEST, queries[i]);
+		    stmt.addBatch(queries[i]);
+		}
+	    }
+	    stmt.executeBatch();
+	} catch (Exception e) {
+	    LOGGER.severe("L'execution de la requête a échouée.");
+	    throw new RuntimeException(e);
+	} finally {
+	    closeStatement(stmt);
+	    releaseConnection(conn);
+	}
+    }
+
+    /** Private constructor to forbidden instanciation. */
+    private AccesBdd() {
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of JDBC connections to one database.
+ * <p>
+ * Idle connections are kept in LIFO order so the most recently used (and most
+ * likely still alive) connection is handed out first. Connections idle longer
+ * than the idle timeout are closed on the next borrow or release, down to the
+ * minimal size. A connection is validated on borrow when it has not been used
+ * for more than the validation interval.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+final class ConnectionPool {
+    static final Logger LOGGER = AccesBdd.LOGGER;
+
+    /** Pooled physical connection. */
+    static final class PooledConnection {
+	/** Owner pool. */
+	final ConnectionPool POOL;
+	final Connection CONNECTION;
+	/**
+	 * Prepared statements cache, {@code null} if disabled. Only used by
+	 * the borrower, without lock.
+	 */
+	final StatementCache STATEMENTS;
+	/** Last release date in ms. */
+	long lastUsed;
+	/** Borrowed, written with the pool lock held. */
+	volatile boolean borrowed;
+
+	private PooledConnection(final ConnectionPool pool,
+		final Connection connection, final StatementCache statements) {
+	    this.POOL = pool;
+	    this.CONNECTION = connection;
+	    this.STATEMENTS = statements;
+	    this.lastUsed = System.currentTimeMillis();
+	}
+    }
+
+    private final String URL;
+    private final String USER;
+    private final String PASSWORD;
+    private final int MIN_SIZE;
+    private final int MAX_SIZE;
+    /** Idle time in ms before closing a connection above the minimal size. */
+    private final long IDLE_TIMEOUT;
+    /** Maximal time in ms to wait for a free connection. */
+    private final long BORROW_TIMEOUT;
+    /** Idle time in ms before validating a connection on borrow. */
+    private final long VALIDATION_INTERVAL;
+    /** Validation timeout in seconds. */
+    private static final int VALIDATION_TIMEOUT = 5;
+    /** Prepared statements cached by connection. */
+    private final int STATEMENT_CACHE_SIZE;
+
+    /** Idle connections, most recently used first. */
+    private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+    /** Borrowed connections. */
+    private final Map<Connection, PooledConnection> leased = new IdentityHashMap<Connection, PooledConnection>();
+    /** Opened (or opening) connections count. */
+    private int size;
+    private boolean closed;
+
+    // Borrow metrics
+    private long borrowCount;
+    private long waitCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    // Statement cache metrics
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    /**
+     * Create a pool and open its minimal number of connections.
+     *
+     * @throws SQLException
+     *             Connection error.
+     */
+    ConnectionPool(final String url, final String user,
+	    final String password, final int minSize, final int maxSize,
+	    final long idleTimeout, final long borrowTimeout,
+	    final long validationInterval, final int statementCacheSize)
+	    throws SQLException {
+	if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+	    throw new IllegalArgumentException("Invalid pool size: " + minSize
+		    + ".." + maxSize);
+	}
+	this.URL = url;
+	this.USER = user;
+	this.PASSWORD = password;
+	this.MIN_SIZE = minSize;
+	this.MAX_SIZE = maxSize;
+	this.IDLE_TIMEOUT = idleTimeout;
+	this.BORROW_TIMEOUT = borrowTimeout;
+	this.VALIDATION_INTERVAL = validationInterval;
+	this.STATEMENT_CACHE_SIZE = statementCacheSize;
+
+	// Pre-warming
+	for (int i = 0; i < this.MIN_SIZE; ++i) {
+	    this.idle.addLast(open());
+	    ++this.size;
+	}
+    }
+
+    private PooledConnection open() throws SQLException {
+	Connection con = DriverManager.getConnection(this.URL, this.USER,
+		this.PASSWORD);
+	return new PooledConnection(this, con,
+		this.STATEMENT_CACHE_SIZE > 0 ? new StatementCache(con,
+			this.STATEMENT_CACHE_SIZE, this.statementHits,
+			this.statementMisses) : null);
+    }
+
+    /**
+     * Borrow a connection, waiting for one to be released if the pool is
+     * exhausted.
+     *
+     * @return The pool entry of a valid {@link Connection}, to give back with
+     *         {@link #release(PooledConnection)}.
+     * @throws SQLException
+     *             Connection error or borrow timeout.
+     */
+    PooledConnection borrow() throws SQLException {
+	final long start = System.nanoTime();
+	PooledConnection pc;
+	boolean waited = false;
+	while (true) {
+	    pc = null;
+	    List<PooledConnection> evicted;
+	    synchronized (this) {
+		final long deadline = start + this.BORROW_TIMEOUT * 1000000L;
+		while (pc == null) {
+		    if (this.closed) {
+			throw new SQLException("Connection pool closed.");
+		    }
+		    pc = this.idle.pollFirst();
+		    if (pc == null) {
+			if (this.size < this.MAX_SIZE) {
+			    ++this.size;
+			    break;
+			}
+			long remaining = (deadline - System.nanoTime()) / 1000000L;
+			if (remaining <= 0) {
+			    throw new SQLException(
+				    "Timeout waiting for a database connection ("
+					    + this.MAX_SIZE + " in use).");
+			}
+			waited = true;
+			try {
+			    wait(remaining);
+			} catch (InterruptedException e) {
+			    Thread.currentThread().interrupt();
+			    throw new SQLException(
+				    "Interrupted while waiting for a database connection.");
+			}
+		    }
+		}
+		evicted = evictIdle(System.currentTimeMillis());
+	    }
+	    closeAll(evicted);
+
+	    if (pc == null) {
+		// Slot reserved: open a new connection outside the lock.
+		try {
+		    pc = open();
+		} catch (SQLException e) {
+		    discarded();
+		    throw e;
+		}
+	    } else if (!isValid(pc)) {
+		LOGGER.fine("Invalid pooled connection discarded.");
+		close(pc);
+		discarded();
+		continue;
+	    }
+	    break;
+	}
+
+	synchronized (this) {
+	    this.leased.put(pc.CONNECTION, pc);
+	    pc.borrowed = true;
+	    final long wait = System.nanoTime() - start;
+	    ++this.borrowCount;
+	    if (waited) {
+		++this.waitCount;
+	    }
+	    this.totalWaitNanos += wait;
+	    if (wait > this.maxWaitNanos) {
+		this.maxWaitNanos = wait;
+	    }
+	}
+	return pc;
+    }
+
+    /**
+     * Give back a borrowed connection.
+     *
+     * @param con
+     *            Borrowed {@link Connection}.
+     */
+    void release(final Connection con) {
+	PooledConnection pc = entryOf(con);
+	if (pc == null) {
+	    LOGGER.warning("Release of a connection not borrowed from the pool.");
+	    return;
+	}
+	release(pc);
+    }
+
+    /**
+     * Give back a borrowed connection, taking the pool lock once.
+     *
+     * @param pc
+     *            Entry returned by {@link #borrow()}.
+     */
+    void release(final PooledConnection pc) {
+	if (!pc.borrowed) {
+	    LOGGER.warning("Release of a connection not borrowed from the pool.");
+	    return;
+	}
+	final Connection con = pc.CONNECTION;
+	boolean reusable;
+	try {
+	    reusable = !con.isClosed();
+	    if (reusable && !con.getAutoCommit()) {
+		// Unfinished transaction
+		con.rollback();
+		con.setAutoCommit(true);
+	    }
+	} catch (SQLException e) {
+	    reusable = false;
+	}
+	List<PooledConnection> evicted = null;
+	synchronized (this) {
+	    if (this.leased.remove(con) == null) {
+		return;
+	    }
+	    pc.borrowed = false;
+	    if (reusable && !this.closed) {
+		pc.lastUsed = System.currentTimeMillis();
+		this.idle.addFirst(pc);
+		evicted = evictIdle(pc.lastUsed);
+		notify();
+	    } else {
+		--this.size;
+		notify();
+		reusable = false;
+	    }
+	}
+	closeAll(evicted);
+	if (!reusable) {
+	    close(pc);
+	}
+    }
+
+    /**
+     * Retrieve the pool entry of a borrowed connection.
+     *
+     * @param con
+     *            Borrowed {@link Connection}.
+     * @return {@link PooledConnection} or {@code null} if unknown.
+     */
+    synchronized PooledConnection entryOf(final Connection con) {
+	return this.leased.get(con);
+    }
+
+    /** Close the pool. Borrowed connections are closed on release. */
+    void close() {
+	Deque<PooledConnection> toClose;
+	synchronized (this) {
+	    this.closed = true;
+	    toClose = new ArrayDeque<PooledConnection>(this.idle);
+	    this.size -= this.idle.size();
+	    this.idle.clear();
+	    notifyAll();
+	}
+	for (PooledConnection pc : toClose) {
+	    close(pc);
+	}
+	if (LOGGER.isLoggable(Level.FINE)) {
+	    LOGGER.fine("Connection pool closed: " + toString());
+	}
+    }
+
+    synchronized boolean isClosed() {
+	return this.closed;
+    }
+
+    /**
+     * Remove the connections idle for too long, keeping at least the minimal
+     * pool size. Must be called with the pool lock held, the connections
+     * being closed by {@link #closeAll(List)} once it is released.
+     *
+     * @return Connections to close, {@code null} if none.
+     */
+    private List<PooledConnection> evictIdle(final long now) {
+	List<PooledConnection> evicted = null;
+	// Oldest connections are at the end of the deque.
+	Iterator<PooledConnection> it = this.idle.descendingIterator();
+	while (this.size > this.MIN_SIZE && it.hasNext()) {
+	    PooledConnection pc = it.next();
+	    if (now - pc.lastUsed < this.IDLE_TIMEOUT) {
+		break;
+	    }
+	    it.remove();
+	    --this.size;
+	    if (evicted == null) {
+		evicted = new ArrayList<PooledConnection>(1);
+	    }
+	    evicted.add(pc);
+	}
+	return evicted;
+    }
+
+    /** Close evicted connections, without the pool lock. */
+    private static void closeAll(final List<PooledConnection> connections) {
+	if (connections != null) {
+	    for (PooledConnection pc : connections) {
+		close(pc);
+	    }
+	}
+    }
+
+    /** Close a connection leaving the pool and its cached statements. */
+    private static void close(final PooledConnection pc) {
+	if (pc.STATEMENTS != null) {
+	    pc.STATEMENTS.clear();
+	}
+	closeQuietly(pc.CONNECTION);
+    }
+
+    private synchronized void discarded() {
+	--this.size;
+	notify();
+    }
+
+    private boolean isValid(final PooledConnection pc) {
+	if (System.currentTimeMillis() - pc.lastUsed < this.VALIDATION_INTERVAL) {
+	    return true;
+	}
+	try {
+	    return pc.CONNECTION.isValid(VALIDATION_TIMEOUT);
+	} catch (SQLException e) {
+	    return false;
+	}
+    }
+
+    private static void closeQuietly(final Connection con) {
+	try {
+	    con.close();
+	} catch (SQLException e) {
+	    LOGGER.warning("Error while closing a pooled connection.");
+	}
+    }
+
+    synchronized int getActiveCount() {
+	return this.leased.size();
+    }
+
+    synchronized int getIdleCount() {
+	return this.idle.size();
+    }
+
+    synchronized long getBorrowCount() {
+	return this.borrowCount;
+    }
+
+    synchronized long getWaitCount() {
+	return this.waitCount;
+    }
+
+    synchronized long getTotalWaitNanos() {
+	return this.totalWaitNanos;
+    }
+
+    synchronized long getMaxWaitNanos() {
+	return this.maxWaitNanos;
+    }
+
+    long getStatementHits() {
+	return this.statementHits.get();
+    }
+
+    long getStatementMisses() {
+	return this.statementMisses.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+	return "size=" + this.size + " active=" + this.leased.size()
+		+ " idle=" + this.idle.size() + " borrows=" + this.borrowCount
+		+ " waits=" + this.waitCount + " maxWaitMs="
+		+ this.maxWaitNanos / 1000000L + " statementHits="
+		+ this.statementHits.get() + " statementMisses="
+		+ this.statementMisses.get();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Lazy iteration over the results of a search. Entities are loaded on demand,
+ * the whole result never being held in memory.
+ * <p>
+ * A cursor holds database resources until it is exhausted or closed: it must
+ * be closed when not read until the end, preferably in a {@code finally}
+ * block. It can be iterated only once.
+ * </p>
+ *
+ * @author simplelib.org
+ *
+ * @param <T>
+ *            Entity type.
+ */
+public interface Cursor<T> extends Iterator<T>, Iterable<T>, Closeable {
+    /**
+     * Release the resources of the cursor. Idempotent.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Execution statistics of a DAO. Recording only touches striped counters, so
+ * concurrent operations do not contend on the same cells.
+ *
+ * @author simplelib.org
+ */
+final class DaoStats implements DaoStatsMXBean {
+    /** Measured operations. */
+    static enum Operation {
+	ADD, ADD_ALL, SEARCH, UPDATE, UPDATE_ALL, REMOVE, EXECUTE
+    }
+
+    /** JMX domain of the statistics MBeans. */
+    static final String DOMAIN = "org.simplelib.simplepersist";
+
+    // Operation counters
+    private static final int COUNT = 0;
+    private static final int ERRORS = 1;
+    private static final int TOTAL_NANOS = 2;
+    private static final int FIRST_BUCKET = 3;
+    /** Latency buckets in µs: 0, 1, then 2 by power of two. */
+    private static final int BUCKETS = 64;
+
+    // DAO counters
+    private static final int ROWS = 0;
+    private static final int HITS = 1;
+    private static final int MISSES = 2;
+    private static final int BORROWS = 3;
+    private static final int WAIT_NANOS = 4;
+
+    private volatile String entity = "";
+    private final StripedCounters[] OPERATIONS;
+    /** Highest latency in ns by operation. */
+    private final AtomicLong[] MAX_NANOS;
+    private final StripedCounters COUNTERS = new StripedCounters(5);
+
+    DaoStats() {
+	Operation[] operations = Operation.values();
+	this.OPERATIONS = new StripedCounters[operations.length];
+	this.MAX_NANOS = new AtomicLong[operations.length];
+	for (int i = 0; i < operations.length; ++i) {
+	    this.OPERATIONS[i] = new StripedCounters(FIRST_BUCKET + BUCKETS);
+	    this.MAX_NANOS[i] = new AtomicLong();
+	}
+    }
+
+    /**
+     * Register the MBean of the statistics, replacing the one of a previous
+     * DAO of the same entity.
+     * 
+     * @param entityName
+     *            Entity class name.
+     */
+    void register(final String entityName) {
+	this.entity = entityName;
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(DOMAIN + ":type=DaoStats,name="
+		    + ObjectName.quote(entityName));
+	    if (server.isRegistered(name)) {
+		server.unregisterMBean(name);
+	    }
+	    server.registerMBean(this, name);
+	} catch (JMException e) {
+	    AccesBdd.LOGGER.log(Level.WARNING, "DAO statistics of "
+		    + entityName + " not registered.", e);
+	} catch (SecurityException e) {
+	    AccesBdd.LOGGER.warning("DAO statistics of " + entityName
+		    + " not registered: " + e);
+	}
+    }
+
+    /**
+     * Record the end of an operation, failed or not.
+     * 
+     * @param operation
+     *            Operation.
+     * @param start
+     *            {@link System#nanoTime()} at its beginning.
+     */
+    void record(final Operation operation, final long start) {
+	final long nanos = System.nanoTime() - start;
+	final StripedCounters counters = this.OPERATIONS[operation.ordinal()];
+	counters.increment(COUNT);
+	counters.add(TOTAL_NANOS, nanos);
+	counters.increment(FIRST_BUCKET + bucket(nanos / 1000));
+	final AtomicLong max = this.MAX_NANOS[operation.ordinal()];
+	long current = max.get();
+	while (nanos > current && !max.compareAndSet(current, nanos)) {
+	    current = max.get();
+	}
+    }
+
+    /** Count a failed operation, to record as well. */
+    void failed(final Operation operation) {
+	this.OPERATIONS[operation.ordinal()].increment(ERRORS);
+    }
+
+    void hydrated(final int rows) {
+	this.COUNTERS.add(ROWS, rows);
+    }
+
+    void cacheHit() {
+	this.COUNTERS.increment(HITS);
+    }
+
+    void cacheMiss() {
+	this.COUNTERS.increment(MISSES);
+    }
+
+    /**
+     * Record a connection borrow.
+     * 
+     * @param start
+     *            {@link System#nanoTime()} before the borrow.
+     */
+    void borrowed(final long start) {
+	this.COUNTERS.increment(BORROWS);
+	this.COUNTERS.add(WAIT_NANOS, System.nanoTime() - start);
+    }
+
+    /** Bucket of a latency in µs. */
+    private static int bucket(final long micros) {
+	if (micros < 2) {
+	    return (int) Math.max(0, micros);
+	}
+	int exp = 63 - Long.numberOfLeadingZeros(micros);
+	int half = (int) (micros >>> (exp - 1)) & 1;
+	return Math.min(BUCKETS - 1, 2 * exp + half);
+    }
+
+    /** Highest latency in µs of a bucket. */
+    private static long upperBound(final int bucket) {
+	if (bucket < 2) {
+	    return bucket;
+	}
+	int exp = bucket / 2;
+	long lower = (long) (2 + bucket % 2) << (exp - 1);
+	return lower + (1L << (exp - 1)) - 1;
+    }
+
+    private OperationStatistics statistics(final Operation operation) {
+	long[] values = this.OPERATIONS[operation.ordinal()].snapshot();
+	long count = values[COUNT];
+	long[] thresholds = { (count * 50 + 99) / 100, (count * 95 + 99) / 100,
+		(count * 99 + 99) / 100 };
+	long[] percentiles = new long[thresholds.length];
+	long seen = 0;
+	int next = 0;
+	for (int i = 0; i < BUCKETS && next < thresholds.length; ++i) {
+	    seen += values[FIRST_BUCKET + i];
+	    while (next < thresholds.length && thresholds[next] > 0
+		    && seen >= thresholds[next]) {
+		percentiles[next++] = upperBound(i);
+	    }
+	}
+	return new OperationStatistics(count, values[ERRORS],
+		count == 0 ? 0 : values[TOTAL_NANOS] / 1000.0 / count,
+		percentiles[0], percentiles[1], percentiles[2],
+		this.MAX_NANOS[operation.ordinal()].get() / 1000);
+    }
+
+    @Override
+    public String getEntity() {
+	return this.entity;
+    }
+
+    @Override
+    public OperationStatistics getAdd() {
+	return statistics(Operation.ADD);
+    }
+
+    @Override
+    public OperationStatistics getAddAll() {
+	return statistics(Operation.ADD_ALL);
+    }
+
+    @Override
+    public OperationStatistics getSearch() {
+	return statistics(Operation.SEARCH);
+    }
+
+    @Override
+    public OperationStatistics getUpdate() {
+	return statistics(Operation.UPDATE);
+    }
+
+    @Override
+    public OperationStatistics getUpdateAll() {
+	return statistics(Operation.UPDATE_ALL);
+    }
+
+    @Override
+    public OperationStatistics getRemove() {
+	return statistics(Operation.REMOVE);
+    }
+
+    @Override
+    public OperationStatistics getExecute() {
+	return statistics(Operation.EXECUTE);
+    }
+
+    @Override
+    public long getRowsHydrated() {
+	return this.COUNTERS.get(ROWS);
+    }
+
+    @Override
+    public long getCacheHits() {
+	return this.COUNTERS.get(HITS);
+    }
+
+    @Override
+    public long getCacheMisses() {
+	return this.COUNTERS.get(MISSES);
+    }
+
+    @Override
+    public long getPoolBorrows() {
+	return this.COUNTERS.get(BORROWS);
+    }
+
+    @Override
+    public long getPoolWaitMicros() {
+	return this.COUNTERS.get(WAIT_NANOS) / 1000;
+    }
+
+    @Override
+    public void reset() {
+	for (int i = 0; i < this.OPERATIONS.length; ++i) {
+	    this.OPERATIONS[i].reset();
+	    this.MAX_NANOS[i].set(0);
+	}
+	this.COUNTERS.reset();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Execution statistics of the DAO of an entity, registered in the platform
+ * MBean server as
+ * {@code org.simplelib.simplepersist:type=DaoStats,name="<entity class>"}.
+ * <p>
+ * Latency percentiles are estimated from a logarithmic histogram: a reported
+ * value is the upper bound of its bucket, at most 50% above the actual one.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public interface DaoStatsMXBean {
+    /** Statistics of one operation. */
+    final class OperationStatistics {
+	private final long count;
+	private final long errors;
+	private final double meanMicros;
+	private final long p50Micros;
+	private final long p95Micros;
+	private final long p99Micros;
+	private final long maxMicros;
+
+	@ConstructorProperties({ "count", "errors", "meanMicros", "p50Micros",
+		"p95Micros", "p99Micros", "maxMicros" })
+	public OperationStatistics(final long count, final long errors,
+		final double meanMicros, final long p50Micros,
+		final long p95Micros, final long p99Micros,
+		final long maxMicros) {
+	    this.count = count;
+	    this.errors = errors;
+	    this.meanMicros = meanMicros;
+	    this.p50Micros = p50Micros;
+	    this.p95Micros = p95Micros;
+	    this.p99Micros = p99Micros;
+	    this.maxMicros = maxMicros;
+	}
+
+	/** @return Calls, failed ones included. */
+	public long getCount() {
+	    return count;
+	}
+
+	/** @return Calls which threw an exception. */
+	public long getErrors() {
+	    return errors;
+	}
+
+	/** @return Mean latency in µs. */
+	public double getMeanMicros() {
+	    return meanMicros;
+	}
+
+	/** @return Median latency in µs. */
+	public long getP50Micros() {
+	    return p50Micros;
+	}
+
+	/** @return 95th percentile of the latency in µs. */
+	public long getP95Micros() {
+	    return p95Micros;
+	}
+
+	/** @return 99th percentile of the latency in µs. */
+	public long getP99Micros() {
+	    return p99Micros;
+	}
+
+	/** @return Highest latency in µs. */
+	public long getMaxMicros() {
+	    return maxMicros;
+	}
+
+	@Override
+	public String toString() {
+	    return "count=" + count + " errors=" + errors + " meanUs="
+		    + Math.round(meanMicros) + " p50Us=" + p50Micros
+		    + " p95Us=" + p95Micros + " p99Us=" + p99Micros
+		    + " maxUs=" + maxMicros;
+	}
+    }
+
+    /** @return Entity class name. */
+    String getEntity();
+
+    OperationStatistics getAdd();
+
+    OperationStatistics getAddAll();
+
+    /** @return Searches by model or SQL clause, and first result lookups. */
+    OperationStatistics getSearch();
+
+    OperationStatistics getUpdate();
+
+    OperationStatistics getUpdateAll();
+
+    OperationStatistics getRemove();
+
+    /** @return DSL queries, counts and aggregates. */
+    OperationStatistics getExecute();
+
+    /** @return Entities built from result rows. */
+    long getRowsHydrated();
+
+    /** @return Results served by the query, identity and DSL caches. */
+    long getCacheHits();
+
+    /** @return Cacheable searches not found in the caches. */
+    long getCacheMisses();
+
+    /** @return Connections borrowed by the DAO. */
+    long getPoolBorrows();
+
+    /** @return Cumulated time in µs spent waiting for a connection. */
+    long getPoolWaitMicros();
+
+    /** Reset all the counters. */
+    void reset();
+}
@@ -1,385 +1,514 @@
-/*
- * Copyright 2012 simplelib.org
- * 
- * This file is part of SimplePersist.
- * 
- * SimplePersist is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * SimplePersist is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.simplelib.simplepersist.dao;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import org.simplelib.simplepersist.annotation.Index;
-import org.simplelib.simplepersist.annotation.QueryCache;
-import org.simplelib.simplepersist.annotation.Table;
-
-/**
- * Abstract class of all persistable entity.
- * 
- * @author simplelib.org
- * 
- * @param <T>
- *            type of the child class.
- */
-public abstract class Entity<T extends Entity<T>> implements IPersistable<T> {
-    class PrivilegedFieldsAccess implements PrivilegedAction<List<Field>> {
-	@Override
-	public List<Field> run() {
-	    List<Field> liste = new ArrayList<Field>();
-	    List<Field> result = new ArrayList<Field>();
-	    // Récupération des Field de la Class et de ses SuperClass.
-	    Class<?> currentClass = Entity.this.getClass();
-	    while (currentClass != null) {
-		liste.addAll(Arrays.asList(currentClass.getDeclaredFields()));
-		currentClass = currentClass.getSuperclass();
-	    }
-	    // Identification des Field à mettre en persistance.
-	    Field field;
-	    // Class<?> fieldType;
-	    // Important : inversion de l'ordre de parcours pour conserver les
-	    // ID.
-	    for (int i = liste.size() - 1; i >= 0; --i) {
-		field = liste.get(i);
-		int mod = field.getModifiers();
-		if (!Modifier.isVolatile(mod) && !Modifier.isTransient(mod)
-			&& !Modifier.isStatic(mod)) {
-		    field.setAccessible(true);
-		    result.add(field);
-		    // fieldType = field.getType();
-		}
-	    }
-	    return result;
-	}
-    }
-
-    /**
-     * Get the class Dao of the specified entity class.
-     * 
-     * @param classe
-     *            Entity {@link Class}.
-     * @return {@link IDao} linked.
-     */
-    @SuppressWarnings("unchecked")
-    static <T extends Entity<?>> IDao<T> getDao(final Class<T> classe) {
-	EntityDescriptor<?> result = getEntityDescriptor(classe);
-	return (IDao<T>) result.DAO;
-    }
-    
-    IDao<T> getDao() {
-	return this.DESC.DAO;
-    }
-
-    private static EntityDescriptor<?> getEntityDescriptor(
-	    Class<? extends Entity<?>> classe) {
-	EntityDescriptor<?> result = MAP_DESC.get(classe);
-	// Initialisation de la DAO si pas encore effectuée.
-	if (result == null) {
-	    try {
-		classe.newInstance();
-	    } catch (final Exception e) {
-		throw new RuntimeException(e);
-	    }
-	    result = MAP_DESC.get(classe);
-	}
-	return result;
-    }
-
-    private static List<Field> getSubTableFields(final Field field) {
-	List<Field> listeFieldSubT;
-	@SuppressWarnings("unchecked")
-	Class<? extends Entity<?>> castedClass = (Class<? extends Entity<?>>) field
-		.getType();
-	try {
-	    listeFieldSubT = new ArrayList<Field>(
-		    castedClass.newInstance().DESC.FIELD_LIST);
-	    // Hack de suppression de l'id
-	    listeFieldSubT.remove(0);
-	} catch (final Exception e) {
-	    throw new RuntimeException(e);
-	}
-	return listeFieldSubT;
-    }
-
-    static Field getField(Class<? extends Entity<?>> classe, String columnName) {
-	EntityDescriptor<?> description = getEntityDescriptor(classe);
-	for (Field field : description.FULL_FIELD_LIST) {
-	    if (field.getName().equals(columnName)) {
-		return field;
-	    }
-	}
-	return null;
-    }
-
-    private static class EntityDescriptor<U extends Entity<?>> {
-	protected final IDao<U> DAO;
-	protected final List<Field> FIELD_LIST;
-	protected final List<Field> FULL_FIELD_LIST;
-
-	public EntityDescriptor(final IDao<U> dao, final List<Field> fieldList,
-		final List<Field> fullFieldList) {
-	    this.DAO = dao;
-	    this.FIELD_LIST = fieldList;
-	    this.FULL_FIELD_LIST = fullFieldList;
-	}
-
-    }
-
-    /** Entity id in persistance. */
-    @PrimaryKeyField
-    private Integer id;
-
-    private static final Map<Class<?>, EntityDescriptor<?>> MAP_DESC = new HashMap<Class<?>, EntityDescriptor<?>>();
-
-    private final transient EntityDescriptor<T> DESC;
-
-    private final transient PrivilegedFieldsAccess PRIV_FIELDS_ACCESS = new PrivilegedFieldsAccess();
-
-    @SuppressWarnings("unchecked")
-    protected Entity() {
-	EntityDescriptor<T> desc;
-	IDao<T> dao;
-	List<Field> fieldList;
-	List<Field> fullFieldList;
-
-	// If first instantiation
-	if (!MAP_DESC.containsKey(getClass())) {
-	    // Field List
-	    fieldList = AccessController.doPrivileged(this.PRIV_FIELDS_ACCESS);
-
-	    // Full field list building
-	    fullFieldList = new ArrayList<Field>(fieldList.size() * 2);
-	    for (Field field : fieldList) {
-		if (Entity.class.isAssignableFrom(field.getType())) {
-		    fullFieldList.addAll(getSubTableFields(field));
-		} else {
-		    fullFieldList.add(field);
-		}
-	    }
-
-	    // DAO
-	    dao = createDAO(fullFieldList);
-	    dao.init();
-
-	    desc = new EntityDescriptor<T>(dao, fieldList, fullFieldList);
-
-	    MAP_DESC.put(getClass(), desc);
-	} else {
-	    desc = (EntityDescriptor<T>) MAP_DESC.get(getClass());
-	}
-	this.DESC = desc;
-    }
-
-    private void addAllParamsFrom(final Field field, final List<Object> list)
-	    throws IllegalArgumentException, IllegalAccessException,
-	    InstantiationException {
-	Class<?> fieldType = field.getType();
-	if (Entity.class.isAssignableFrom(fieldType)) {
-	    Entity<?> entite = (Entity<?>) field.get(this);
-	    if (entite == null) {
-		entite = (Entity<?>) fieldType.newInstance();
-	    }
-	    int offset = 1; // Id removing hack
-	    List<Object> subTableParams = entite.getValues(offset);
-	    list.addAll(subTableParams);
-	} else {
-	    boolean nullPrimitive = (fieldType == Integer.TYPE | fieldType == Character.TYPE)
-		    && field.getInt(this) == 0
-		    || fieldType == Double.TYPE
-		    && field.getDouble(this) == 0
-		    || fieldType == Boolean.TYPE
-		    && field.getBoolean(this) == false;
-	    if (nullPrimitive) {
-		list.add(null);
-	    } else {
-		list.add(field.get(this));
-	    }
-	}
-    }
-
-    private IDao<T> createDAO(final List<Field> fullFieldList) {
-	@SuppressWarnings("unchecked")
-	Class<T> classe = (Class<T>) getClass();
-	boolean queryCache = classe.isAnnotationPresent(QueryCache.class);
-	if (classe.isAnnotationPresent(Table.class)) {
-	    return new SqlDao<T>(queryCache, classe, fullFieldList);
-	} else {
-	    // TODO Utiliser des valeurs d'initialisation plus cohérentes que
-	    // celles par défaut.
-	    return new ObjectDao<T>(queryCache, 100, 2);
-	}
-    }
-
-    @Override
-    public int delete() {
-	return Queries.update(getInstance());
-    }
-
-    private <A extends Annotation> List<Object> getAnnoted(
-	    final Class<A> annotationClass) {
-	List<Object> result = new ArrayList<Object>();
-	try {
-	    for (Field field : this.DESC.FIELD_LIST) {
-		if (field.isAnnotationPresent(annotationClass)) {
-		    addAllParamsFrom(field, result);
-		}
-	    }
-	} catch (Exception e) {
-	    throw new RuntimeException(e);
-	}
-	return result;
-    }
-
-    @Override
-    public final Integer getId() {
-	if (this.id == null) {
-	    throw new IllegalStateException(
-		    "This entity has not been inserted yet.");
-	}
-	return this.id;
-    }
-
-    /**
-     * Return the values {@link List} of all fields annoted {@link Index}.
-     * 
-     * @return {@link List}&lt;{@link Object}&gt; : values {@link List}.
-     */
-    List<Object> getIndexs() {
-	return getAnnoted(Index.class);
-    }
-
-    /**
-     * Return the current instance under the child class. Avoid unchecked casts.
-     */
-    @SuppressWarnings("unchecked")
-    protected final T getInstance() {
-	return (T) this;
-    }
-
-    List<Object> getValues() {
-	return getValues(0);
-    }
-
-    /**
-     * Retourne l'ensemble des valeurs des membre de l'objet depuis l'offset
-     * spécifié.
-     * 
-     * @param offset
-     *            Offset de départ.
-     * @return {@link List} des valeurs.
-     */
-    private List<Object> getValues(final int offset) {
-	List<Object> result = new ArrayList<Object>();
-	try {
-	    Field field;
-	    for (int i = offset, max = this.DESC.FIELD_LIST.size(); i < max; ++i) {
-		field = this.DESC.FIELD_LIST.get(i);
-		addAllParamsFrom(field, result);
-	    }
-	} catch (Exception e) {
-	    throw new RuntimeException(e);
-	}
-	return result;
-    }
-
-    @Override
-    public int hashCode() {
-	return this.id.hashCode();
-    }
-
-    @Override
-    public void insert() {
-	Queries.insert(getInstance());
-    }
-
-    final boolean isInserted() {
-	return this.id != null;
-    }
-
-    @Override
-    public List<T> search() {
-	return Queries.search(getInstance());
-    }
-    
-    /**
-     * Set the entity id.
-     * 
-     * @param id
-     *            Entity id.
-     */
-    final void setId(final Integer id) {
-	this.id = id;
-    }
-
-    int setObject(final ResultSet rs, final int offset, final boolean setId)
-	    throws SQLException, IllegalArgumentException,
-	    IllegalAccessException, InstantiationException {
-	int o = offset;
-	Entity<?> subTableObj;
-	Field field;
-	Class<?> fieldType;
-	for (int i = setId ? 0 : 1, max = this.DESC.FIELD_LIST.size(); i < max; ++i) {
-	    field = this.DESC.FIELD_LIST.get(i);
-	    fieldType = field.getType();
-	    // Support des subtables
-	    if (Entity.class.isAssignableFrom(fieldType)) {
-		subTableObj = (Entity<?>) fieldType.newInstance();
-		field.set(this, subTableObj);
-		o = subTableObj.setObject(rs, o, false);
-		continue;
-	    }
-	    // Character support
-	    if (fieldType == Character.class || fieldType == Character.TYPE) {
-		String chaine = rs.getString(++o);
-		if (chaine != null) {
-		    field.set(this, chaine.charAt(0));
-		    continue;
-		} else if (fieldType == Character.TYPE) {
-		    field.setChar(this, '\00');
-		    continue;
-		} else {
-		    --o;
-		}
-	    }
-	    Object result = rs.getObject(++o);
-	    // Primitive support
-	    if (fieldType.isPrimitive() && result == null) {
-		if (fieldType == Boolean.TYPE) {
-		    field.setBoolean(this, false);
-		} else {
-		    field.set(this, 0);
-		}
-	    } else {
-		field.set(this, result);
-	    }
-	}
-	return o;
-    }
-
-    @Override
-    public int update() {
-	return Queries.update(getInstance());
-    }
-}
+/*
+ * Copyright 2012 simplelib.org
+ * 
+ * This file is part of SimplePersist.
+ * 
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.simplelib.simplepersist.annotation.Index;
+import org.simplelib.simplepersist.annotation.QueryCache;
+import org.simplelib.simplepersist.annotation.Table;
+
+/**
+ * Abstract class of all persistable entity.
+ * 
+ * @author simplelib.org
+ * 
+ * @param <T>
+ *            type of the child class.
+ */
+public abstract class Entity<T extends Entity<T>> implements IPersistable<T> {
+    static class PrivilegedFieldsAccess implements PrivilegedAction<List<Field>> {
+	private final Class<?> CLASS;
+
+	PrivilegedFieldsAccess(final Class<?> classe) {
+	    this.CLASS = classe;
+	}
+
+	@Override
+	public List<Field> run() {
+	    List<Field> liste = new ArrayList<Field>();
+	    List<Field> result = new ArrayList<Field>();
+	    // Récupération des Field de la Class et de ses SuperClass.
+	    Class<?> currentClass = this.CLASS;
+	    while (currentClass != null) {
+		liste.addAll(Arrays.asList(currentClass.getDeclaredFields()));
+		currentClass = currentClass.getSuperclass();
+	    }
+	    // Identification des Field à mettre en persistance.
+	    Field field;
+	    // Class<?> fieldType;
+	    // Important : inversion de l'ordre de parcours pour conserver les
+	    // ID.
+	    for (int i = liste.size() - 1; i >= 0; --i) {
+		field = liste.get(i);
+		int mod = field.getModifiers();
+		if (!Modifier.isVolatile(mod) && !Modifier.isTransient(mod)
+			&& !Modifier.isStatic(mod)) {
+		    field.setAccessible(true);
+		    result.add(field);
+		    // fieldType = field.getType();
+		}
+	    }
+	    return result;
+	}
+    }
+
+    /**
+     * Get the class Dao of the specified entity class.
+     * 
+     * @param classe
+     *            Entity {@link Class}.
+     * @return {@link IDao} linked.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Entity<?>> IDao<T> getDao(final Class<T> classe) {
+	EntityDescriptor<?> result = getEntityDescriptor(classe);
+	return (IDao<T>) result.DAO;
+    }
+    
+    IDao<T> getDao() {
+	return this.DESC.DAO;
+    }
+
+    private static EntityDescriptor<?> getEntityDescriptor(
+	    Class<? extends Entity<?>> classe) {
+	return DESCRIPTORS.get(classe).get();
+    }
+
+    private static List<Field> getSubTableFields(final Field field) {
+	@SuppressWarnings("unchecked")
+	Class<? extends Entity<?>> castedClass = (Class<? extends Entity<?>>) field
+		.getType();
+	List<Field> listeFieldSubT = new ArrayList<Field>(
+		getEntityDescriptor(castedClass).FIELD_LIST);
+	// Hack de suppression de l'id
+	listeFieldSubT.remove(0);
+	return listeFieldSubT;
+    }
+
+    /**
+     * Accessors of the persisted fields of an entity class, id first.
+     * 
+     * @param classe
+     *            Entity {@link Class}.
+     * @return {@link FieldAccessor} array, not to be modified.
+     */
+    static FieldAccessor[] getAccessors(Class<? extends Entity<?>> classe) {
+	return getEntityDescriptor(classe).ACCESSORS;
+    }
+
+    /**
+     * No-arg constructor of an entity class.
+     * 
+     * @param classe
+     *            Entity {@link Class}.
+     * @return ()Object {@link MethodHandle}, {@code null} if none.
+     */
+    static MethodHandle getConstructor(Class<? extends Entity<?>> classe) {
+	return getEntityDescriptor(classe).CONSTRUCTOR;
+    }
+
+    static Field getField(Class<? extends Entity<?>> classe, String columnName) {
+	EntityDescriptor<?> description = getEntityDescriptor(classe);
+	for (Field field : description.FULL_FIELD_LIST) {
+	    if (field.getName().equals(columnName)) {
+		return field;
+	    }
+	}
+	return null;
+    }
+
+    private static class EntityDescriptor<U extends Entity<?>> {
+	protected final IDao<U> DAO;
+	protected final List<Field> FIELD_LIST;
+	protected final List<Field> FULL_FIELD_LIST;
+	/** Accessors of FIELD_LIST. */
+	protected final FieldAccessor[] ACCESSORS;
+	/** ()Object no-arg constructor, {@code null} if none. */
+	private final MethodHandle CONSTRUCTOR;
+
+	public EntityDescriptor(final IDao<U> dao, final List<Field> fieldList,
+		final List<Field> fullFieldList,
+		final MethodHandle constructor) {
+	    this.DAO = dao;
+	    this.FIELD_LIST = fieldList;
+	    this.FULL_FIELD_LIST = fullFieldList;
+	    this.ACCESSORS = new FieldAccessor[fieldList.size()];
+	    for (int i = 0; i < this.ACCESSORS.length; ++i) {
+		this.ACCESSORS[i] = new FieldAccessor(fieldList.get(i));
+	    }
+	    this.CONSTRUCTOR = constructor;
+	}
+
+	/**
+	 * Instantiate the entity with its no-arg constructor.
+	 * 
+	 * @return New entity.
+	 */
+	@SuppressWarnings("unchecked")
+	U newInstance() {
+	    if (this.CONSTRUCTOR == null) {
+		throw new IllegalStateException(
+			"No constructor without parameter.");
+	    }
+	    try {
+		return (U) (Object) this.CONSTRUCTOR.invokeExact();
+	    } catch (RuntimeException e) {
+		throw e;
+	    } catch (Throwable t) {
+		throw new RuntimeException(t);
+	    }
+	}
+
+	/**
+	 * Build the descriptor and the DAO of an entity class.
+	 * 
+	 * @param classe
+	 *            Entity {@link Class}.
+	 * @return {@link EntityDescriptor}.
+	 */
+	static <U extends Entity<?>> EntityDescriptor<U> build(
+		final Class<U> classe) {
+	    // Field List
+	    List<Field> fieldList = AccessController
+		    .doPrivileged(new PrivilegedFieldsAccess(classe));
+
+	    // Full field list building
+	    List<Field> fullFieldList = new ArrayList<Field>(
+		    fieldList.size() * 2);
+	    for (Field field : fieldList) {
+		if (Entity.class.isAssignableFrom(field.getType())) {
+		    fullFieldList.addAll(getSubTableFields(field));
+		} else {
+		    fullFieldList.add(field);
+		}
+	    }
+
+	    // No-arg constructor
+	    MethodHandle constructor;
+	    try {
+		Constructor<U> ctor = classe.getDeclaredConstructor();
+		ctor.setAccessible(true);
+		constructor = MethodHandles.lookup().unreflectConstructor(ctor)
+			.asType(MethodType.methodType(Object.class));
+	    } catch (NoSuchMethodException e) {
+		constructor = null;
+	    } catch (IllegalAccessException e) {
+		throw new RuntimeException(e);
+	    }
+
+	    // DAO
+	    IDao<U> dao = createDAO(classe, fullFieldList);
+	    dao.init();
+
+	    return new EntityDescriptor<U>(dao, fieldList, fullFieldList,
+		    constructor);
+	}
+    }
+
+    /**
+     * Descriptor of an entity class, built once on first use. Reads after
+     * initialization are a single volatile read.
+     */
+    private static final class DescriptorHolder {
+	private final Class<? extends Entity<?>> CLASS;
+	private volatile EntityDescriptor<?> descriptor;
+
+	private DescriptorHolder(final Class<? extends Entity<?>> classe) {
+	    this.CLASS = classe;
+	}
+
+	EntityDescriptor<?> get() {
+	    EntityDescriptor<?> desc = this.descriptor;
+	    if (desc == null) {
+		synchronized (this) {
+		    desc = this.descriptor;
+		    if (desc == null) {
+			desc = EntityDescriptor.build(this.CLASS);
+			this.descriptor = desc;
+		    }
+		}
+	    }
+	    return desc;
+	}
+    }
+
+    /** Entity id in persistance. */
+    @PrimaryKeyField
+    private Integer id;
+
+    /** Descriptors registry, one holder by entity class. */
+    private static final ClassValue<DescriptorHolder> DESCRIPTORS = new ClassValue<DescriptorHolder>() {
+	@SuppressWarnings("unchecked")
+	@Override
+	protected DescriptorHolder computeValue(final Class<?> type) {
+	    return new DescriptorHolder((Class<? extends Entity<?>>) type);
+	}
+    };
+
+    private final transient EntityDescriptor<T> DESC;
+
+    @SuppressWarnings("unchecked")
+    protected Entity() {
+	this.DESC = (EntityDescriptor<T>) DESCRIPTORS.get(getClass()).get();
+    }
+
+    private void addAllParamsFrom(final FieldAccessor accessor,
+	    final List<Object> list) {
+	if (accessor.KIND == FieldAccessor.Kind.ENTITY) {
+	    int offset = 1; // Id removing hack
+	    getSubEntity(accessor).appendValues(list, offset);
+	} else {
+	    // Default value of a primitive is read as null.
+	    list.add(accessor.getNullable(this));
+	}
+    }
+
+    /**
+     * Sub-entity of a field, a default instance if {@code null}.
+     */
+    private Entity<?> getSubEntity(final FieldAccessor accessor) {
+	Entity<?> entite = (Entity<?>) accessor.get(this);
+	if (entite == null) {
+	    @SuppressWarnings("unchecked")
+	    Class<? extends Entity<?>> subClass = (Class<? extends Entity<?>>) accessor.TYPE;
+	    entite = getEntityDescriptor(subClass).newInstance();
+	}
+	return entite;
+    }
+
+    private static <U extends Entity<?>> IDao<U> createDAO(
+	    final Class<U> classe, final List<Field> fullFieldList) {
+	QueryCache queryCache = classe.getAnnotation(QueryCache.class);
+	final AbstractDao<U> dao;
+	if (classe.isAnnotationPresent(Table.class)) {
+	    dao = new SqlDao<U>(queryCache, classe, fullFieldList);
+	} else {
+	    // TODO Utiliser des valeurs d'initialisation plus cohérentes que
+	    // celles par défaut.
+	    dao = new ObjectDao<U>(queryCache, 100, 2);
+	}
+	dao.STATS.register(classe.getName());
+	return dao;
+    }
+
+    @Override
+    public int delete() {
+	return Queries.update(getInstance());
+    }
+
+    private List<Object> getIndexed() {
+	List<Object> result = new ArrayList<Object>();
+	for (FieldAccessor accessor : this.DESC.ACCESSORS) {
+	    if (accessor.INDEXED) {
+		addAllParamsFrom(accessor, result);
+	    }
+	}
+	return result;
+    }
+
+    @Override
+    public final Integer getId() {
+	if (this.id == null) {
+	    throw new IllegalStateException(
+		    "This entity has not been inserted yet.");
+	}
+	return this.id;
+    }
+
+    /**
+     * Return the values {@link List} of all fields annoted {@link Index}.
+     * 
+     * @return {@link List}&lt;{@link Object}&gt; : values {@link List}.
+     */
+    List<Object> getIndexs() {
+	return getIndexed();
+    }
+
+    /**
+     * Return the current instance under the child class. Avoid unchecked casts.
+     */
+    @SuppressWarnings("unchecked")
+    protected final T getInstance() {
+	return (T) this;
+    }
+
+    List<Object> getValues() {
+	return getValues(0);
+    }
+
+    /**
+     * Retourne l'ensemble des valeurs des membre de l'objet depuis l'offset
+     * spécifié.
+     * 
+     * @param offset
+     *            Offset de départ.
+     * @return {@link List} des valeurs.
+     */
+    private List<Object> getValues(final int offset) {
+	List<Object> result = new ArrayList<Object>(
+		this.DESC.FULL_FIELD_LIST.size() + 1);
+	appendValues(result, offset);
+	return result;
+    }
+
+    /**
+     * Ajoute les valeurs des membres de l'objet depuis l'offset spécifié,
+     * sans liste intermédiaire pour les sous-entités.
+     * 
+     * @param list
+     *            {@link List} de sortie.
+     * @param offset
+     *            Offset de départ.
+     */
+    private void appendValues(final List<Object> list, final int offset) {
+	FieldAccessor[] accessors = this.DESC.ACCESSORS;
+	for (int i = offset; i < accessors.length; ++i) {
+	    addAllParamsFrom(accessors[i], list);
+	}
+    }
+
+    /**
+     * Test if this entity matches the values of a search model, as returned
+     * by {@link #getValues()}: {@code null} model values are ignored.
+     * 
+     * @param modelValues
+     *            Model values.
+     * @return {@code true} if all the non null values are equal.
+     */
+    boolean matches(final List<Object> modelValues) {
+	return match(modelValues, 0, 0, false) >= 0;
+    }
+
+    /**
+     * Test if this entity may match the values of a search model in the
+     * database, whose comparisons differ from {@link Object#equals(Object)}
+     * for strings and characters (collations, CHAR padding), non integral
+     * numbers and dates (conversions): such model values are considered
+     * matching.
+     * 
+     * @param modelValues
+     *            Model values.
+     * @return {@code false} if a value of exact comparison differs.
+     */
+    boolean mayMatchInDatabase(final List<Object> modelValues) {
+	return match(modelValues, 0, 0, true) >= 0;
+    }
+
+    /**
+     * @param sql
+     *            Values of inexact SQL comparison considered matching.
+     * @return Next model value position, -1 if not matching.
+     */
+    private int match(final List<Object> modelValues, final int position,
+	    final int offset, final boolean sql) {
+	int pos = position;
+	FieldAccessor[] accessors = this.DESC.ACCESSORS;
+	for (int i = offset; i < accessors.length; ++i) {
+	    FieldAccessor accessor = accessors[i];
+	    if (accessor.KIND == FieldAccessor.Kind.ENTITY) {
+		pos = getSubEntity(accessor).match(modelValues, pos, 1, sql);
+		if (pos < 0) {
+		    return -1;
+		}
+	    } else {
+		if (pos >= modelValues.size()) {
+		    return pos;
+		}
+		Object expected = modelValues.get(pos++);
+		if (expected != null && !(sql && isInexactInSql(expected))
+			&& !accessor.valueEquals(this, expected)) {
+		    return -1;
+		}
+	    }
+	}
+	return pos;
+    }
+
+    private static boolean isInexactInSql(final Object value) {
+	return value instanceof CharSequence || value instanceof Character
+		|| value instanceof Float || value instanceof Double
+		|| value instanceof BigDecimal
+		|| value instanceof Date;
+    }
+
+    @Override
+    public int hashCode() {
+	return this.id.hashCode();
+    }
+
+    @Override
+    public void insert() {
+	Queries.insert(getInstance());
+    }
+
+    final boolean isInserted() {
+	return this.id != null;
+    }
+
+    @Override
+    public List<T> search() {
+	return Queries.search(getInstance());
+    }
+    
+    /**
+     * Set the entity id.
+     * 
+     * @param id
+     *            Entity id.
+     */
+    final void setId(final Integer id) {
+	this.id = id;
+    }
+
+    /**
+     * Copie des membres persistés, sous-entités comprises.
+     * 
+     * @return Nouvelle instance.
+     */
+    T copy() {
+	T copy = this.DESC.newInstance();
+	for (FieldAccessor accessor : this.DESC.ACCESSORS) {
+	    Object value = accessor.get(this);
+	    if (accessor.KIND == FieldAccessor.Kind.ENTITY && value != null) {
+		value = ((Entity<?>) value).copy();
+	    }
+	    accessor.set(copy, value);
+	}
+	return copy;
+    }
+
+    @Override
+    public int update() {
+	return Queries.update(getInstance());
+    }
+}
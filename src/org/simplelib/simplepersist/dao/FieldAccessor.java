@@ -0,0 +1,329 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import org.simplelib.simplepersist.annotation.Index;
+
+/**
+ * Read and write access to a persisted field, built once per field with
+ * {@link MethodHandle}s instead of {@link Field#get(Object)} and
+ * {@link Field#set(Object, Object)}.
+ * <p>
+ * The generic accessors convert like the reflection API: values are boxed on
+ * read, unboxed and widened on write, a narrowing conversion being refused.
+ * {@code null} is written as the default value of a primitive field. Typed
+ * accessors avoid boxing and are only valid for a field of the matching
+ * {@link Kind}.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+final class FieldAccessor {
+    /** Field value kinds. */
+    static enum Kind {
+	/** Any reference or unsupported primitive. */
+	OBJECT,
+	/** {@code int} field. */
+	INT,
+	/** {@code double} field. */
+	DOUBLE,
+	/** {@code boolean} field. */
+	BOOLEAN,
+	/** {@code char} field. */
+	CHAR,
+	/** Sub-entity field. */
+	ENTITY;
+
+	static Kind of(final Class<?> type) {
+	    if (type == Integer.TYPE) {
+		return INT;
+	    } else if (type == Double.TYPE) {
+		return DOUBLE;
+	    } else if (type == Boolean.TYPE) {
+		return BOOLEAN;
+	    } else if (type == Character.TYPE) {
+		return CHAR;
+	    } else if (Entity.class.isAssignableFrom(type)) {
+		return ENTITY;
+	    }
+	    return OBJECT;
+	}
+    }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(
+	    Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(
+	    Void.TYPE, Object.class, Object.class);
+
+    final Field FIELD;
+    final Class<?> TYPE;
+    final Kind KIND;
+    /** Field annotated {@link Index}. */
+    final boolean INDEXED;
+    /** (Object)Object getter, boxing primitives. */
+    private final MethodHandle GETTER;
+    /** (Object,Object)void setter, unboxing primitives. */
+    private final MethodHandle SETTER;
+    /** Value written for {@code null}: default value of a primitive. */
+    private final Object DEFAULT_VALUE;
+    /** (Object)primitive getter, {@code null} for references. */
+    private final MethodHandle PRIMITIVE_GETTER;
+    /** (Object,primitive)void setter, {@code null} for references. */
+    private final MethodHandle PRIMITIVE_SETTER;
+
+    /**
+     * Build the accessor of an accessible field.
+     *
+     * @param field
+     *            Accessible {@link Field}.
+     */
+    FieldAccessor(final Field field) {
+	this.FIELD = field;
+	this.TYPE = field.getType();
+	this.KIND = Kind.of(this.TYPE);
+	this.INDEXED = field.isAnnotationPresent(Index.class);
+	try {
+	    MethodHandle getter = LOOKUP.unreflectGetter(field);
+	    MethodHandle setter = setterOf(field);
+	    this.GETTER = getter.asType(GETTER_TYPE);
+	    // Unboxing and widening conversions only, as Field.set does.
+	    this.SETTER = setter.asType(SETTER_TYPE);
+	    this.DEFAULT_VALUE = defaultValue(this.TYPE);
+	    if (this.TYPE.isPrimitive()) {
+		this.PRIMITIVE_GETTER = getter.asType(MethodType.methodType(
+			this.TYPE, Object.class));
+		this.PRIMITIVE_SETTER = setter.asType(MethodType.methodType(
+			Void.TYPE, Object.class, this.TYPE));
+	    } else {
+		this.PRIMITIVE_GETTER = null;
+		this.PRIMITIVE_SETTER = null;
+	    }
+	} catch (ReflectiveOperationException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Setter handle. Final fields, refused by
+     * {@link MethodHandles.Lookup#unreflectSetter(Field)} on some JVMs, are
+     * written through the reflection API.
+     */
+    private static MethodHandle setterOf(final Field field)
+	    throws ReflectiveOperationException {
+	try {
+	    return LOOKUP.unreflectSetter(field);
+	} catch (IllegalAccessException e) {
+	    Class<?> type = field.getType();
+	    String name = "set";
+	    if (type.isPrimitive()) {
+		name += Character.toUpperCase(type.getName().charAt(0))
+			+ type.getName().substring(1);
+	    } else {
+		type = Object.class;
+	    }
+	    return LOOKUP.findVirtual(Field.class, name,
+		    MethodType.methodType(Void.TYPE, Object.class, type))
+		    .bindTo(field)
+		    .asType(MethodType.methodType(Void.TYPE,
+			    field.getDeclaringClass(), field.getType()));
+	}
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+	if (type == Boolean.TYPE) {
+	    return Boolean.FALSE;
+	} else if (type == Character.TYPE) {
+	    return Character.valueOf('\00');
+	} else if (type == Byte.TYPE) {
+	    return Byte.valueOf((byte) 0);
+	} else if (type == Short.TYPE) {
+	    return Short.valueOf((short) 0);
+	} else if (type == Integer.TYPE) {
+	    return Integer.valueOf(0);
+	} else if (type == Long.TYPE) {
+	    return Long.valueOf(0L);
+	} else if (type == Float.TYPE) {
+	    return Float.valueOf(0f);
+	} else if (type == Double.TYPE) {
+	    return Double.valueOf(0d);
+	}
+	return null;
+    }
+
+    private static RuntimeException rethrow(final Throwable t) {
+	if (t instanceof RuntimeException) {
+	    return (RuntimeException) t;
+	} else if (t instanceof Error) {
+	    throw (Error) t;
+	}
+	return new RuntimeException(t);
+    }
+
+    Object get(final Object target) {
+	try {
+	    return (Object) this.GETTER.invokeExact(target);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    void set(final Object target, final Object value) {
+	try {
+	    this.SETTER.invokeExact(target, value == null ? this.DEFAULT_VALUE
+		    : value);
+	} catch (ClassCastException e) {
+	    throw new IllegalArgumentException("Can not set " + this.TYPE
+		    + " field " + this.FIELD.getName() + " to "
+		    + value.getClass().getName(), e);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    /**
+     * Read the field value as seen by the queries: the default value of a
+     * primitive field (0, {@code false}, '\0') is read as {@code null}.
+     *
+     * @param target
+     *            Owner entity.
+     * @return Boxed value or {@code null}.
+     */
+    Object getNullable(final Object target) {
+	switch (this.KIND) {
+	case INT:
+	    int i = getInt(target);
+	    return i == 0 ? null : Integer.valueOf(i);
+	case DOUBLE:
+	    double d = getDouble(target);
+	    return d == 0 ? null : Double.valueOf(d);
+	case BOOLEAN:
+	    return getBoolean(target) ? Boolean.TRUE : null;
+	case CHAR:
+	    char c = getChar(target);
+	    return c == 0 ? null : Character.valueOf(c);
+	default:
+	    return get(target);
+	}
+    }
+
+    /**
+     * Compare the field value with a non null model value, without boxing.
+     * Equivalent to {@code expected.equals(getNullable(target))}.
+     *
+     * @param target
+     *            Owner entity.
+     * @param expected
+     *            Model value.
+     * @return {@code true} if equal.
+     */
+    boolean valueEquals(final Object target, final Object expected) {
+	switch (this.KIND) {
+	case INT:
+	    return expected instanceof Integer
+		    && ((Integer) expected).intValue() == getInt(target);
+	case DOUBLE:
+	    return expected instanceof Double
+		    && Double.doubleToLongBits((Double) expected) == Double
+			    .doubleToLongBits(getDouble(target));
+	case BOOLEAN:
+	    return Boolean.TRUE.equals(expected) && getBoolean(target);
+	case CHAR:
+	    return expected instanceof Character
+		    && ((Character) expected).charValue() == getChar(target);
+	default:
+	    return expected.equals(get(target));
+	}
+    }
+
+    int getInt(final Object target) {
+	try {
+	    return (int) this.PRIMITIVE_GETTER.invokeExact(target);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    void setInt(final Object target, final int value) {
+	try {
+	    this.PRIMITIVE_SETTER.invokeExact(target, value);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    double getDouble(final Object target) {
+	try {
+	    return (double) this.PRIMITIVE_GETTER.invokeExact(target);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    void setDouble(final Object target, final double value) {
+	try {
+	    this.PRIMITIVE_SETTER.invokeExact(target, value);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    boolean getBoolean(final Object target) {
+	try {
+	    return (boolean) this.PRIMITIVE_GETTER.invokeExact(target);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    void setBoolean(final Object target, final boolean value) {
+	try {
+	    this.PRIMITIVE_SETTER.invokeExact(target, value);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    char getChar(final Object target) {
+	try {
+	    return (char) this.PRIMITIVE_GETTER.invokeExact(target);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    void setChar(final Object target, final char value) {
+	try {
+	    this.PRIMITIVE_SETTER.invokeExact(target, value);
+	} catch (Throwable t) {
+	    throw rethrow(t);
+	}
+    }
+
+    @Override
+    public String toString() {
+	return this.FIELD.getName();
+    }
+}
@@ -1,129 +1,233 @@
-/*
- * Copyright 2012 simplelib.org
- * 
- * This file is part of SimplePersist.
- * 
- * SimplePersist is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * SimplePersist is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.simplelib.simplepersist.dao;
-
-import java.io.Serializable;
-import java.util.List;
-
-import org.simplelib.simplepersist.dao.Queries.Query;
-
-/**
- * Interface d'un DAO.
- * 
- * @author simplelib.org
- * @param <T>
- *            Type de l'objet de la DAO.
- */
-interface IDao<T extends Entity<?>> extends Serializable {
-
-    /**
-     * Insert an entity in database.
-     * 
-     * @param entity
-     *            Entity to insert.
-     * @return {@code 1} if success.
-     */
-    int add(T entity);
-
-    /**
-     * Insère un ensemble d'objet dans la persistance. Sous certaines
-     * implémentations, cet appel peut offrir de meilleures performances que des
-     * appels multiples à {@link IDao#add(Object)}.
-     * 
-     * @param objets
-     *            Tableau d'{@link Object} à insérer.
-     * @return Nb d'occurences ajoutées.
-     */
-    int addAll(List<T> objets);
-
-    /**
-     * Libère les ressources de la DAO.
-     */
-    void close();
-
-    /** Créer la table dans la BDD. 
-     * @return */
-    boolean createTable();
-
-    /** Supprime la table de la BDD si elle existe. 
-     * @return */
-    boolean dropTableIfExists();
-
-    /**
-     * Initialisation de la Dao.
-     */
-    void init();
-
-    /**
-     * Supprime toutes les occurences correspondants au modèle.
-     * 
-     * @param modele
-     *            Modèle de recherche.
-     * @return Nombre d'occurences supprimées.
-     */
-    int remove(T modele);
-
-    /**
-     * Recherche avancée en SGBD.
-     * 
-     * @param query
-     *            Requête SQL.
-     * @return {@link List} des résultats de la requête.
-     */
-    List<T> search(String query);
-
-    /**
-     * Requête avancée en SGBD avec requête objet.
-     * 
-     * @param query
-     *            Requête Objet.
-     * @return Résultat de la requête.
-     */
-    <R> R execute(Query<R> query);
-
-    /**
-     * Recherche toutes les occurences de l'objet correspondants au modèle.
-     * 
-     * @param modele
-     *            Modèle de recherche.
-     * @return Liste des objets correspondants aux critères de recherche.
-     */
-    List<T> search(T modele);
-
-    /**
-     * Met à jour l'objet passé en paramètre.
-     * 
-     * @param objet
-     *            Objet à mettre à jour.
-     * @return Nombre d'objets mis à jours.
-     */
-    int update(T objet);
-
-    /**
-     * Met à jour un ensemble d'objets. Sous certaines implémentations, cet
-     * appel peut offrir de meilleures performances que des appels multiples à
-     * {@link IDao#update(Object)}.
-     * 
-     * @param objets
-     *            Tableau d'{@link Object} à mettre à jour.
-     * @return Nb d'occurences mises à jour.
-     */
-    int updateAll(List<T> objets);
-}
+/*
+ * Copyright 2012 simplelib.org
+ * 
+ * This file is part of SimplePersist.
+ * 
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import org.simplelib.simplepersist.dao.Queries.Aggregate;
+import org.simplelib.simplepersist.dao.Queries.CacheStatistics;
+import org.simplelib.simplepersist.dao.Queries.Query;
+
+/**
+ * Interface d'un DAO.
+ * 
+ * @author simplelib.org
+ * @param <T>
+ *            Type de l'objet de la DAO.
+ */
+interface IDao<T extends Entity<?>> extends Serializable {
+
+    /**
+     * Insert an entity in database.
+     * 
+     * @param entity
+     *            Entity to insert.
+     * @return {@code 1} if success.
+     */
+    int add(T entity);
+
+    /**
+     * Insère un ensemble d'objet dans la persistance. Sous certaines
+     * implémentations, cet appel peut offrir de meilleures performances que des
+     * appels multiples à {@link IDao#add(Object)}.
+     * 
+     * @param objets
+     *            Tableau d'{@link Object} à insérer.
+     * @return Nb d'occurences ajoutées.
+     */
+    int addAll(List<T> objets);
+
+    /**
+     * Calcul d'un agrégat sur les occurences correspondant au modèle, sans
+     * les charger.
+     * 
+     * @param function
+     *            Fonction d'agrégat.
+     * @param field
+     *            Attribut agrégé, {@code null} pour {@link Aggregate#COUNT}
+     *            de toutes les occurences.
+     * @param modele
+     *            Modèle de recherche.
+     * @return Valeur de l'agrégat, {@code null} si aucune valeur.
+     */
+    Object aggregate(Aggregate function, String field, T modele);
+
+    /**
+     * Libère les ressources de la DAO.
+     */
+    void close();
+
+    /** Créer la table dans la BDD. 
+     * @return */
+    boolean createTable();
+
+    /** Supprime la table de la BDD si elle existe. 
+     * @return */
+    boolean dropTableIfExists();
+
+    /**
+     * Nombre d'occurences correspondant au modèle.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return Nombre d'occurences.
+     */
+    long count(T modele);
+
+    /**
+     * Existence d'une occurence correspondant au modèle.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return {@code true} si au moins une occurence existe.
+     */
+    boolean exists(T modele);
+
+    /**
+     * Première occurence correspondant au modèle : la plus petite selon
+     * l'ordre naturel des entités, ou celle de plus petit id en base.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return L'occurence, {@code null} si aucune.
+     */
+    T findFirst(T modele);
+
+    /**
+     * Agrégat par valeur d'un attribut des occurences correspondant au
+     * modèle.
+     * 
+     * @param field
+     *            Attribut de regroupement.
+     * @param function
+     *            Fonction d'agrégat.
+     * @param aggregated
+     *            Attribut agrégé, {@code null} pour {@link Aggregate#COUNT}
+     *            de toutes les occurences.
+     * @param modele
+     *            Modèle de recherche.
+     * @return Agrégat par valeur, triés par valeur.
+     */
+    Map<Object, Object> groupBy(String field, Aggregate function,
+	    String aggregated, T modele);
+
+    /**
+     * Initialisation de la Dao.
+     */
+    void init();
+
+    /**
+     * Supprime toutes les occurences correspondants au modèle.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return Nombre d'occurences supprimées.
+     */
+    int remove(T modele);
+
+    /**
+     * Recherche avancée en SGBD.
+     * 
+     * @param query
+     *            Requête SQL.
+     * @return {@link List} des résultats de la requête.
+     */
+    List<T> search(String query);
+
+    /**
+     * Requête avancée en SGBD avec requête objet.
+     * 
+     * @param query
+     *            Requête Objet.
+     * @return Résultat de la requête.
+     */
+    <R> R execute(Query<R> query);
+
+    /**
+     * Requête objet compilée exécutée avec d'autres valeurs des paramètres de
+     * ses clauses.
+     * 
+     * @param query
+     *            Requête Objet.
+     * @param params
+     *            Valeurs des paramètres des clauses where et on.
+     * @return Résultat de la requête.
+     */
+    <R> R execute(Query<R> query, Object[] params);
+
+    /**
+     * Recherche toutes les occurences de l'objet correspondants au modèle.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return Liste des objets correspondants aux critères de recherche.
+     */
+    List<T> search(T modele);
+
+    /**
+     * Recherche paresseuse des occurences correspondant au modèle. Les
+     * objets sont chargés au fil de la lecture du {@link Cursor}, qui doit
+     * être fermé s'il n'est pas lu jusqu'au bout.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return {@link Cursor} sur les objets correspondants.
+     */
+    Cursor<T> stream(T modele);
+
+    /**
+     * Requête objet avec lecture paresseuse des résultats.
+     * 
+     * @param query
+     *            Requête de sélection.
+     * @return {@link Cursor} sur les résultats.
+     */
+    Cursor<T> stream(Query<?> query);
+
+    /**
+     * Met à jour l'objet passé en paramètre.
+     * 
+     * @param objet
+     *            Objet à mettre à jour.
+     * @return Nombre d'objets mis à jours.
+     */
+    int update(T objet);
+
+    /**
+     * Met à jour un ensemble d'objets. Sous certaines implémentations, cet
+     * appel peut offrir de meilleures performances que des appels multiples à
+     * {@link IDao#update(Object)}.
+     * 
+     * @param objets
+     *            Tableau d'{@link Object} à mettre à jour.
+     * @return Nb d'occurences mises à jour.
+     */
+    int updateAll(List<T> objets);
+
+    /**
+     * Statistiques du cache de requêtes.
+     * 
+     * @return Statistiques, {@code null} si l'entité n'est pas annotée
+     *         {@link org.simplelib.simplepersist.annotation.QueryCache}.
+     */
+    CacheStatistics getCacheStatistics();
+}
\ No newline at end of file
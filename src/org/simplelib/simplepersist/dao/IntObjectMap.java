@@ -0,0 +1,647 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent map of {@code int} keys to objects, without boxing: the keys are
+ * stored in an {@code int[]} with linear probing, next to an array of values.
+ * An entry costs about 8 to 16 bytes of arrays, against a boxed
+ * {@link Integer} and a node for {@link java.util.HashMap} and
+ * {@link java.util.concurrent.ConcurrentHashMap}.
+ * <p>
+ * The map is split in segments. Writes lock their segment, reads take no
+ * lock. A slot is published by the volatile write of its value, after its
+ * key; a removed entry leaves a marker so the probe sequences stay intact,
+ * the markers being dropped when the segment table is rebuilt. A rebuilt
+ * table is published whole, so a reader sees either the old or the new one.
+ * Iterations are weakly consistent, like those of the concurrent
+ * collections. {@code null} values are not allowed.
+ * </p>
+ * <p>
+ * A map created small holds its entries in two arrays sorted by key, copied
+ * on each write under the lock of the map, so that many small maps (the
+ * postings of an index, mostly of one entry) cost little more than their
+ * entries. Past {@link #COMPACT_SIZE} entries the map moves to a single
+ * segment, and is split in its full number of segments once it holds
+ * {@link #SPLIT_SIZE} entries: the writers of the single segment are all
+ * blocked on its lock while the split segments are built and published,
+ * then retry on them. A map never goes back to a smaller form.
+ * </p>
+ * <p>
+ * Sequential keys, such as the ids of a store, may be placed in key order:
+ * the segment is chosen by the low bits of the key and the slot by the
+ * others. A segment is then iterated in key order, which is also the order
+ * in which a copying collector lays out its values, so a full scan reads
+ * the memory sequentially. Other keys are mixed first, a subset of ids
+ * taken with a stride giving long probe sequences otherwise.
+ * </p>
+ *
+ * @author simplelib.org
+ *
+ * @param <V>
+ *            Value type.
+ */
+final class IntObjectMap<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Value of a removed entry. */
+    private static final Object REMOVED = new Object();
+    /**
+     * Returned by the writes of a segment replaced by a split, or of the
+     * compact arrays replaced by a segment.
+     */
+    private static final Object RETIRED = new Object();
+    /** Entries held in sorted arrays before a first segment is built. */
+    private static final int COMPACT_SIZE = 8;
+    /** Smallest table of a segment. */
+    private static final int MIN_CAPACITY = 4;
+    /** Entries from which a map is split in several segments. */
+    private static final int SPLIT_SIZE = 1024;
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    /** Entries of a small map, sorted by key, never modified. */
+    private static final class Compact {
+	final int[] KEYS;
+	final Object[] VALUES;
+
+	Compact(final int[] keys, final Object[] values) {
+	    this.KEYS = keys;
+	    this.VALUES = values;
+	}
+    }
+
+    private static final Compact EMPTY = new Compact(new int[0],
+	    new Object[0]);
+
+    /** Open addressing table, immutable in size. */
+    private static final class Table {
+	final int[] KEYS;
+	/** Slot values: {@code null} if free, {@link #REMOVED} if removed. */
+	final AtomicReferenceArray<Object> VALUES;
+	final int MASK;
+	/** Maximal number of used slots, free slots ending the probes. */
+	final int THRESHOLD;
+
+	Table(final int capacity) {
+	    this.KEYS = new int[capacity];
+	    this.VALUES = new AtomicReferenceArray<Object>(capacity);
+	    this.MASK = capacity - 1;
+	    this.THRESHOLD = capacity - (capacity >>> 2);
+	}
+    }
+
+    /** Part of the map, locked by its writers. */
+    private static final class Segment {
+	/** Hash bits selecting the segment, ignored in the segment. */
+	private final int SHIFT;
+	private final boolean SEQUENTIAL;
+	volatile Table table;
+	/** Number of entries. */
+	volatile int size;
+	/** Slots not free: entries and removed entries. */
+	private int used;
+	/** Replaced by split segments, no more written. */
+	private boolean retired;
+
+	Segment(final int shift, final boolean sequential, final int capacity) {
+	    this.SHIFT = shift;
+	    this.SEQUENTIAL = sequential;
+	    this.table = new Table(capacity);
+	}
+
+	Object get(final int key, final int hash) {
+	    final Table t = this.table;
+	    for (int i = hash & t.MASK;; i = (i + 1) & t.MASK) {
+		Object value = t.VALUES.get(i);
+		if (value == null) {
+		    return null;
+		} else if (t.KEYS[i] == key) {
+		    return value == REMOVED ? null : value;
+		}
+	    }
+	}
+
+	synchronized Object put(final int key, final int hash,
+		final Object value) {
+	    if (this.retired) {
+		return RETIRED;
+	    }
+	    Table t = this.table;
+	    int i = hash & t.MASK;
+	    for (Object old; (old = t.VALUES.get(i)) != null; i = (i + 1)
+		    & t.MASK) {
+		if (t.KEYS[i] == key) {
+		    t.VALUES.set(i, value);
+		    if (old == REMOVED) {
+			this.size = this.size + 1;
+			return null;
+		    }
+		    return old;
+		}
+	    }
+	    if (this.used + 1 > t.THRESHOLD) {
+		t = rebuild(t, capacityFor(this.size + 1));
+		i = hash & t.MASK;
+		while (t.VALUES.get(i) != null) {
+		    i = (i + 1) & t.MASK;
+		}
+	    }
+	    t.KEYS[i] = key;
+	    t.VALUES.set(i, value);
+	    ++this.used;
+	    this.size = this.size + 1;
+	    return null;
+	}
+
+	synchronized Object remove(final int key, final int hash) {
+	    if (this.retired) {
+		return RETIRED;
+	    }
+	    final Table t = this.table;
+	    for (int i = hash & t.MASK;; i = (i + 1) & t.MASK) {
+		Object value = t.VALUES.get(i);
+		if (value == null) {
+		    return null;
+		} else if (t.KEYS[i] == key) {
+		    if (value == REMOVED) {
+			return null;
+		    }
+		    t.VALUES.set(i, REMOVED);
+		    this.size = this.size - 1;
+		    return value;
+		}
+	    }
+	}
+
+	/**
+	 * Copy the entries in a new table without the removed ones, then
+	 * publish it. The old table is no more written.
+	 */
+	private Table rebuild(final Table old, final int capacity) {
+	    final Table t = new Table(capacity);
+	    int count = 0;
+	    for (int j = 0; j <= old.MASK; ++j) {
+		Object value = old.VALUES.get(j);
+		if (value != null && value != REMOVED) {
+		    int key = old.KEYS[j];
+		    int i = (hash(key, this.SEQUENTIAL) >>> this.SHIFT)
+			    & t.MASK;
+		    while (t.VALUES.get(i) != null) {
+			i = (i + 1) & t.MASK;
+		    }
+		    t.KEYS[i] = key;
+		    t.VALUES.set(i, value);
+		    ++count;
+		}
+	    }
+	    this.used = count;
+	    this.table = t;
+	    return t;
+	}
+    }
+
+    /** Number of segments once split, a power of two. */
+    private final int CONCURRENCY;
+    /** Keys placed in key order. */
+    private final boolean SEQUENTIAL;
+    /** Entries while the map is small, {@code null} once in segments. */
+    private transient volatile Compact compact;
+    /**
+     * Segments, selected by the low bits of the hash, {@code null} while the
+     * map is small. They are published before {@link #compact} is dropped.
+     */
+    private transient volatile Segment[] segments;
+
+    /**
+     * @param initialCapacity
+     *            Expected number of entries.
+     * @param concurrencyLevel
+     *            Expected number of concurrent writers, 1 for a map mostly
+     *            written by one thread at a time.
+     * @param sequential
+     *            Keys mostly sequential, placed and iterated in key order.
+     */
+    IntObjectMap(final int initialCapacity, final int concurrencyLevel,
+	    final boolean sequential) {
+	int concurrency = 1;
+	while (concurrency < concurrencyLevel && concurrency < MAX_SEGMENTS) {
+	    concurrency <<= 1;
+	}
+	this.CONCURRENCY = concurrency;
+	this.SEQUENTIAL = sequential;
+	if (initialCapacity <= COMPACT_SIZE) {
+	    this.compact = EMPTY;
+	} else {
+	    this.segments = newSegments(initialCapacity);
+	}
+    }
+
+    /**
+     * Current entries: the {@link Compact} arrays while the map is small,
+     * its segments otherwise. The arrays being dropped after the segments
+     * are published, a reader finding neither reads the segments again.
+     */
+    private Object state() {
+	final Segment[] current = this.segments;
+	if (current == null) {
+	    final Compact c = this.compact;
+	    if (c != null) {
+		return c;
+	    }
+	    return this.segments;
+	}
+	return current;
+    }
+
+    /**
+     * Write of an entry in the compact arrays, the lock of the map held.
+     * Once they are full, the entries move to a segment and the write is
+     * left to it.
+     *
+     * @return Previous value, {@code null} if absent, {@link #RETIRED} if
+     *         the map moved to a segment.
+     */
+    private Object putCompact(final int key, final Object value) {
+	final Compact c = this.compact;
+	int i = Arrays.binarySearch(c.KEYS, key);
+	if (i >= 0) {
+	    Object[] values = c.VALUES.clone();
+	    values[i] = value;
+	    this.compact = new Compact(c.KEYS, values);
+	    return c.VALUES[i];
+	}
+	final int length = c.KEYS.length;
+	if (length >= COMPACT_SIZE) {
+	    final Segment[] single = newSegments(length + 1);
+	    for (int j = 0; j < length; ++j) {
+		int k = c.KEYS[j];
+		single[0].put(k, hash(k, this.SEQUENTIAL), c.VALUES[j]);
+	    }
+	    this.segments = single;
+	    this.compact = null;
+	    return RETIRED;
+	}
+	i = -i - 1;
+	final int[] keys = new int[length + 1];
+	final Object[] values = new Object[length + 1];
+	System.arraycopy(c.KEYS, 0, keys, 0, i);
+	System.arraycopy(c.VALUES, 0, values, 0, i);
+	keys[i] = key;
+	values[i] = value;
+	System.arraycopy(c.KEYS, i, keys, i + 1, length - i);
+	System.arraycopy(c.VALUES, i, values, i + 1, length - i);
+	this.compact = new Compact(keys, values);
+	return null;
+    }
+
+    /**
+     * Removal of an entry from the compact arrays, the lock of the map
+     * held.
+     */
+    private Object removeCompact(final int key) {
+	final Compact c = this.compact;
+	final int i = Arrays.binarySearch(c.KEYS, key);
+	if (i < 0) {
+	    return null;
+	}
+	final int length = c.KEYS.length - 1;
+	if (length == 0) {
+	    this.compact = EMPTY;
+	} else {
+	    final int[] keys = new int[length];
+	    final Object[] values = new Object[length];
+	    System.arraycopy(c.KEYS, 0, keys, 0, i);
+	    System.arraycopy(c.VALUES, 0, values, 0, i);
+	    System.arraycopy(c.KEYS, i + 1, keys, i, length - i);
+	    System.arraycopy(c.VALUES, i + 1, values, i, length - i);
+	    this.compact = new Compact(keys, values);
+	}
+	return c.VALUES[i];
+    }
+
+    /**
+     * Segments of a new map: a single one below {@link #SPLIT_SIZE}
+     * entries.
+     */
+    private Segment[] newSegments(final int capacity) {
+	int count = capacity < SPLIT_SIZE ? 1 : this.CONCURRENCY;
+	Segment[] result = new Segment[count];
+	for (int i = 0; i < count; ++i) {
+	    result[i] = new Segment(Integer.numberOfTrailingZeros(count),
+		    this.SEQUENTIAL, capacityFor(capacity / count));
+	}
+	return result;
+    }
+
+    /**
+     * Split of the single segment in {@link #CONCURRENCY} segments, with its
+     * lock held: no other writer can run.
+     */
+    private void split(final Segment single) {
+	synchronized (single) {
+	    if (single.retired) {
+		return;
+	    }
+	    final Table old = single.table;
+	    final Segment[] split = newSegments(single.size * 2);
+	    for (int j = 0; j <= old.MASK; ++j) {
+		Object value = old.VALUES.get(j);
+		if (value != null && value != REMOVED) {
+		    int key = old.KEYS[j];
+		    int hash = hash(key, this.SEQUENTIAL);
+		    Segment segment = split[hash & (split.length - 1)];
+		    segment.put(key, hash >>> segment.SHIFT, value);
+		}
+	    }
+	    single.retired = true;
+	    this.segments = split;
+	}
+    }
+
+    /** Smallest table holding the given number of entries. */
+    private static int capacityFor(final int entries) {
+	int capacity = MIN_CAPACITY;
+	while (capacity - (capacity >>> 2) < entries) {
+	    capacity <<= 1;
+	}
+	return capacity;
+    }
+
+    /** Hash of a key: the key itself, or its bits mixed. */
+    private static int hash(final int key, final boolean sequential) {
+	if (sequential) {
+	    return key;
+	}
+	int h = key * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(final int hash) {
+	final Segment[] current = this.segments;
+	return current[hash & (current.length - 1)];
+    }
+
+    /**
+     * @param key
+     *            Key.
+     * @return Value mapped to the key, {@code null} if absent.
+     */
+    @SuppressWarnings("unchecked")
+    V get(final int key) {
+	Segment[] current = this.segments;
+	if (current == null) {
+	    final Object state = state();
+	    if (state instanceof Compact) {
+		final Compact c = (Compact) state;
+		final int i = Arrays.binarySearch(c.KEYS, key);
+		return i < 0 ? null : (V) c.VALUES[i];
+	    }
+	    current = (Segment[]) state;
+	}
+	final int hash = hash(key, this.SEQUENTIAL);
+	final Segment segment = current[hash & (current.length - 1)];
+	return (V) segment.get(key, hash >>> segment.SHIFT);
+    }
+
+    /**
+     * @param key
+     *            Key.
+     * @param value
+     *            Non {@code null} value.
+     * @return Previous value, {@code null} if absent.
+     */
+    @SuppressWarnings("unchecked")
+    V put(final int key, final V value) {
+	if (value == null) {
+	    throw new NullPointerException();
+	}
+	if (this.segments == null) {
+	    synchronized (this) {
+		if (this.segments == null) {
+		    Object old = putCompact(key, value);
+		    if (old != RETIRED) {
+			return (V) old;
+		    }
+		}
+	    }
+	}
+	final int hash = hash(key, this.SEQUENTIAL);
+	while (true) {
+	    final Segment segment = segmentFor(hash);
+	    Object old = segment.put(key, hash >>> segment.SHIFT, value);
+	    if (old != RETIRED) {
+		if (segment.size >= SPLIT_SIZE
+			&& this.segments.length < this.CONCURRENCY) {
+		    split(segment);
+		}
+		return (V) old;
+	    }
+	}
+    }
+
+    /**
+     * @param key
+     *            Key.
+     * @return Removed value, {@code null} if absent.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(final int key) {
+	if (this.segments == null) {
+	    synchronized (this) {
+		if (this.segments == null) {
+		    return (V) removeCompact(key);
+		}
+	    }
+	}
+	final int hash = hash(key, this.SEQUENTIAL);
+	while (true) {
+	    final Segment segment = segmentFor(hash);
+	    Object old = segment.remove(key, hash >>> segment.SHIFT);
+	    if (old != RETIRED) {
+		return (V) old;
+	    }
+	}
+    }
+
+    /** @return Number of entries, summed over the segments. */
+    int size() {
+	final Object state = state();
+	if (state instanceof Compact) {
+	    return ((Compact) state).KEYS.length;
+	}
+	int size = 0;
+	for (Segment segment : (Segment[]) state) {
+	    size += segment.size;
+	}
+	return size;
+    }
+
+    boolean isEmpty() {
+	return size() == 0;
+    }
+
+    /**
+     * Read-only view of the values, weakly consistent.
+     *
+     * @return {@link Collection} of the values.
+     */
+    Collection<V> values() {
+	return new AbstractCollection<V>() {
+	    @Override
+	    public Iterator<V> iterator() {
+		return new ValueIterator();
+	    }
+
+	    @Override
+	    public int size() {
+		return IntObjectMap.this.size();
+	    }
+	};
+    }
+
+    /**
+     * Iteration over the tables read when each segment is reached, of the
+     * segments read at creation, or over the compact values read at
+     * creation.
+     */
+    private final class ValueIterator implements Iterator<V> {
+	private final Segment[] SEGMENTS;
+	private final Object[] COMPACT;
+	private int segment = -1;
+	private Table table;
+	private int slot;
+	private Object next;
+
+	ValueIterator() {
+	    final Object state = state();
+	    if (state instanceof Compact) {
+		this.SEGMENTS = null;
+		this.COMPACT = ((Compact) state).VALUES;
+	    } else {
+		this.SEGMENTS = (Segment[]) state;
+		this.COMPACT = null;
+	    }
+	    advance();
+	}
+
+	private void advance() {
+	    this.next = null;
+	    if (this.COMPACT != null) {
+		if (this.slot < this.COMPACT.length) {
+		    this.next = this.COMPACT[this.slot++];
+		}
+		return;
+	    }
+	    while (true) {
+		if (this.table != null) {
+		    final AtomicReferenceArray<Object> values;
+		    values = this.table.VALUES;
+		    final int length = values.length();
+		    int i = this.slot;
+		    while (i < length) {
+			Object value = values.get(i++);
+			if (value != null && value != REMOVED) {
+			    this.slot = i;
+			    this.next = value;
+			    return;
+			}
+		    }
+		    this.slot = i;
+		}
+		if (++this.segment >= this.SEGMENTS.length) {
+		    return;
+		}
+		this.table = this.SEGMENTS[this.segment].table;
+		this.slot = 0;
+	    }
+	}
+
+	@Override
+	public boolean hasNext() {
+	    return this.next != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V next() {
+	    if (this.next == null) {
+		throw new NoSuchElementException();
+	    }
+	    Object result = this.next;
+	    advance();
+	    return (V) result;
+	}
+
+	@Override
+	public void remove() {
+	    throw new UnsupportedOperationException();
+	}
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+	out.defaultWriteObject();
+	final Object state = state();
+	if (state instanceof Compact) {
+	    final Compact c = (Compact) state;
+	    for (int i = 0; i < c.KEYS.length; ++i) {
+		out.writeBoolean(true);
+		out.writeInt(c.KEYS[i]);
+		out.writeObject(c.VALUES[i]);
+	    }
+	    out.writeBoolean(false);
+	    return;
+	}
+	for (Segment segment : (Segment[]) state) {
+	    Table t = segment.table;
+	    for (int i = 0; i <= t.MASK; ++i) {
+		Object value = t.VALUES.get(i);
+		if (value != null && value != REMOVED) {
+		    out.writeBoolean(true);
+		    out.writeInt(t.KEYS[i]);
+		    out.writeObject(value);
+		}
+	    }
+	}
+	out.writeBoolean(false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException,
+	    ClassNotFoundException {
+	in.defaultReadObject();
+	this.compact = EMPTY;
+	while (in.readBoolean()) {
+	    int key = in.readInt();
+	    put(key, (V) in.readObject());
+	}
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.Closeable;
+
+/**
+ * Cache invalidations exchanged between the JVMs sharing a database.
+ * <p>
+ * The writes made through the DAOs are published with the written table and
+ * ids; the invalidations received from the peers are handed to the
+ * {@link Listener} registered by {@link Queries#setInvalidationBus}, which
+ * drops the matching cached results. Publications of a transaction are sent
+ * on commit.
+ * </p>
+ * <p>
+ * A transport which may lose publications (unreachable peer...) must have
+ * the receivers invalidate all their tables, the lost writes being unknown.
+ * </p>
+ * <p>
+ * Implementations must be thread-safe, and must not deliver a publication
+ * back to its publisher.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public interface InvalidationBus extends Closeable {
+    /** Receiver of the invalidations published by the peers. */
+    interface Listener {
+	/**
+	 * Apply an invalidation received from a peer.
+	 *
+	 * @param table
+	 *            Table name, {@code null} for all the tables.
+	 * @param ids
+	 *            Written ids, {@code null} for the whole table.
+	 */
+	void invalidated(String table, int[] ids);
+    }
+
+    /**
+     * Publish an invalidation to the peers.
+     *
+     * @param table
+     *            Table name.
+     * @param ids
+     *            Written ids, {@code null} for the whole table.
+     */
+    void publish(String table, int[] ids);
+
+    /**
+     * Register the receiver of the peers invalidations.
+     *
+     * @param listener
+     *            Receiver, {@code null} to stop receiving.
+     */
+    void setListener(Listener listener);
+
+    /** Stop publishing and receiving. */
+    @Override
+    void close();
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Diffusion des invalidations de cache entre les DAO SQL et les autres
+ * noeuds, par le {@link InvalidationBus} configuré.
+ * <p>
+ * Les écritures faites dans une transaction ne sont publiées qu'à sa
+ * validation, ou à la libération de la connexion liée au thread pour une
+ * transaction JDBC. A sa fin, elles sont aussi réappliquées localement : un
+ * autre thread a pu mettre en cache les valeurs validées avant elle.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+final class Invalidations {
+    private static volatile InvalidationBus bus;
+    /** DAO SQL par nom de table. */
+    private static final ConcurrentMap<String, SqlDao<?>> TABLES = new ConcurrentHashMap<String, SqlDao<?>>();
+    /**
+     * Ids écrits par table dans la transaction du thread courant, un
+     * ensemble {@code null} invalidant toute la table.
+     */
+    private static final ThreadLocal<Map<String, Set<Integer>>> PENDING = new ThreadLocal<Map<String, Set<Integer>>>();
+
+    /** Application des invalidations reçues des autres noeuds. */
+    private static final InvalidationBus.Listener RECEIVER = new InvalidationBus.Listener() {
+	@Override
+	public void invalidated(final String table, final int[] ids) {
+	    apply(table, ids);
+	}
+    };
+
+    private Invalidations() {
+    }
+
+    static void register(final String table, final SqlDao<?> dao) {
+	TABLES.put(table, dao);
+    }
+
+    static void setBus(final InvalidationBus newBus) {
+	InvalidationBus old = bus;
+	if (old != null) {
+	    old.setListener(null);
+	}
+	bus = newBus;
+	if (newBus != null) {
+	    newBus.setListener(RECEIVER);
+	}
+    }
+
+    /**
+     * Ecriture locale, déjà invalidée dans les caches locaux.
+     * 
+     * @param table
+     *            Nom de la table.
+     * @param ids
+     *            Ids écrits, {@code null} pour toute la table.
+     */
+    static void written(final String table, final int[] ids) {
+	if (AccesBdd.isInTransaction()) {
+	    Map<String, Set<Integer>> pending = PENDING.get();
+	    if (pending == null) {
+		pending = new LinkedHashMap<String, Set<Integer>>();
+		PENDING.set(pending);
+	    }
+	    if (ids == null) {
+		pending.put(table, null);
+	    } else if (!pending.containsKey(table)) {
+		pending.put(table, toSet(ids));
+	    } else if (pending.get(table) != null) {
+		pending.get(table).addAll(toSet(ids));
+	    }
+	    return;
+	}
+	InvalidationBus current = bus;
+	if (current != null) {
+	    current.publish(table, ids);
+	}
+    }
+
+    /**
+     * Fin de la transaction du thread courant.
+     * 
+     * @param committed
+     *            Transaction validée : ses écritures sont publiées.
+     */
+    static void endTransaction(final boolean committed) {
+	Map<String, Set<Integer>> pending = PENDING.get();
+	if (pending == null) {
+	    return;
+	}
+	PENDING.remove();
+	InvalidationBus current = committed ? bus : null;
+	for (Map.Entry<String, Set<Integer>> entry : pending.entrySet()) {
+	    int[] ids = toArray(entry.getValue());
+	    apply(entry.getKey(), ids);
+	    if (current != null) {
+		current.publish(entry.getKey(), ids);
+	    }
+	}
+    }
+
+    /**
+     * @param table
+     *            Nom de la table, {@code null} pour toutes les tables.
+     */
+    private static void apply(final String table, final int[] ids) {
+	if (table == null) {
+	    for (SqlDao<?> dao : TABLES.values()) {
+		dao.invalidateRemote(null);
+	    }
+	    return;
+	}
+	SqlDao<?> dao = TABLES.get(table);
+	if (dao != null) {
+	    dao.invalidateRemote(ids);
+	}
+    }
+
+    private static Set<Integer> toSet(final int[] ids) {
+	Set<Integer> set = new HashSet<Integer>(ids.length * 4 / 3 + 1);
+	for (int id : ids) {
+	    set.add(id);
+	}
+	return set;
+    }
+
+    private static int[] toArray(final Set<Integer> ids) {
+	if (ids == null) {
+	    return null;
+	}
+	int[] array = new int[ids.size()];
+	int i = 0;
+	for (Integer id : ids) {
+	    array[i++] = id;
+	}
+	return array;
+    }
+}
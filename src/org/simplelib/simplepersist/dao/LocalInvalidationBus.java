@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process {@link InvalidationBus}: the buses created with the same channel
+ * name deliver their publications to each other, synchronously. Mainly meant
+ * for tests and for several persistence contexts loaded in one JVM.
+ *
+ * @author simplelib.org
+ */
+public final class LocalInvalidationBus implements InvalidationBus {
+    /** Opened buses by channel. */
+    private static final Map<String, List<LocalInvalidationBus>> CHANNELS = new ConcurrentHashMap<String, List<LocalInvalidationBus>>();
+
+    private final List<LocalInvalidationBus> PEERS;
+    private volatile Listener listener;
+
+    /**
+     * Join a channel.
+     *
+     * @param channel
+     *            Channel name.
+     */
+    public LocalInvalidationBus(final String channel) {
+	List<LocalInvalidationBus> peers;
+	synchronized (CHANNELS) {
+	    peers = CHANNELS.get(channel);
+	    if (peers == null) {
+		peers = new CopyOnWriteArrayList<LocalInvalidationBus>();
+		CHANNELS.put(channel, peers);
+	    }
+	}
+	this.PEERS = peers;
+	this.PEERS.add(this);
+    }
+
+    @Override
+    public void publish(final String table, final int[] ids) {
+	for (LocalInvalidationBus peer : this.PEERS) {
+	    Listener target = peer.listener;
+	    if (peer != this && target != null) {
+		target.invalidated(table, ids == null ? null : ids.clone());
+	    }
+	}
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+	this.listener = listener;
+    }
+
+    @Override
+    public void close() {
+	this.PEERS.remove(this);
+	this.listener = null;
+    }
+}
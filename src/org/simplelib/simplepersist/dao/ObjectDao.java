@@ -1,287 +1,778 @@
-/*
- * Copyright 2012 simplelib.org
- * 
- * This file is part of SimplePersist.
- * 
- * SimplePersist is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * SimplePersist is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.simplelib.simplepersist.dao;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
-
-/**
- * Implémentation d'une DAO volatile en java. Celle-ci est utilisée en l'absence
- * de persistance basée sur un SGBD. Elle procure nottament de meilleures
- * performances. En utilisant une interface commune, elle permet une
- * implémentation semblable des entités avec ou sans persistance.
- * 
- * Dans cette DAO, aucun accès à une base de données n'est requis.
- * 
- * @author simplelib.org
- * 
- * @param <T>
- */
-class ObjectDao<T extends Entity<?>> extends AbstractDao<T> {
-    /** Generated serial version UID. */
-    private static final long serialVersionUID = 1040296095680082863L;
-    /** Index du dernier objet inséré. */
-    protected int index = 1;
-    /** Liste conteneur des objets de la DAO. */
-    protected final Map<Integer, T> conteneur;
-    /** Taille initiale du conteneur. */
-    private final int INIT_CAPACITY;
-    /** Nombre d'indexs attendus du conteneur. */
-    private final int NB_INDEX;
-    /** Map des autres indexs */
-    private final Map<Object, Map<Integer, T>> indexMap;
-    /** Active/Désactive l'utilisationn des indexs. */
-    private static final boolean USE_INDEX = true;
-    /** Tri automatique des requêtes. */
-    private static final boolean SORT_ON_SEARCH = true;
-
-    /**
-     * Construction d'une Dao purement Java.
-     * @param queryCache 
-     * @param initCap 
-     * @param nbIndex 
-     */
-    @SuppressWarnings("unchecked")
-    public ObjectDao(boolean queryCache, int initCap, int nbIndex) {
-	super(queryCache);
-	ObjectInputStream is;
-	File fDao = new File(this.getClass().getName());
-	INIT_CAPACITY = initCap;
-	NB_INDEX = nbIndex;
-	if (saveOnExit() && fDao.exists()) {
-	    try {
-		is = new ObjectInputStream(new FileInputStream(fDao));
-		ObjectDao<T> dao = (ObjectDao<T>) is.readObject();
-		this.conteneur = dao.conteneur;
-		this.indexMap = dao.indexMap;
-		this.index = dao.index;
-		is.close();
-	    } catch (final Exception e) {
-		e.printStackTrace();
-		throw new RuntimeException(
-			"Erreur lors de la lecture de la DAO.");
-	    }
-	} else {
-	    this.conteneur = new HashMap<Integer, T>(INIT_CAPACITY);
-	    this.indexMap = new IdentityHashMap<Object, Map<Integer, T>>(
-		    NB_INDEX);
-	}
-
-    }
-
-    @Override
-    public int add(final T objet) {
-	unCache();
-	objet.setId(this.index);
-	this.conteneur.put(this.index, objet);
-
-	// On complète les indexs
-	if (USE_INDEX) {
-	    List<Object> listIndexs = objet.getIndexs();
-	    Map<Integer, T> mapValues;
-	    for (Object index : listIndexs) {
-		mapValues = this.indexMap.get(index);
-		if (mapValues == null) {
-		    mapValues = new HashMap<Integer, T>(INIT_CAPACITY
-			    / NB_INDEX);
-		    this.indexMap.put(index, mapValues);
-		}
-		mapValues.put(this.index, objet);
-	    }
-	}
-
-	++this.index;
-	return 1;
-    }
-
-    @Override
-    public void close() {
-	if (!saveOnExit()) {
-	    return;
-	}
-	ObjectOutputStream os;
-	try {
-	    os = new ObjectOutputStream(new FileOutputStream(this.getClass()
-		    .getName()));
-	    os.writeObject(this);
-	    os.close();
-	} catch (final Exception e) {
-	    throw new RuntimeException(
-		    "Object writing error.", e);
-	}
-    }
-
-    /**
-     * Permet la suppression d'un objet en fonction de son index et non du test
-     * d'égalité .equals().
-     * 
-     * @param liste
-     *            Liste contenant l'objet.
-     * @param o
-     *            Objet à supprimer.
-     * @return vrai si suppression.
-     */
-    @SuppressWarnings("unused")
-    private boolean idRemove(final List<T> liste, final T o) {
-	int size = liste.size();
-	for (int index = 0; index < size; index++) {
-	    if (o.getId().intValue() == liste.get(index).getId().intValue()) {
-		liste.remove(index);
-		return true;
-	    }
-	}
-	return false;
-    }
-
-    @Override
-    public int remove(final T modele) {
-	unCache();
-	this.conteneur.remove(modele.getId());
-
-	// On supprime des indexs
-	if (USE_INDEX) {
-	    List<Object> listIndexs = modele.getIndexs();
-	    Map<Integer, T> mapValues;
-	    for (Object index : listIndexs) {
-		mapValues = this.indexMap.get(index);
-		if (mapValues == null) {
-		    throw new IllegalStateException(
-			    "L'index ne peut être null.");
-		}
-		mapValues.remove(modele.getId());
-	    }
-	}
-	return 1;
-    }
-
-    /**
-     * Sauvegarde de la Dao dans un fichier à la fermeture ?
-     * 
-     * @return <code>true</code> si la sauvegarde doit être effectuée.
-     */
-    protected boolean saveOnExit() {
-	return false;
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public List<T> search(final T modele) {
-	if (isInCache(modele)) {
-	    return getCache(modele);
-	}
-
-	List<T> result = new ArrayList<T>((this.conteneur.size() + 1) / 2);
-	List<Object> valuesModele = modele.getValues();
-	List<Object> valuesObjet;
-	Collection<T> ensemble;
-
-	// En cas de recherche sur l'id, on effectue une recherche rapide.
-	if (modele.isInserted()) {
-	    T objetTrouve = this.conteneur.get(modele.getId());
-	    ensemble = new ArrayList<T>(1);
-	    ensemble.add(objetTrouve);
-	} else {
-	    // Sinon, on restreint l'espace de recherche grace à l'indexs le
-	    // plus restrictif.
-	    ensemble = this.conteneur.values();
-	    if (USE_INDEX) {
-		Collection<T> ensembleIdx = Collections.emptyList();
-		for (Object index : modele.getIndexs()) {
-		    if (index != null) {
-			Map<Integer, T> indexMap = this.indexMap.get(index);
-			if (indexMap == null) {
-			    ensembleIdx = Collections.emptyList();
-			} else {
-			    ensembleIdx = this.indexMap.get(index).values();
-			}
-			if (ensembleIdx.size() < ensemble.size()) {
-			    ensemble = ensembleIdx;
-			}
-		    }
-		}
-	    }
-	}
-
-	ListIterator<Object> itM;
-	ListIterator<Object> itO;
-	Object paramModele;
-	Object paramObjet;
-	boolean matche;
-
-	// Pour chaque objet de l'ensemble de recherche.
-	for (T obj : ensemble) {
-	    matche = true;
-	    valuesObjet = obj.getValues();
-
-	    itM = valuesModele.listIterator();
-	    itO = valuesObjet.listIterator();
-
-	    // Chaque valeur du modele correspond aux valeurs de l'objet ?
-	    while (itM.hasNext() && itO.hasNext()) {
-		paramModele = itM.next();
-		paramObjet = itO.next();
-
-		if ((paramModele != null) && !paramModele.equals(paramObjet)) {
-		    matche = false;
-		    break;
-		}
-	    }
-	    if (matche) {
-		result.add(obj);
-	    }
-	}
-	if (SORT_ON_SEARCH) {
-	    // Si la classe le permet, on trie la liste.
-	    if (modele instanceof Comparable<?>) {
-		Object[] a = result.toArray();
-		Arrays.sort(a);
-		ListIterator<T> i = result.listIterator();
-		for (Object element : a) {
-		    i.next();
-		    i.set((T) element);
-		}
-	    }
-	}
-
-	toCache(modele, result);
-
-	return result;
-    }
-
-    @Override
-    public int update(final T objet) {
-	unCache();
-
-	this.conteneur.put(objet.getId(), objet);
-	return 1;
-    }
-}
+/*
+ * Copyright 2012 simplelib.org
+ * 
+ * This file is part of SimplePersist.
+ * 
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.simplelib.simplepersist.annotation.QueryCache;
+import org.simplelib.simplepersist.dao.DaoStats.Operation;
+import org.simplelib.simplepersist.dao.Queries.Aggregate;
+import org.simplelib.simplepersist.dao.Queries.FromClause;
+import org.simplelib.simplepersist.dao.Queries.ProjectClause;
+import org.simplelib.simplepersist.dao.Queries.Query;
+import org.simplelib.simplepersist.dao.Queries.SelectClause;
+
+/**
+ * Implémentation d'une DAO volatile en java. Celle-ci est utilisée en l'absence
+ * de persistance basée sur un SGBD. Elle procure nottament de meilleures
+ * performances. En utilisant une interface commune, elle permet une
+ * implémentation semblable des entités avec ou sans persistance.
+ * 
+ * Dans cette DAO, aucun accès à une base de données n'est requis.
+ * 
+ * La DAO peut être partagée entre threads : les ids sont alloués de façon
+ * atomique et les conteneurs sont concurrents. Les lectures ne prennent aucun
+ * verrou et voient les écritures concurrentes au fil du parcours.
+ * 
+ * @author simplelib.org
+ * 
+ * @param <T>
+ */
+class ObjectDao<T extends Entity<?>> extends AbstractDao<T> {
+    /** Generated serial version UID. */
+    private static final long serialVersionUID = 1040296095680082863L;
+    /** Index du prochain objet inséré. */
+    protected final AtomicInteger index;
+    /** Liste conteneur des objets de la DAO, par id. */
+    protected final IntObjectMap<T> conteneur;
+    /** Taille initiale du conteneur. */
+    private final int INIT_CAPACITY;
+    /** Nombre d'indexs attendus du conteneur. */
+    private final int NB_INDEX;
+    /** Map des autres indexs, par valeur indexée. */
+    private final ConcurrentMap<Object, IntObjectMap<T>> indexMap;
+    /** Active/Désactive l'utilisationn des indexs. */
+    private static final boolean USE_INDEX = true;
+    /** Tri automatique des requêtes. */
+    private static final boolean SORT_ON_SEARCH = true;
+    /**
+     * Ecrivains simultanés attendus du conteneur et des index. Un index
+     * commence par deux petits tableaux triés, passe à un seul verrou et
+     * une table au-delà de quelques occurences, et n'est découpé qu'une
+     * fois grand (valeur fréquente) ; les lectures ne prennent aucun
+     * verrou.
+     */
+    private static final int CONCURRENCY = 16;
+
+    /**
+     * Construction d'une Dao purement Java.
+     * @param queryCache
+     *            Configuration du cache de requêtes, {@code null} pour le
+     *            désactiver.
+     * @param initCap 
+     * @param nbIndex 
+     */
+    @SuppressWarnings("unchecked")
+    public ObjectDao(QueryCache queryCache, int initCap, int nbIndex) {
+	super(queryCache);
+	ObjectInputStream is;
+	File fDao = new File(this.getClass().getName());
+	INIT_CAPACITY = initCap;
+	NB_INDEX = nbIndex;
+	if (saveOnExit() && fDao.exists()) {
+	    try {
+		is = new ObjectInputStream(new FileInputStream(fDao));
+		ObjectDao<T> dao = (ObjectDao<T>) is.readObject();
+		this.conteneur = dao.conteneur;
+		this.indexMap = dao.indexMap;
+		this.index = dao.index;
+		is.close();
+	    } catch (final Exception e) {
+		e.printStackTrace();
+		throw new RuntimeException(
+			"Erreur lors de la lecture de la DAO.");
+	    }
+	} else {
+	    this.index = new AtomicInteger(1);
+	    this.conteneur = new IntObjectMap<T>(INIT_CAPACITY, CONCURRENCY,
+		    true);
+	    this.indexMap = new ConcurrentHashMap<Object, IntObjectMap<T>>(
+		    NB_INDEX);
+	}
+
+    }
+
+    @Override
+    public int add(final T objet) {
+	final long start = System.nanoTime();
+	final int id = this.index.getAndIncrement();
+	objet.setId(id);
+	this.conteneur.put(id, objet);
+
+	// On complète les indexs
+	if (USE_INDEX) {
+	    List<Object> listIndexs = objet.getIndexs();
+	    IntObjectMap<T> mapValues;
+	    for (Object index : listIndexs) {
+		// Les valeurs nulles ne sont jamais recherchées par index.
+		if (index == null) {
+		    continue;
+		}
+		mapValues = this.indexMap.get(index);
+		if (mapValues == null) {
+		    // Taille minimale : la plupart des valeurs sont rares.
+		    mapValues = new IntObjectMap<T>(0, CONCURRENCY, false);
+		    IntObjectMap<T> existing = this.indexMap
+			    .putIfAbsent(index, mapValues);
+		    if (existing != null) {
+			mapValues = existing;
+		    }
+		}
+		mapValues.put(id, objet);
+	    }
+	}
+
+	invalidate(objet);
+	this.STATS.record(Operation.ADD, start);
+	return 1;
+    }
+
+    @Override
+    public void close() {
+	if (!saveOnExit()) {
+	    return;
+	}
+	ObjectOutputStream os;
+	try {
+	    os = new ObjectOutputStream(new FileOutputStream(this.getClass()
+		    .getName()));
+	    os.writeObject(this);
+	    os.close();
+	} catch (final Exception e) {
+	    throw new RuntimeException(
+		    "Object writing error.", e);
+	}
+    }
+
+    /**
+     * Permet la suppression d'un objet en fonction de son index et non du test
+     * d'égalité .equals().
+     * 
+     * @param liste
+     *            Liste contenant l'objet.
+     * @param o
+     *            Objet à supprimer.
+     * @return vrai si suppression.
+     */
+    @SuppressWarnings("unused")
+    private boolean idRemove(final List<T> liste, final T o) {
+	int size = liste.size();
+	for (int index = 0; index < size; index++) {
+	    if (o.getId().intValue() == liste.get(index).getId().intValue()) {
+		liste.remove(index);
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    @Override
+    public int remove(final T modele) {
+	final long start = System.nanoTime();
+	this.conteneur.remove(modele.getId().intValue());
+
+	// On supprime des indexs
+	if (USE_INDEX) {
+	    List<Object> listIndexs = modele.getIndexs();
+	    IntObjectMap<T> mapValues;
+	    for (Object index : listIndexs) {
+		if (index == null) {
+		    continue;
+		}
+		mapValues = this.indexMap.get(index);
+		if (mapValues == null) {
+		    throw new IllegalStateException(
+			    "L'index ne peut être null.");
+		}
+		mapValues.remove(modele.getId().intValue());
+	    }
+	}
+	invalidate(modele);
+	this.STATS.record(Operation.REMOVE, start);
+	return 1;
+    }
+
+    /**
+     * Sauvegarde de la Dao dans un fichier à la fermeture ?
+     * 
+     * @return <code>true</code> si la sauvegarde doit être effectuée.
+     */
+    protected boolean saveOnExit() {
+	return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<T> search(final T modele) {
+	final long start = System.nanoTime();
+	final long version = getVersion();
+	List<Object> valuesModele = modele.getValues();
+	List<T> result = getCached(valuesModele);
+	if (result != null) {
+	    this.STATS.record(Operation.SEARCH, start);
+	    return result;
+	}
+
+	// Taille par défaut : l'ensemble de recherche n'est pas borné par le
+	// nombre de résultats.
+	result = new ArrayList<T>();
+
+	// Pour chaque objet de l'ensemble de recherche.
+	for (T obj : getEnsemble(modele)) {
+	    // Chaque valeur du modele correspond aux valeurs de l'objet ?
+	    if (obj.matches(valuesModele)) {
+		result.add(obj);
+	    }
+	}
+	if (SORT_ON_SEARCH) {
+	    // Si la classe le permet, on trie la liste.
+	    if (modele instanceof Comparable<?>) {
+		Object[] a = result.toArray();
+		Arrays.sort(a);
+		ListIterator<T> i = result.listIterator();
+		for (Object element : a) {
+		    i.next();
+		    i.set((T) element);
+		}
+	    }
+	}
+
+	toCache(valuesModele, result, version);
+
+	this.STATS.record(Operation.SEARCH, start);
+	return result;
+    }
+
+    /**
+     * Recherche paresseuse : les objets sont filtrés au fil de la lecture,
+     * sans tri. Les écritures concurrentes au parcours peuvent ne pas être
+     * vues.
+     */
+    @Override
+    public Cursor<T> stream(final T modele) {
+	final List<Object> valuesModele = modele.getValues();
+	final Iterator<T> ensemble = getEnsemble(modele).iterator();
+	return new Cursor<T>() {
+	    /** Prochain objet trouvé, {@code null} si non encore cherché. */
+	    private T next;
+	    private boolean closed;
+
+	    @Override
+	    public boolean hasNext() {
+		while (this.next == null && !this.closed && ensemble.hasNext()) {
+		    T obj = ensemble.next();
+		    if (obj != null && obj.matches(valuesModele)) {
+			this.next = obj;
+		    }
+		}
+		return this.next != null;
+	    }
+
+	    @Override
+	    public T next() {
+		if (!hasNext()) {
+		    throw new NoSuchElementException();
+		}
+		T result = this.next;
+		this.next = null;
+		return result;
+	    }
+
+	    @Override
+	    public void remove() {
+		throw new UnsupportedOperationException();
+	    }
+
+	    @Override
+	    public Iterator<T> iterator() {
+		return this;
+	    }
+
+	    @Override
+	    public void close() {
+		this.closed = true;
+		this.next = null;
+	    }
+	};
+    }
+
+    /**
+     * Ensemble de recherche d'un modèle.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return Objets susceptibles de correspondre au modèle.
+     */
+    private Collection<T> getEnsemble(final T modele) {
+	Collection<T> ensemble;
+
+	// En cas de recherche sur l'id, on effectue une recherche rapide.
+	if (modele.isInserted()) {
+	    T objetTrouve = this.conteneur.get(modele.getId().intValue());
+	    // L'objet a pu être supprimé entre temps.
+	    ensemble = objetTrouve == null ? Collections.<T> emptyList()
+		    : Collections.singletonList(objetTrouve);
+	} else {
+	    // Sinon, on restreint l'espace de recherche grace à l'indexs le
+	    // plus restrictif.
+	    ensemble = this.conteneur.values();
+	    if (USE_INDEX) {
+		Collection<T> ensembleIdx = Collections.emptyList();
+		for (Object index : modele.getIndexs()) {
+		    if (index != null) {
+			IntObjectMap<T> indexMap = this.indexMap.get(index);
+			if (indexMap == null) {
+			    ensembleIdx = Collections.emptyList();
+			} else {
+			    ensembleIdx = indexMap.values();
+			}
+			if (ensembleIdx.size() < ensemble.size()) {
+			    ensemble = ensembleIdx;
+			}
+		    }
+		}
+	    }
+	}
+	return ensemble;
+    }
+
+    /**
+     * Exécution des sélections sans clause SQL : {@code from} sur l'entité
+     * sélectionnée, tri et pagination. Avec une limite, seules les
+     * {@code offset + limit} premières occurences sont conservées lors du
+     * parcours.
+     */
+    @Override
+    public <R> R execute(final Query<R> query) {
+	final long start = System.nanoTime();
+	if (query instanceof SelectClause) {
+	    @SuppressWarnings("unchecked")
+	    R result = (R) select(query,
+		    ((SelectClause<?>) query).getResultClass());
+	    this.STATS.record(Operation.EXECUTE, start);
+	    return result;
+	} else if (query instanceof ProjectClause) {
+	    @SuppressWarnings("unchecked")
+	    R result = (R) project((ProjectClause<?>) query);
+	    this.STATS.record(Operation.EXECUTE, start);
+	    return result;
+	}
+	return super.execute(query);
+    }
+
+    /**
+     * Projection des occurences sélectionnées sur les attributs demandés.
+     */
+    private <P> List<P> project(final ProjectClause<P> query) {
+	final Class<? extends Entity<?>> classe = query.getEntityClass();
+	final String[] fields = query.getFields();
+	final FieldAccessor[] accessors = new FieldAccessor[fields.length];
+	for (int i = 0; i < fields.length; ++i) {
+	    accessors[i] = EntityComparator.findAccessor(
+		    Entity.getAccessors(classe), fields[i]);
+	}
+	final Queries.Paging paging = collectPaging(query, classe);
+	if (!query.isDistinct()) {
+	    final List<T> selection = select(paging, classe);
+	    final List<P> result = new ArrayList<P>(selection.size());
+	    for (T obj : selection) {
+		result.add(query.getMapper().map(readRow(obj, accessors)));
+	    }
+	    return result;
+	}
+
+	// DISTINCT avant LIMIT/OFFSET, comme en SQL : dédoublonnage de toute
+	// la sélection triée, puis pagination des lignes distinctes
+	paging.orderDistinct(fields);
+	final int offset = paging.offset;
+	final int limit = paging.limit;
+	paging.offset = 0;
+	paging.limit = -1;
+	final Set<List<Object>> distinct = new HashSet<List<Object>>();
+	final List<P> result = new ArrayList<P>();
+	int skipped = 0;
+	for (T obj : select(paging, classe)) {
+	    if (limit >= 0 && result.size() >= limit) {
+		break;
+	    }
+	    Object[] row = readRow(obj, accessors);
+	    if (distinct.add(Arrays.asList(row.clone()))) {
+		if (skipped < offset) {
+		    ++skipped;
+		} else {
+		    result.add(query.getMapper().map(row));
+		}
+	    }
+	}
+	return result;
+    }
+
+    private static Object[] readRow(final Object obj,
+	    final FieldAccessor[] accessors) {
+	Object[] row = new Object[accessors.length];
+	for (int i = 0; i < accessors.length; ++i) {
+	    row[i] = accessors[i].get(obj);
+	}
+	return row;
+    }
+
+    /**
+     * Sélection triée et paginée des occurences.
+     */
+    private List<T> select(final Query<?> query, final Class<?> classe) {
+	return select(collectPaging(query, classe), classe);
+    }
+
+    /**
+     * Collecte des clauses de tri et de pagination d'une requête.
+     */
+    private static Queries.Paging collectPaging(final Query<?> query,
+	    final Class<?> classe) {
+	final Queries.Paging paging = new Queries.Paging();
+	for (Query<?> q = query.getChild(); q != null; q = q.getChild()) {
+	    if (q instanceof FromClause
+		    && ((FromClause<?>) q).getSourceClass() == classe) {
+		continue;
+	    }
+	    if (!paging.collect(q)) {
+		throw new UnsupportedOperationException(
+			"Clause SQL non supportée par cette DAO : "
+				+ q.getClass().getSimpleName());
+	    }
+	}
+	return paging;
+    }
+
+    /**
+     * Sélection triée et paginée selon des clauses déjà collectées.
+     */
+    private List<T> select(final Queries.Paging paging,
+	    final Class<?> classe) {
+	@SuppressWarnings("unchecked")
+	final Comparator<T> order = new EntityComparator<T>(
+		Entity.getAccessors((Class<? extends Entity<?>>) classe),
+		paging);
+	@SuppressWarnings("unchecked")
+	final T after = (T) paging.after;
+
+	final List<T> result;
+	if (paging.limit >= 0) {
+	    // Sélection des premiers éléments dans un tas borné
+	    final int kept = (int) Math.min(Integer.MAX_VALUE,
+		    (long) paging.offset + paging.limit);
+	    if (kept == 0) {
+		return new ArrayList<T>(0);
+	    }
+	    PriorityQueue<T> heap = new PriorityQueue<T>(kept,
+		    Collections.reverseOrder(order));
+	    for (T obj : this.conteneur.values()) {
+		if (after != null && order.compare(obj, after) <= 0) {
+		    continue;
+		}
+		if (heap.size() < kept) {
+		    heap.add(obj);
+		} else if (order.compare(obj, heap.peek()) < 0) {
+		    heap.poll();
+		    heap.add(obj);
+		}
+	    }
+	    result = new ArrayList<T>(heap);
+	} else {
+	    result = new ArrayList<T>(this.conteneur.size());
+	    for (T obj : this.conteneur.values()) {
+		if (after == null || order.compare(obj, after) > 0) {
+		    result.add(obj);
+		}
+	    }
+	}
+	Collections.sort(result, order);
+	final int from = Math.min(paging.offset, result.size());
+	return new ArrayList<T>(result.subList(from, result.size()));
+    }
+
+    /**
+     * Ordre d'une sélection : attributs de tri puis id, les valeurs nulles
+     * en premier.
+     */
+    private static final class EntityComparator<E> implements Comparator<E> {
+	private final FieldAccessor[] FIELDS;
+	private final boolean[] DESCENDING;
+
+	EntityComparator(final FieldAccessor[] accessors,
+		final Queries.Paging paging) {
+	    int count = paging.ORDER.size();
+	    this.FIELDS = new FieldAccessor[count + 1];
+	    this.DESCENDING = new boolean[count + 1];
+	    for (int i = 0; i < count; ++i) {
+		this.FIELDS[i] = findAccessor(accessors, paging.ORDER.get(i));
+		this.DESCENDING[i] = paging.DESCENDING.get(i);
+	    }
+	    this.FIELDS[count] = accessors[0]; // ID
+	}
+
+	private static FieldAccessor findAccessor(
+		final FieldAccessor[] accessors, final String field) {
+	    for (FieldAccessor accessor : accessors) {
+		if (accessor.FIELD.getName().equals(field)) {
+		    return accessor;
+		}
+	    }
+	    throw new IllegalArgumentException("Attribut de tri inconnu : "
+		    + field);
+	}
+
+	@Override
+	public int compare(final E o1, final E o2) {
+	    for (int i = 0; i < this.FIELDS.length; ++i) {
+		int cmp = compareValues(this.FIELDS[i].get(o1),
+			this.FIELDS[i].get(o2));
+		if (cmp != 0) {
+		    return this.DESCENDING[i] ? -cmp : cmp;
+		}
+	    }
+	    return 0;
+	}
+
+	/** Comparaison de valeurs {@link Comparable}, nulles en premier. */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compareValues(final Object v1, final Object v2) {
+	    if (v1 == null) {
+		return v2 == null ? 0 : -1;
+	    } else if (v2 == null) {
+		return 1;
+	    }
+	    return ((Comparable) v1).compareTo(v2);
+	}
+    }
+
+    /** Ordre des valeurs d'un attribut, nulles en premier. */
+    private static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+	@Override
+	public int compare(final Object o1, final Object o2) {
+	    return EntityComparator.compareValues(o1, o2);
+	}
+    };
+
+    /** Calcul incrémental d'un agrégat. */
+    private static final class Accumulator {
+	private final Aggregate FUNCTION;
+	private long count;
+	private long integerSum;
+	private double floatingSum;
+	private boolean floating;
+	private Object extreme;
+
+	Accumulator(final Aggregate function) {
+	    this.FUNCTION = function;
+	}
+
+	void add(final Object value) {
+	    if (value == null) {
+		return;
+	    }
+	    ++this.count;
+	    switch (this.FUNCTION) {
+	    case SUM:
+	    case AVG:
+		if (value instanceof Integer || value instanceof Long
+			|| value instanceof Short || value instanceof Byte) {
+		    this.integerSum += ((Number) value).longValue();
+		} else {
+		    this.floating = true;
+		    this.floatingSum += ((Number) value).doubleValue();
+		}
+		break;
+	    case MIN:
+		if (this.extreme == null
+			|| EntityComparator.compareValues(value, this.extreme) < 0) {
+		    this.extreme = value;
+		}
+		break;
+	    case MAX:
+		if (this.extreme == null
+			|| EntityComparator.compareValues(value, this.extreme) > 0) {
+		    this.extreme = value;
+		}
+		break;
+	    default:
+		break;
+	    }
+	}
+
+	Object result() {
+	    switch (this.FUNCTION) {
+	    case COUNT:
+		return Long.valueOf(this.count);
+	    case SUM:
+		if (this.count == 0) {
+		    return null;
+		}
+		return this.floating ? (Object) Double.valueOf(this.floatingSum
+			+ this.integerSum) : (Object) Long.valueOf(this.integerSum);
+	    case AVG:
+		return this.count == 0 ? null : Double
+			.valueOf((this.floatingSum + this.integerSum) / this.count);
+	    default:
+		return this.extreme;
+	    }
+	}
+    }
+
+    /** Accesseur d'un attribut agrégé, {@code null} pour COUNT(*). */
+    private static FieldAccessor aggregatedAccessor(final Entity<?> modele,
+	    final Aggregate function, final String field) {
+	if (field == null) {
+	    if (function != Aggregate.COUNT) {
+		throw new IllegalArgumentException("Attribut de l'agrégat "
+			+ function + " manquant.");
+	    }
+	    return null;
+	}
+	return accessorOf(modele, field);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FieldAccessor accessorOf(final Entity<?> modele,
+	    final String field) {
+	return EntityComparator.findAccessor(Entity
+		.getAccessors((Class<? extends Entity<?>>) modele.getClass()),
+		field);
+    }
+
+    @Override
+    public long count(final T modele) {
+	final List<Object> valuesModele = modele.getValues();
+	long count = 0;
+	for (T obj : getEnsemble(modele)) {
+	    if (obj != null && obj.matches(valuesModele)) {
+		++count;
+	    }
+	}
+	return count;
+    }
+
+    @Override
+    public boolean exists(final T modele) {
+	final List<Object> valuesModele = modele.getValues();
+	for (T obj : getEnsemble(modele)) {
+	    if (obj != null && obj.matches(valuesModele)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Première occurence dans l'ordre de {@link #search(Entity)} : la plus
+     * petite si l'entité est {@link Comparable}.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public T findFirst(final T modele) {
+	final List<Object> valuesModele = modele.getValues();
+	final boolean sorted = SORT_ON_SEARCH && modele instanceof Comparable<?>;
+	T first = null;
+	for (T obj : getEnsemble(modele)) {
+	    if (obj != null && obj.matches(valuesModele)) {
+		if (!sorted) {
+		    return obj;
+		}
+		if (first == null || ((Comparable) obj).compareTo(first) < 0) {
+		    first = obj;
+		}
+	    }
+	}
+	return first;
+    }
+
+    @Override
+    public Object aggregate(final Aggregate function, final String field,
+	    final T modele) {
+	final FieldAccessor accessor = aggregatedAccessor(modele, function,
+		field);
+	final List<Object> valuesModele = modele.getValues();
+	final Accumulator acc = new Accumulator(function);
+	for (T obj : getEnsemble(modele)) {
+	    if (obj != null && obj.matches(valuesModele)) {
+		acc.add(accessor == null ? obj : accessor.get(obj));
+	    }
+	}
+	return acc.result();
+    }
+
+    @Override
+    public Map<Object, Object> groupBy(final String field,
+	    final Aggregate function, final String aggregated, final T modele) {
+	final FieldAccessor key = accessorOf(modele, field);
+	final FieldAccessor accessor = aggregatedAccessor(modele, function,
+		aggregated);
+	final List<Object> valuesModele = modele.getValues();
+	final Map<Object, Accumulator> groups = new TreeMap<Object, Accumulator>(
+		VALUE_ORDER);
+	for (T obj : getEnsemble(modele)) {
+	    if (obj != null && obj.matches(valuesModele)) {
+		Object value = key.get(obj);
+		Accumulator acc = groups.get(value);
+		if (acc == null) {
+		    acc = new Accumulator(function);
+		    groups.put(value, acc);
+		}
+		acc.add(accessor == null ? obj : accessor.get(obj));
+	    }
+	}
+	final Map<Object, Object> result = new LinkedHashMap<Object, Object>(
+		groups.size() * 4 / 3 + 1);
+	for (Map.Entry<Object, Accumulator> group : groups.entrySet()) {
+	    result.put(group.getKey(), group.getValue().result());
+	}
+	return result;
+    }
+
+    @Override
+    public int update(final T objet) {
+	final long start = System.nanoTime();
+	this.conteneur.put(objet.getId().intValue(), objet);
+	invalidate(objet);
+	this.STATS.record(Operation.UPDATE, start);
+	return 1;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Mapping of a projected row to a result object, without entity hydration.
+ * <p>
+ * A target class with a constructor taking one parameter per column (as the
+ * canonical constructor of a record) is built with it, in column order. The
+ * parameter types must match the types of the projected attributes: a
+ * constructor of the same types is preferred, then the only one accepting
+ * them, several candidates being refused as ambiguous. Otherwise the target
+ * is built with its no-arg constructor and each column is written to the
+ * field of the same name. Without target class the row itself
+ * ({@code Object[]}) is the result.
+ * </p>
+ * <p>
+ * A SQL {@code NULL} is refused for a primitive parameter or field.
+ * </p>
+ *
+ * @author simplelib.org
+ *
+ * @param <P>
+ *            Result type.
+ */
+final class ProjectionMapper<P> {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** (Object[])Object constructor spreading the row, or {@code null}. */
+    private final MethodHandle CONSTRUCTOR;
+    /** Parameter types of the constructor. */
+    private final Class<?>[] PARAMETERS;
+    /** ()Object no-arg constructor, used with {@link #FIELDS}. */
+    private final MethodHandle DEFAULT_CONSTRUCTOR;
+    /** Field of each column. */
+    private final FieldAccessor[] FIELDS;
+
+    /**
+     * @param target
+     *            Result class, {@code null} for {@code Object[]} rows.
+     * @param source
+     *            Entity class of the projected attributes.
+     * @param names
+     *            Projected attribute names.
+     */
+    ProjectionMapper(final Class<P> target, final Class<?> source,
+	    final String[] names) {
+	if (target == null || target == Object[].class) {
+	    this.CONSTRUCTOR = null;
+	    this.PARAMETERS = null;
+	    this.DEFAULT_CONSTRUCTOR = null;
+	    this.FIELDS = null;
+	    return;
+	}
+	try {
+	    final Class<?>[] types = new Class<?>[names.length];
+	    for (int i = 0; i < names.length; ++i) {
+		types[i] = findField(source, names[i]).getType();
+	    }
+	    Constructor<?> byTypes = findConstructor(target, types);
+	    Constructor<?> noArg = null;
+	    for (Constructor<?> constructor : target.getDeclaredConstructors()) {
+		if (constructor.getParameterTypes().length == 0) {
+		    noArg = constructor;
+		}
+	    }
+	    if (byTypes != null) {
+		byTypes.setAccessible(true);
+		this.PARAMETERS = byTypes.getParameterTypes();
+		// Unboxing and widening conversions only, as for the fields.
+		this.CONSTRUCTOR = LOOKUP.unreflectConstructor(byTypes)
+			.asType(MethodType.genericMethodType(names.length))
+			.asSpreader(Object[].class, names.length);
+		this.DEFAULT_CONSTRUCTOR = null;
+		this.FIELDS = null;
+	    } else if (noArg != null) {
+		noArg.setAccessible(true);
+		this.CONSTRUCTOR = null;
+		this.PARAMETERS = null;
+		this.DEFAULT_CONSTRUCTOR = LOOKUP.unreflectConstructor(noArg)
+			.asType(MethodType.methodType(Object.class));
+		this.FIELDS = new FieldAccessor[names.length];
+		for (int i = 0; i < names.length; ++i) {
+		    this.FIELDS[i] = new FieldAccessor(findField(target,
+			    names[i]));
+		}
+	    } else {
+		throw new IllegalArgumentException(target.getName()
+			+ " has no constructor accepting the "
+			+ names.length + " projected attributes"
+			+ " nor without parameter.");
+	    }
+	} catch (ReflectiveOperationException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Constructor taking the projected attribute types: the one of the same
+     * types, else the only one accepting them.
+     *
+     * @return Constructor, {@code null} if none.
+     * @throws IllegalArgumentException
+     *             If several constructors are candidates.
+     */
+    private static Constructor<?> findConstructor(final Class<?> target,
+	    final Class<?>[] types) {
+	Constructor<?> exact = null;
+	Constructor<?> accepting = null;
+	int accepted = 0;
+	for (Constructor<?> constructor : target.getDeclaredConstructors()) {
+	    Class<?>[] parameters = constructor.getParameterTypes();
+	    if (parameters.length != types.length) {
+		continue;
+	    }
+	    boolean same = true;
+	    boolean accepts = true;
+	    for (int i = 0; i < types.length && accepts; ++i) {
+		Class<?> parameter = box(parameters[i]);
+		Class<?> type = box(types[i]);
+		same &= parameter == type;
+		accepts = parameter.isAssignableFrom(type);
+	    }
+	    if (same && accepts) {
+		exact = constructor;
+	    } else if (accepts) {
+		accepting = constructor;
+		++accepted;
+	    }
+	}
+	if (exact != null) {
+	    return exact;
+	} else if (accepted > 1) {
+	    throw new IllegalArgumentException(target.getName() + " has "
+		    + accepted + " constructors accepting the projected"
+		    + " attributes.");
+	}
+	return accepting;
+    }
+
+    private static Class<?> box(final Class<?> type) {
+	if (!type.isPrimitive()) {
+	    return type;
+	}
+	return MethodType.methodType(type).wrap().returnType();
+    }
+
+    private static Field findField(final Class<?> target, final String name) {
+	for (Class<?> c = target; c != null; c = c.getSuperclass()) {
+	    for (Field field : c.getDeclaredFields()) {
+		if (field.getName().equals(name)
+			&& !Modifier.isStatic(field.getModifiers())) {
+		    field.setAccessible(true);
+		    return field;
+		}
+	    }
+	}
+	throw new IllegalArgumentException(target.getName()
+		+ " has no field " + name + ".");
+    }
+
+    /**
+     * Map a row.
+     *
+     * @param row
+     *            Column values, converted in place.
+     * @return Result object.
+     */
+    @SuppressWarnings("unchecked")
+    P map(final Object[] row) {
+	try {
+	    if (this.CONSTRUCTOR != null) {
+		for (int i = 0; i < row.length; ++i) {
+		    row[i] = convert(row[i], this.PARAMETERS[i]);
+		}
+		return (P) (Object) this.CONSTRUCTOR.invokeExact(row);
+	    } else if (this.FIELDS != null) {
+		Object result = (Object) this.DEFAULT_CONSTRUCTOR.invokeExact();
+		for (int i = 0; i < row.length; ++i) {
+		    this.FIELDS[i].set(result, convert(row[i],
+			    this.FIELDS[i].TYPE));
+		}
+		return (P) result;
+	    }
+	    return (P) row;
+	} catch (ClassCastException e) {
+	    throw new IllegalArgumentException(e);
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Throwable t) {
+	    throw new RuntimeException(t);
+	}
+    }
+
+    /**
+     * Conversion of a JDBC value to the declared type: characters read as
+     * strings and numbers of another type (a {@code COUNT} read as
+     * {@code Long} for an {@code int}...).
+     */
+    private static Object convert(final Object value, final Class<?> type) {
+	if (value == null && type.isPrimitive()) {
+	    throw new IllegalArgumentException("NULL value for a " + type
+		    + ": use " + box(type).getName() + ".");
+	}
+	if (value == null || type.isInstance(value)) {
+	    return value;
+	}
+	if (value instanceof String && (type == Character.TYPE
+		|| type == Character.class)) {
+	    String s = (String) value;
+	    return s.isEmpty() ? null : Character.valueOf(s.charAt(0));
+	}
+	if (value instanceof Number) {
+	    Number n = (Number) value;
+	    if (type == Integer.TYPE || type == Integer.class) {
+		return Integer.valueOf(n.intValue());
+	    } else if (type == Long.TYPE || type == Long.class) {
+		return Long.valueOf(n.longValue());
+	    } else if (type == Double.TYPE || type == Double.class) {
+		return Double.valueOf(n.doubleValue());
+	    } else if (type == Float.TYPE || type == Float.class) {
+		return Float.valueOf(n.floatValue());
+	    } else if (type == Short.TYPE || type == Short.class) {
+		return Short.valueOf(n.shortValue());
+	    }
+	}
+	return value;
+    }
+}
@@ -1,442 +1,1162 @@
-/*
- * Copyright 2012 simplelib.org
- * 
- * This file is part of SimplePersist.
- * 
- * SimplePersist is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * SimplePersist is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.simplelib.simplepersist.dao;
-
-import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * @author simplelib.org
- */
-public final class Queries {
-    static boolean useCache = true;
-    
-    public static class FromClause<R> extends Query<R> {
-	private final Class<? extends Entity<?>> sourceClass;
-
-	private FromClause(final Query<R> parent,
-		final Class<? extends Entity<?>> sourceClass) {
-	    super(parent);
-	    this.sourceClass = sourceClass;
-	}
-
-	Class<? extends Entity<?>> getSourceClass() {
-	    return this.sourceClass;
-	}
-
-	public JoinClause<R> innerJoin(
-		final Class<? extends Entity<?>> joinedClass) {
-	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.INNER));
-	}
-
-	public JoinClause<R> leftJoin(
-		final Class<? extends Entity<?>> joinedClass) {
-	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.LEFT));
-	}
-
-	public JoinClause<R> rightJoin(
-		final Class<? extends Entity<?>> joinedClass) {
-	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.RIGHT));
-	}
-
-	public WhereClause<R> where(final String whereClause) {
-	    return toChild(new WhereClause<R>(this, whereClause));
-	}
-    }
-
-    public static class JoinClause<R> extends Query<R> {
-	private final Class<? extends Entity<?>> joinedClass;
-	private final JoinType joinType;
-
-	private JoinClause(final Query<R> parent,
-		final Class<? extends Entity<?>> joinedClass,
-		final JoinType type) {
-	    super(parent);
-	    this.joinedClass = joinedClass;
-	    this.joinType = type;
-	}
-
-	Class<? extends Entity<?>> getJoinedClass() {
-	    return this.joinedClass;
-	}
-
-	JoinType getType() {
-	    return joinType;
-	}
-
-	public JoinClause<R> innerJoin(
-		final Class<? extends Entity<?>> joinedClass) {
-	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.INNER));
-	}
-
-	public JoinClause<R> leftJoin(
-		final Class<? extends Entity<?>> joinedClass) {
-	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.LEFT));
-	}
-
-	public JoinClause<R> rightJoin(
-		final Class<? extends Entity<?>> joinedClass) {
-	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.RIGHT));
-	}
-
-	public OnClause<R> on(final String booleanClause) {
-	    return toChild(new OnClause<R>(this, booleanClause));
-	}
-    }
-
-    /**
-     * Type de jointure. Tels que définis en SQL.
-     * 
-     * @author s.mozzi
-     * 
-     */
-    static enum JoinType {
-	INNER, LEFT, RIGHT
-    }
-
-    public static class OnClause<R> extends Query<R> {
-	private final String booleanClause;
-
-	private OnClause(final Query<R> parent, final String booleanClause) {
-	    super(parent);
-	    this.booleanClause = booleanClause;
-	}
-
-	public WhereClause<R> where(final String whereClause) {
-	    return toChild(new WhereClause<R>(this, whereClause));
-	}
-
-	String getClause() {
-	    return this.booleanClause;
-	}
-    }
-
-    public static class SetClause<T extends Entity<?>, R> extends Query<R> {
-	private final T value;
-
-	private SetClause(final Query<R> parent, T value) {
-	    super(parent);
-	    this.value = value;
-	}
-
-	public WhereClause<R> where(final String whereClause) {
-	    return toChild(new WhereClause<R>(this, whereClause));
-	}
-
-	T getValue() {
-	    return this.value;
-	}
-    }
-
-    public static abstract class Query<R> {
-	private Query<R> parent;
-	private Query<R> child;
-	private Object cache;
-
-	protected Query(final Query<R> parent) {
-	    this.parent = parent;
-	}
-
-	public R execute() {
-	    // Execution de la requête depuis la racine
-	    if (this.parent != null) {
-		return this.parent.execute();
-	    } else {
-		throw new UnsupportedOperationException(
-			"Execution de ce type de requête non pris en charge.");
-	    }
-	}
-
-	Query<R> getParent() {
-	    return this.parent;
-	}
-
-	Query<R> getChild() {
-	    return this.child;
-	}
-
-	protected <T extends Query<R>> T toChild(final T childQuery) {
-	    this.child = childQuery;
-	    this.cache = null;
-	    return childQuery;
-	}
-
-	/**
-	 * Service de mise en cache de la requête une fois compilée par une DAO.
-	 * 
-	 * @param compiledQuery
-	 *            Requête compilée.
-	 */
-	void setCache(Object compiledQuery) {
-	    this.cache = compiledQuery;
-	}
-
-	/**
-	 * Service de récuppération d'une requête compilée mise en cache.
-	 * 
-	 * @return Requête compilée.
-	 */
-	Object getCache() {
-	    return this.cache;
-	}
-    }
-
-    public static class SelectClause<T extends Entity<?>> extends
-	    Query<List<T>> {
-	private final Class<T> result;
-	private final boolean distinct;
-
-	private SelectClause(final Class<T> result, final boolean distinct) {
-	    super(null);
-	    this.result = result;
-	    this.distinct = distinct;
-	}
-
-	@Override
-	public List<T> execute() {
-	    return Entity.getDao(this.result).execute(this);
-	}
-
-	Class<T> getResultClass() {
-	    return this.result;
-	}
-
-	boolean isDistinct() {
-	    return this.distinct;
-	}
-
-	public FromClause<List<T>> from(final Class<? extends Entity<?>> source) {
-	    return toChild(new FromClause<List<T>>(this, source));
-	}
-
-	public FromClause<List<T>> fromIt() {
-	    return toChild(new FromClause<List<T>>(this, this.result));
-	}
-    }
-
-    public static class UpdateClause<T extends Entity<?>> extends
-	    Query<Integer> {
-	private final Class<T> source;
-
-	private UpdateClause(final Class<T> source) {
-	    super(null);
-	    this.source = source;
-	}
-
-	@Override
-	public Integer execute() {
-	    return Entity.getDao(this.source).execute(this);
-	}
-
-	Class<T> getSourceClass() {
-	    return this.source;
-	}
-
-	public SetClause<T, Integer> set(final T valeur) {
-	    return toChild(new SetClause<T, Integer>(this, valeur));
-	}
-    }
-
-    public static class DeleteClause<T extends Entity<?>> extends
-	    Query<Integer> {
-	private final Class<T> cible;
-
-	private DeleteClause(final Class<T> cible) {
-	    super(null);
-	    this.cible = cible;
-	}
-
-	@Override
-	public Integer execute() {
-	    return Entity.getDao(this.cible).execute(this);
-	}
-    }
-
-    public static class WhereClause<R> extends Query<R> {
-	private final String whereClause;
-
-	private WhereClause(final Query<R> parent, final String whereClause) {
-	    super(parent);
-	    this.whereClause = whereClause;
-	}
-
-	String getClause() {
-	    return this.whereClause;
-	}
-    }
-
-    public static class CreateTableClause<T extends Entity<?>> extends
-	    Query<Boolean> {
-	private final Class<T> source;
-
-	private CreateTableClause(final Class<T> source) {
-	    super(null);
-	    this.source = source;
-	}
-
-	Class<T> getSourceClass() {
-	    return this.source;
-	}
-
-	@Override
-	public Boolean execute() {
-	    return Entity.getDao(this.source).createTable();
-	}
-    }
-
-    public static class DropTableClause<T extends Entity<?>> extends
-	    Query<Boolean> {
-	private final Class<T> cible;
-	private final boolean ifExists;
-
-	private DropTableClause(final Class<T> cible, boolean ifexists) {
-	    super(null);
-	    this.cible = cible;
-	    this.ifExists = ifexists;
-	}
-
-	Class<T> getSourceClass() {
-	    return this.cible;
-	}
-
-	@Override
-	public Boolean execute() {
-	    if (ifExists) {
-		return Entity.getDao(this.cible).dropTableIfExists();
-	    } else {
-		throw new UnsupportedOperationException();
-	    }
-	}
-    }
-
-    public static <T extends Entity<?>> CreateTableClause<T> createTable(
-	    final Class<T> source) {
-	return new CreateTableClause<T>(source);
-    }
-
-    public static <T extends Entity<?>> FromClause<List<T>> select(
-	    final Class<T> result) {
-	return new SelectClause<T>(result, false).fromIt();
-    }
-
-    public static <T extends Entity<?>> FromClause<List<T>> selectDistinct(
-	    final Class<T> result) {
-	return new SelectClause<T>(result, true).fromIt();
-    }
-
-    public static <T extends Entity<?>> UpdateClause<T> update(Class<T> classe) {
-	return new UpdateClause<T>(classe);
-    }
-
-    public static <T extends Entity<?>> DeleteClause<T> delete(Class<T> classe) {
-	return new DeleteClause<T>(classe);
-    }
-
-    public static <T extends Entity<?>> DropTableClause<T> dropTableIfExists(
-	    final Class<T> cible) {
-	return new DropTableClause<T>(cible, true);
-    }
-    
-    public static <T extends Entity<T>> int delete(T objet) {
-	return objet.getDao().remove(objet);
-    }
-    
-    public static <T extends Entity<T>> int update(T objet) {
-	return objet.getDao().update(objet);
-    }
-
-    public static List<Object> runBatch(List<Query> batch) {
-	ArrayList<Object> result = new ArrayList<Object>(batch.size());
-	// Do a more powerful implementation
-	for (Query q : batch) {
-	    result.add(q.execute());
-	}
-	return result;
-    }
-
-    public static <T extends Entity<?>> void updateAll(List<T> objet) {
-	if (objet == null || objet.isEmpty()) {
-	    return;
-	}
-	// Check if T == get(0).getClass()
-	Class<T> classe = (Class<T>) objet.get(0).getClass();
-	Entity.getDao(classe).updateAll(objet);
-    }
-
-    public static <T extends Entity<T>> List<T> search(final T modele) {
-	return modele.getDao().search(modele);
-    }
-
-    public static <T extends Entity<T>> T search(Class<T> classe, int id) {
-	try {
-	    T modele = classe.newInstance();
-	    modele.setId(id);
-	    List<T> result = Queries.search(modele);
-	    if (!result.isEmpty()) {
-		return result.get(0);
-	    } else {
-		return null;
-	    }
-	} catch (Exception e) {
-	    e.printStackTrace();
-	    return null;
-	}
-    }
-    
-    public static void beginTran() throws SQLException {
-	AccesBdd.getConnection().setAutoCommit(false);
-    }
-    
-    public static void commit() throws SQLException {
-	AccesBdd.getConnection().commit();
-	AccesBdd.getConnection().setAutoCommit(true);
-    }
-    
-    public static void rollback() throws SQLException {
-	AccesBdd.getConnection().rollback();
-	AccesBdd.getConnection().setAutoCommit(true);
-    }
-    
-    public static void setUseCache(boolean use) {
-	Queries.useCache = use;
-    }
-
-    public static <T extends Entity<T>> void insert(T objet) {
-	objet.getDao().add(objet);
-    }
-
-    public static <T extends Entity<T>> void insertAll(List<T> objet) {
-	if (objet == null || objet.isEmpty()) {
-	    return;
-	}
-	// Check if T == get(0).getClass()
-	objet.get(0).getDao().addAll(objet);
-    }
-
-    // TODO Disabled method for uniformity. Maybe later.
-    // public static <T extends Entity<?>> SetClause<T, Integer> updateAndSet(T
-    // value) {
-    // return new UpdateClause<T>((Class<T>) value.getClass()).set(value);
-    // }
-
-    private Queries() {
-    }
-}
+/*
+ * Copyright 2012 simplelib.org
+ * 
+ * This file is part of SimplePersist.
+ * 
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author simplelib.org
+ */
+public final class Queries {
+    static boolean useCache = true;
+    /** Maximal rows sent by JDBC batch. */
+    static int batchSize = 1000;
+    /** Rows fetched by round trip by the cursors. */
+    static int fetchSize = 500;
+    /** Results kept by the DSL query cache. */
+    static int selectCacheSize = 256;
+    
+    /**
+     * Clauses pouvant être suivies d'un tri ou d'une pagination.
+     */
+    public static abstract class PageableClause<R> extends Query<R> {
+	protected PageableClause(final Query<R> parent) {
+	    super(parent);
+	}
+
+	/**
+	 * Tri croissant.
+	 * 
+	 * @param fields
+	 *            Noms des attributs (ou colonnes) de tri.
+	 * @return Clause de tri.
+	 */
+	public OrderClause<R> orderBy(final String... fields) {
+	    return toChild(new OrderClause<R>(this, fields, false));
+	}
+
+	/**
+	 * Tri décroissant.
+	 * 
+	 * @param fields
+	 *            Noms des attributs (ou colonnes) de tri.
+	 * @return Clause de tri.
+	 */
+	public OrderClause<R> orderByDesc(final String... fields) {
+	    return toChild(new OrderClause<R>(this, fields, true));
+	}
+
+	public LimitClause<R> limit(final int count) {
+	    return toChild(new LimitClause<R>(this, count));
+	}
+
+	public OffsetClause<R> offset(final int count) {
+	    return toChild(new OffsetClause<R>(this, count));
+	}
+    }
+
+    public static class FromClause<R> extends PageableClause<R> {
+	private final Class<? extends Entity<?>> sourceClass;
+
+	private FromClause(final Query<R> parent,
+		final Class<? extends Entity<?>> sourceClass) {
+	    super(parent);
+	    this.sourceClass = sourceClass;
+	}
+
+	Class<? extends Entity<?>> getSourceClass() {
+	    return this.sourceClass;
+	}
+
+	/**
+	 * Projection de la sélection sur quelques attributs : seules les
+	 * colonnes demandées sont lues et aucune entité n'est construite.
+	 * 
+	 * @param fields
+	 *            Noms des attributs (ou colonnes) projetés.
+	 * @return Projection, à terminer par {@link Projection#into(Class)} ou
+	 *         {@link Projection#rows()}.
+	 */
+	public Projection columns(final String... fields) {
+	    if (!(getParent() instanceof SelectClause)) {
+		throw new IllegalStateException(
+			"Projection d'une clause FROM hors d'une sélection.");
+	    }
+	    return new Projection((SelectClause<?>) getParent(),
+		    this.sourceClass, fields);
+	}
+
+	public JoinClause<R> innerJoin(
+		final Class<? extends Entity<?>> joinedClass) {
+	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.INNER));
+	}
+
+	public JoinClause<R> leftJoin(
+		final Class<? extends Entity<?>> joinedClass) {
+	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.LEFT));
+	}
+
+	public JoinClause<R> rightJoin(
+		final Class<? extends Entity<?>> joinedClass) {
+	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.RIGHT));
+	}
+
+	/**
+	 * Clause WHERE, ses paramètres {@code ?} étant liés aux valeurs
+	 * fournies.
+	 * 
+	 * @param whereClause
+	 *            Expression SQL.
+	 * @param params
+	 *            Valeurs des paramètres, dans l'ordre.
+	 * @return Clause WHERE.
+	 */
+	public WhereClause<R> where(final String whereClause,
+		final Object... params) {
+	    return toChild(new WhereClause<R>(this, whereClause, params));
+	}
+    }
+
+    public static class JoinClause<R> extends Query<R> {
+	private final Class<? extends Entity<?>> joinedClass;
+	private final JoinType joinType;
+
+	private JoinClause(final Query<R> parent,
+		final Class<? extends Entity<?>> joinedClass,
+		final JoinType type) {
+	    super(parent);
+	    this.joinedClass = joinedClass;
+	    this.joinType = type;
+	}
+
+	Class<? extends Entity<?>> getJoinedClass() {
+	    return this.joinedClass;
+	}
+
+	JoinType getType() {
+	    return joinType;
+	}
+
+	public JoinClause<R> innerJoin(
+		final Class<? extends Entity<?>> joinedClass) {
+	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.INNER));
+	}
+
+	public JoinClause<R> leftJoin(
+		final Class<? extends Entity<?>> joinedClass) {
+	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.LEFT));
+	}
+
+	public JoinClause<R> rightJoin(
+		final Class<? extends Entity<?>> joinedClass) {
+	    return toChild(new JoinClause<R>(this, joinedClass, JoinType.RIGHT));
+	}
+
+	/**
+	 * Condition de jointure, ses paramètres {@code ?} étant liés aux valeurs
+	 * fournies.
+	 * 
+	 * @param booleanClause
+	 *            Expression SQL.
+	 * @param params
+	 *            Valeurs des paramètres, dans l'ordre.
+	 * @return Clause ON.
+	 */
+	public OnClause<R> on(final String booleanClause, final Object... params) {
+	    return toChild(new OnClause<R>(this, booleanClause, params));
+	}
+    }
+
+    /**
+     * Fonctions d'agrégat.
+     */
+    public static enum Aggregate {
+	COUNT, SUM, MIN, MAX, AVG
+    }
+
+    /**
+     * Snapshot of the query cache counters of an entity.
+     */
+    public static final class CacheStatistics {
+	private final int size;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+
+	CacheStatistics(final QueryResultCache<?, ?> cache) {
+	    synchronized (cache) {
+		this.size = cache.size();
+		this.hits = cache.getHits();
+		this.misses = cache.getMisses();
+		this.evictions = cache.getEvictions();
+	    }
+	}
+
+	/** @return Cached results count. */
+	public int getSize() {
+	    return size;
+	}
+
+	/** @return Searches answered by the cache. */
+	public long getHits() {
+	    return hits;
+	}
+
+	/** @return Searches not found in the cache. */
+	public long getMisses() {
+	    return misses;
+	}
+
+	/** @return Results removed by size, expiration or invalidation. */
+	public long getEvictions() {
+	    return evictions;
+	}
+
+	@Override
+	public String toString() {
+	    return "size=" + size + " hits=" + hits + " misses=" + misses
+		    + " evictions=" + evictions;
+	}
+    }
+
+    /**
+     * Type de jointure. Tels que définis en SQL.
+     * 
+     * @author s.mozzi
+     * 
+     */
+    static enum JoinType {
+	INNER, LEFT, RIGHT
+    }
+
+    public static class OnClause<R> extends PageableClause<R> {
+	private final String booleanClause;
+	private final Object[] params;
+
+	private OnClause(final Query<R> parent, final String booleanClause,
+		final Object[] params) {
+	    super(parent);
+	    this.booleanClause = booleanClause;
+	    this.params = params.clone();
+	}
+
+	/**
+	 * Clause WHERE, ses paramètres {@code ?} étant liés aux valeurs
+	 * fournies.
+	 * 
+	 * @param whereClause
+	 *            Expression SQL.
+	 * @param params
+	 *            Valeurs des paramètres, dans l'ordre.
+	 * @return Clause WHERE.
+	 */
+	public WhereClause<R> where(final String whereClause,
+		final Object... params) {
+	    return toChild(new WhereClause<R>(this, whereClause, params));
+	}
+
+	String getClause() {
+	    return this.booleanClause;
+	}
+
+	Object[] getParams() {
+	    return this.params;
+	}
+    }
+
+    public static class SetClause<T extends Entity<?>, R> extends Query<R> {
+	private final T value;
+
+	private SetClause(final Query<R> parent, T value) {
+	    super(parent);
+	    this.value = value;
+	}
+
+	/**
+	 * Clause WHERE, ses paramètres {@code ?} étant liés aux valeurs
+	 * fournies.
+	 * 
+	 * @param whereClause
+	 *            Expression SQL.
+	 * @param params
+	 *            Valeurs des paramètres, dans l'ordre.
+	 * @return Clause WHERE.
+	 */
+	public WhereClause<R> where(final String whereClause,
+		final Object... params) {
+	    return toChild(new WhereClause<R>(this, whereClause, params));
+	}
+
+	T getValue() {
+	    return this.value;
+	}
+    }
+
+    public static abstract class Query<R> {
+	private Query<R> parent;
+	private Query<R> child;
+	/** Requête compilée, immuable, mise en cache à la racine. */
+	private volatile Object cache;
+
+	protected Query(final Query<R> parent) {
+	    this.parent = parent;
+	}
+
+	public R execute() {
+	    // Execution de la requête depuis la racine
+	    if (this.parent != null) {
+		return this.parent.execute();
+	    } else {
+		throw new UnsupportedOperationException(
+			"Execution de ce type de requête non pris en charge.");
+	    }
+	}
+
+	/**
+	 * Execution de la requête compilée avec d'autres valeurs des paramètres
+	 * des clauses where et on. La requête n'est compilée qu'une fois et peut
+	 * être exécutée simultanément par plusieurs threads.
+	 * 
+	 * @param params
+	 *            Valeurs de tous les paramètres des clauses where et on, dans
+	 *            l'ordre de la requête.
+	 * @return Résultat de la requête.
+	 */
+	public R executeWith(final Object... params) {
+	    if (this.parent != null) {
+		return this.parent.executeWith(params);
+	    } else {
+		throw new UnsupportedOperationException(
+			"Execution de ce type de requête non pris en charge.");
+	    }
+	}
+
+	/**
+	 * Execution de la requête avec lecture paresseuse des résultats. Le
+	 * {@link Cursor} doit être fermé s'il n'est pas lu jusqu'au bout.
+	 * 
+	 * @return {@link Cursor} sur les entités sélectionnées.
+	 */
+	public <T extends Entity<?>> Cursor<T> stream() {
+	    if (this.parent != null) {
+		return this.parent.stream();
+	    } else {
+		throw new UnsupportedOperationException(
+			"Lecture paresseuse de ce type de requête non pris en charge.");
+	    }
+	}
+
+	Query<R> getParent() {
+	    return this.parent;
+	}
+
+	Query<R> getChild() {
+	    return this.child;
+	}
+
+	protected <T extends Query<R>> T toChild(final T childQuery) {
+	    this.child = childQuery;
+	    // La requête compilée, gardée par la racine, n'est plus valide.
+	    for (Query<R> q = this; q != null; q = q.parent) {
+		q.cache = null;
+	    }
+	    return childQuery;
+	}
+
+	/**
+	 * Service de mise en cache de la requête une fois compilée par une DAO.
+	 * 
+	 * @param compiledQuery
+	 *            Requête compilée.
+	 */
+	void setCache(Object compiledQuery) {
+	    this.cache = compiledQuery;
+	}
+
+	/**
+	 * Service de récuppération d'une requête compilée mise en cache.
+	 * 
+	 * @return Requête compilée.
+	 */
+	Object getCache() {
+	    return this.cache;
+	}
+    }
+
+    public static class SelectClause<T extends Entity<?>> extends
+	    Query<List<T>> {
+	private final Class<T> result;
+	private final boolean distinct;
+
+	private SelectClause(final Class<T> result, final boolean distinct) {
+	    super(null);
+	    this.result = result;
+	    this.distinct = distinct;
+	}
+
+	@Override
+	public List<T> execute() {
+	    return Entity.getDao(this.result).execute(this);
+	}
+
+	@Override
+	public List<T> executeWith(final Object... params) {
+	    return Entity.getDao(this.result).execute(this, params);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <E extends Entity<?>> Cursor<E> stream() {
+	    return (Cursor<E>) Entity.getDao(this.result).stream(this);
+	}
+
+	Class<T> getResultClass() {
+	    return this.result;
+	}
+
+	boolean isDistinct() {
+	    return this.distinct;
+	}
+
+	public FromClause<List<T>> from(final Class<? extends Entity<?>> source) {
+	    return toChild(new FromClause<List<T>>(this, source));
+	}
+
+	public FromClause<List<T>> fromIt() {
+	    return toChild(new FromClause<List<T>>(this, this.result));
+	}
+    }
+
+    /**
+     * Projection en attente de son type de résultat.
+     */
+    public static final class Projection {
+	private final SelectClause<?> select;
+	private final Class<? extends Entity<?>> source;
+	private final String[] fields;
+
+	private Projection(final SelectClause<?> select,
+		final Class<? extends Entity<?>> source, final String[] fields) {
+	    if (fields.length == 0) {
+		throw new IllegalArgumentException("Aucun attribut projeté.");
+	    }
+	    this.select = select;
+	    this.source = source;
+	    this.fields = fields.clone();
+	}
+
+	/**
+	 * Résultats construits par le constructeur de {@code target} prenant
+	 * un paramètre par colonne, dans l'ordre des colonnes (record), des
+	 * types des attributs projetés, ou à défaut par son constructeur sans
+	 * paramètre et ses attributs de même nom que les colonnes.
+	 * 
+	 * @param target
+	 *            Classe des résultats.
+	 * @return Clause FROM de la projection.
+	 */
+	public <P> FromClause<List<P>> into(final Class<P> target) {
+	    return new ProjectClause<P>(this.select.getResultClass(),
+		    this.select.isDistinct(), this.fields,
+		    new ProjectionMapper<P>(target, this.source, this.fields))
+		    .from(this.source);
+	}
+
+	/**
+	 * Résultats sous forme de lignes, une valeur par colonne.
+	 * 
+	 * @return Clause FROM de la projection.
+	 */
+	public FromClause<List<Object[]>> rows() {
+	    return into(Object[].class);
+	}
+    }
+
+    /**
+     * Racine d'une projection, créée par
+     * {@link FromClause#columns(String...)}.
+     */
+    public static class ProjectClause<P> extends Query<List<P>> {
+	private final Class<? extends Entity<?>> entity;
+	private final boolean distinct;
+	private final String[] fields;
+	private final ProjectionMapper<P> mapper;
+
+	private ProjectClause(final Class<? extends Entity<?>> entity,
+		final boolean distinct, final String[] fields,
+		final ProjectionMapper<P> mapper) {
+	    super(null);
+	    this.entity = entity;
+	    this.distinct = distinct;
+	    this.fields = fields;
+	    this.mapper = mapper;
+	}
+
+	@Override
+	public List<P> execute() {
+	    return Entity.getDao(this.entity).execute(this);
+	}
+
+	@Override
+	public List<P> executeWith(final Object... params) {
+	    return Entity.getDao(this.entity).execute(this, params);
+	}
+
+	private FromClause<List<P>> from(
+		final Class<? extends Entity<?>> source) {
+	    return toChild(new FromClause<List<P>>(this, source));
+	}
+
+	Class<? extends Entity<?>> getEntityClass() {
+	    return this.entity;
+	}
+
+	boolean isDistinct() {
+	    return this.distinct;
+	}
+
+	String[] getFields() {
+	    return this.fields;
+	}
+
+	ProjectionMapper<P> getMapper() {
+	    return this.mapper;
+	}
+    }
+
+    public static class UpdateClause<T extends Entity<?>> extends
+	    Query<Integer> {
+	private final Class<T> source;
+
+	private UpdateClause(final Class<T> source) {
+	    super(null);
+	    this.source = source;
+	}
+
+	@Override
+	public Integer execute() {
+	    return Entity.getDao(this.source).execute(this);
+	}
+
+	Class<T> getSourceClass() {
+	    return this.source;
+	}
+
+	public SetClause<T, Integer> set(final T valeur) {
+	    return toChild(new SetClause<T, Integer>(this, valeur));
+	}
+    }
+
+    public static class DeleteClause<T extends Entity<?>> extends
+	    Query<Integer> {
+	private final Class<T> cible;
+
+	private DeleteClause(final Class<T> cible) {
+	    super(null);
+	    this.cible = cible;
+	}
+
+	@Override
+	public Integer execute() {
+	    return Entity.getDao(this.cible).execute(this);
+	}
+    }
+
+    public static class WhereClause<R> extends PageableClause<R> {
+	private final String whereClause;
+	private final Object[] params;
+
+	private WhereClause(final Query<R> parent, final String whereClause,
+		final Object[] params) {
+	    super(parent);
+	    this.whereClause = whereClause;
+	    this.params = params.clone();
+	}
+
+	String getClause() {
+	    return this.whereClause;
+	}
+
+	Object[] getParams() {
+	    return this.params;
+	}
+    }
+
+    public static class OrderClause<R> extends Query<R> {
+	private final String[] fields;
+	private final boolean descending;
+
+	private OrderClause(final Query<R> parent, final String[] fields,
+		final boolean descending) {
+	    super(parent);
+	    if (fields.length == 0) {
+		throw new IllegalArgumentException("Aucun attribut de tri.");
+	    }
+	    this.fields = fields.clone();
+	    this.descending = descending;
+	}
+
+	String[] getFields() {
+	    return this.fields;
+	}
+
+	boolean isDescending() {
+	    return this.descending;
+	}
+
+	public OrderClause<R> orderBy(final String... fields) {
+	    return toChild(new OrderClause<R>(this, fields, false));
+	}
+
+	public OrderClause<R> orderByDesc(final String... fields) {
+	    return toChild(new OrderClause<R>(this, fields, true));
+	}
+
+	/**
+	 * Pagination par clé : sélection des occurences suivant la dernière
+	 * entité d'une page dans l'ordre du tri, l'id départageant les
+	 * égalités. Les attributs de tri de l'entité ne doivent pas être nuls.
+	 * 
+	 * @param last
+	 *            Dernière entité de la page précédente.
+	 * @return Clause de pagination.
+	 */
+	public AfterClause<R> after(final Entity<?> last) {
+	    return toChild(new AfterClause<R>(this, last));
+	}
+
+	public LimitClause<R> limit(final int count) {
+	    return toChild(new LimitClause<R>(this, count));
+	}
+
+	public OffsetClause<R> offset(final int count) {
+	    return toChild(new OffsetClause<R>(this, count));
+	}
+    }
+
+    public static class AfterClause<R> extends Query<R> {
+	private final Entity<?> last;
+
+	private AfterClause(final Query<R> parent, final Entity<?> last) {
+	    super(parent);
+	    if (last == null || !last.isInserted()) {
+		throw new IllegalArgumentException(
+			"Pagination après une entité non insérée.");
+	    }
+	    this.last = last;
+	}
+
+	Entity<?> getLast() {
+	    return this.last;
+	}
+
+	public LimitClause<R> limit(final int count) {
+	    return toChild(new LimitClause<R>(this, count));
+	}
+    }
+
+    public static class LimitClause<R> extends Query<R> {
+	private final int count;
+
+	private LimitClause(final Query<R> parent, final int count) {
+	    super(parent);
+	    if (count < 0) {
+		throw new IllegalArgumentException("Limite négative : " + count);
+	    }
+	    this.count = count;
+	}
+
+	int getCount() {
+	    return this.count;
+	}
+
+	public OffsetClause<R> offset(final int count) {
+	    return toChild(new OffsetClause<R>(this, count));
+	}
+    }
+
+    public static class OffsetClause<R> extends Query<R> {
+	private final int count;
+
+	private OffsetClause(final Query<R> parent, final int count) {
+	    super(parent);
+	    if (count < 0) {
+		throw new IllegalArgumentException("Décalage négatif : " + count);
+	    }
+	    this.count = count;
+	}
+
+	int getCount() {
+	    return this.count;
+	}
+
+	public LimitClause<R> limit(final int count) {
+	    return toChild(new LimitClause<R>(this, count));
+	}
+    }
+
+    /**
+     * Tri et pagination d'une sélection, collectés le long de la chaîne de
+     * clauses par les DAO.
+     */
+    static final class Paging {
+	/** Attributs de tri. */
+	final List<String> ORDER = new ArrayList<String>();
+	/** Sens de tri de chaque attribut. */
+	final List<Boolean> DESCENDING = new ArrayList<Boolean>();
+	/** Dernière entité de la page précédente, ou {@code null}. */
+	Entity<?> after;
+	/** Nombre maximal de résultats, -1 si non limité. */
+	int limit = -1;
+	int offset;
+
+	/**
+	 * Collecte d'une clause de tri ou de pagination.
+	 * 
+	 * @param clause
+	 *            Clause de la chaîne.
+	 * @return {@code true} si la clause a été collectée.
+	 */
+	boolean collect(final Query<?> clause) {
+	    if (clause instanceof OrderClause) {
+		OrderClause<?> order = (OrderClause<?>) clause;
+		for (String field : order.getFields()) {
+		    this.ORDER.add(field);
+		    this.DESCENDING.add(order.isDescending());
+		}
+	    } else if (clause instanceof AfterClause) {
+		this.after = ((AfterClause<?>) clause).getLast();
+	    } else if (clause instanceof LimitClause) {
+		this.limit = ((LimitClause<?>) clause).getCount();
+	    } else if (clause instanceof OffsetClause) {
+		this.offset = ((OffsetClause<?>) clause).getCount();
+	    } else {
+		return false;
+	    }
+	    return true;
+	}
+
+	boolean isPaged() {
+	    return this.limit >= 0 || this.offset > 0;
+	}
+
+	/**
+	 * Tri d'une projection DISTINCT paginée : l'id ne figurant pas parmi
+	 * les colonnes du résultat, ce sont les attributs projetés absents du
+	 * tri qui départagent les égalités, en ordre croissant. La pagination
+	 * par clé, fondée sur une entité, n'y a pas de sens.
+	 * 
+	 * @param fields
+	 *            Attributs projetés.
+	 */
+	void orderDistinct(final String[] fields) {
+	    if (this.after != null) {
+		throw new UnsupportedOperationException(
+			"Pagination par clé d'une projection DISTINCT "
+				+ "non supportée.");
+	    }
+	    if (!isPaged()) {
+		return;
+	    }
+	    for (String field : fields) {
+		if (!this.ORDER.contains(field)) {
+		    this.ORDER.add(field);
+		    this.DESCENDING.add(Boolean.FALSE);
+		}
+	    }
+	}
+    }
+
+    public static class CreateTableClause<T extends Entity<?>> extends
+	    Query<Boolean> {
+	private final Class<T> source;
+
+	private CreateTableClause(final Class<T> source) {
+	    super(null);
+	    this.source = source;
+	}
+
+	Class<T> getSourceClass() {
+	    return this.source;
+	}
+
+	@Override
+	public Boolean execute() {
+	    return Entity.getDao(this.source).createTable();
+	}
+    }
+
+    public static class DropTableClause<T extends Entity<?>> extends
+	    Query<Boolean> {
+	private final Class<T> cible;
+	private final boolean ifExists;
+
+	private DropTableClause(final Class<T> cible, boolean ifexists) {
+	    super(null);
+	    this.cible = cible;
+	    this.ifExists = ifexists;
+	}
+
+	Class<T> getSourceClass() {
+	    return this.cible;
+	}
+
+	@Override
+	public Boolean execute() {
+	    if (ifExists) {
+		return Entity.getDao(this.cible).dropTableIfExists();
+	    } else {
+		throw new UnsupportedOperationException();
+	    }
+	}
+    }
+
+    public static <T extends Entity<?>> CreateTableClause<T> createTable(
+	    final Class<T> source) {
+	return new CreateTableClause<T>(source);
+    }
+
+    public static <T extends Entity<?>> FromClause<List<T>> select(
+	    final Class<T> result) {
+	return new SelectClause<T>(result, false).fromIt();
+    }
+
+    public static <T extends Entity<?>> FromClause<List<T>> selectDistinct(
+	    final Class<T> result) {
+	return new SelectClause<T>(result, true).fromIt();
+    }
+
+    public static <T extends Entity<?>> UpdateClause<T> update(Class<T> classe) {
+	return new UpdateClause<T>(classe);
+    }
+
+    public static <T extends Entity<?>> DeleteClause<T> delete(Class<T> classe) {
+	return new DeleteClause<T>(classe);
+    }
+
+    public static <T extends Entity<?>> DropTableClause<T> dropTableIfExists(
+	    final Class<T> cible) {
+	return new DropTableClause<T>(cible, true);
+    }
+    
+    public static <T extends Entity<T>> int delete(T objet) {
+	return objet.getDao().remove(objet);
+    }
+    
+    public static <T extends Entity<T>> int update(T objet) {
+	return objet.getDao().update(objet);
+    }
+
+    public static List<Object> runBatch(List<Query> batch) {
+	ArrayList<Object> result = new ArrayList<Object>(batch.size());
+	// Do a more powerful implementation
+	for (Query q : batch) {
+	    result.add(q.execute());
+	}
+	return result;
+    }
+
+    public static <T extends Entity<?>> void updateAll(List<T> objet) {
+	if (objet == null || objet.isEmpty()) {
+	    return;
+	}
+	// Check if T == get(0).getClass()
+	Class<T> classe = (Class<T>) objet.get(0).getClass();
+	Entity.getDao(classe).updateAll(objet);
+    }
+
+    public static <T extends Entity<T>> List<T> search(final T modele) {
+	return modele.getDao().search(modele);
+    }
+
+    /**
+     * Recherche paresseuse des occurences correspondant au modèle. Le
+     * {@link Cursor} doit être fermé s'il n'est pas lu jusqu'au bout.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return {@link Cursor} sur les résultats.
+     */
+    public static <T extends Entity<T>> Cursor<T> stream(final T modele) {
+	return modele.getDao().stream(modele);
+    }
+
+    public static <T extends Entity<T>> T search(Class<T> classe, int id) {
+	try {
+	    T modele = classe.newInstance();
+	    modele.setId(id);
+	    return Queries.findFirst(modele);
+	} catch (Exception e) {
+	    e.printStackTrace();
+	    return null;
+	}
+    }
+
+    /**
+     * Nombre d'occurences correspondant au modèle, sans les charger.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return Nombre d'occurences.
+     */
+    public static <T extends Entity<T>> long count(final T modele) {
+	return modele.getDao().count(modele);
+    }
+
+    /**
+     * Existence d'une occurence correspondant au modèle.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return {@code true} si au moins une occurence existe.
+     */
+    public static <T extends Entity<T>> boolean exists(final T modele) {
+	return modele.getDao().exists(modele);
+    }
+
+    /**
+     * Première occurence correspondant au modèle, seule chargée.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @return L'occurence, {@code null} si aucune.
+     */
+    public static <T extends Entity<T>> T findFirst(final T modele) {
+	return modele.getDao().findFirst(modele);
+    }
+
+    /**
+     * Somme d'un attribut numérique des occurences correspondant au modèle.
+     * 
+     * @return Somme, {@code null} si aucune valeur.
+     */
+    public static <T extends Entity<T>> Number sum(final T modele,
+	    final String field) {
+	return (Number) modele.getDao().aggregate(Aggregate.SUM, field, modele);
+    }
+
+    /**
+     * Moyenne d'un attribut numérique des occurences correspondant au
+     * modèle.
+     * 
+     * @return Moyenne, {@code null} si aucune valeur.
+     */
+    public static <T extends Entity<T>> Double avg(final T modele,
+	    final String field) {
+	Number avg = (Number) modele.getDao().aggregate(Aggregate.AVG, field,
+		modele);
+	return avg == null ? null : Double.valueOf(avg.doubleValue());
+    }
+
+    /**
+     * Plus petite valeur d'un attribut des occurences correspondant au
+     * modèle.
+     * 
+     * @return Minimum, {@code null} si aucune valeur.
+     */
+    public static <T extends Entity<T>> Object min(final T modele,
+	    final String field) {
+	return modele.getDao().aggregate(Aggregate.MIN, field, modele);
+    }
+
+    /**
+     * Plus grande valeur d'un attribut des occurences correspondant au
+     * modèle.
+     * 
+     * @return Maximum, {@code null} si aucune valeur.
+     */
+    public static <T extends Entity<T>> Object max(final T modele,
+	    final String field) {
+	return modele.getDao().aggregate(Aggregate.MAX, field, modele);
+    }
+
+    /**
+     * Agrégat par valeur d'un attribut des occurences correspondant au
+     * modèle, par exemple le nombre de personnes par nom :
+     * {@code groupBy(modele, "nom", Aggregate.COUNT, null)}.
+     * 
+     * @param modele
+     *            Modèle de recherche.
+     * @param field
+     *            Attribut de regroupement.
+     * @param function
+     *            Fonction d'agrégat.
+     * @param aggregated
+     *            Attribut agrégé, {@code null} pour compter les occurences.
+     * @return Agrégat par valeur, triés par valeur.
+     */
+    public static <T extends Entity<T>> Map<Object, Object> groupBy(
+	    final T modele, final String field, final Aggregate function,
+	    final String aggregated) {
+	return modele.getDao().groupBy(field, function, aggregated, modele);
+    }
+    
+    public static void beginTran() throws SQLException {
+	AccesBdd.bindConnection().setAutoCommit(false);
+    }
+    
+    public static void commit() throws SQLException {
+	boolean committed = false;
+	try {
+	    AccesBdd.bindConnection().commit();
+	    committed = true;
+	    AccesBdd.bindConnection().setAutoCommit(true);
+	} finally {
+	    try {
+		Invalidations.endTransaction(committed);
+	    } finally {
+		AccesBdd.unbindConnection();
+	    }
+	}
+    }
+    
+    public static void rollback() throws SQLException {
+	try {
+	    AccesBdd.bindConnection().rollback();
+	    AccesBdd.bindConnection().setAutoCommit(true);
+	} finally {
+	    try {
+		Invalidations.endTransaction(false);
+	    } finally {
+		AccesBdd.unbindConnection();
+	    }
+	}
+    }
+    
+    public static void setUseCache(boolean use) {
+	Queries.useCache = use;
+    }
+
+    /**
+     * Query cache statistics of an entity.
+     * 
+     * @param classe
+     *            Entity {@link Class}.
+     * @return Statistics summary, {@code null} if the entity is not annotated
+     *         {@link org.simplelib.simplepersist.annotation.QueryCache}.
+     */
+    public static CacheStatistics getCacheStatistics(
+	    Class<? extends Entity<?>> classe) {
+	return Entity.getDao(classe).getCacheStatistics();
+    }
+
+    /**
+     * Operations statistics of an entity, also registered as the MXBean
+     * {@code org.simplelib.simplepersist:type=DaoStats,name="<class>"}.
+     * 
+     * @param classe
+     *            Entity {@link Class}.
+     * @return Live statistics.
+     */
+    public static DaoStatsMXBean getDaoStats(
+	    Class<? extends Entity<?>> classe) {
+	return ((AbstractDao<?>) Entity.getDao(classe)).STATS;
+    }
+
+    /**
+     * Set the bus exchanging cache invalidations with the other JVMs using
+     * the same database: the writes are published to the peers, and their
+     * writes invalidate the local caches.
+     * 
+     * @param bus
+     *            Invalidation bus, {@code null} for none.
+     * @see SocketInvalidationBus
+     */
+    public static void setInvalidationBus(InvalidationBus bus) {
+	Invalidations.setBus(bus);
+    }
+
+    /**
+     * Set the number of results kept by the DSL query cache, shared by all
+     * the entities. Only the queries reading entities annotated
+     * {@link org.simplelib.simplepersist.annotation.QueryCache} are cached.
+     * 
+     * @param size
+     *            Maximal number of results, 0 to disable the cache.
+     */
+    public static void setSelectCacheSize(int size) {
+	if (size < 0) {
+	    throw new IllegalArgumentException("Invalid cache size: " + size);
+	}
+	Queries.selectCacheSize = size;
+	SqlDao.setSelectCacheSize(size);
+    }
+
+    /**
+     * DSL query cache statistics.
+     * 
+     * @return Statistics summary, {@code null} if the cache is disabled.
+     */
+    public static CacheStatistics getSelectCacheStatistics() {
+	return SqlDao.getSelectCacheStatistics();
+    }
+
+    /**
+     * Set the maximal number of rows sent in one JDBC batch by multiple
+     * inserts and updates.
+     * 
+     * @param size
+     *            Rows by batch.
+     */
+    public static void setBatchSize(int size) {
+	if (size < 1) {
+	    throw new IllegalArgumentException("Invalid batch size: " + size);
+	}
+	Queries.batchSize = size;
+    }
+
+    /**
+     * Set the number of rows fetched by round trip by the cursors returned
+     * by {@code stream} methods.
+     * 
+     * @param size
+     *            Rows by fetch.
+     */
+    public static void setFetchSize(int size) {
+	if (size < 1) {
+	    throw new IllegalArgumentException("Invalid fetch size: " + size);
+	}
+	Queries.fetchSize = size;
+    }
+
+    public static <T extends Entity<T>> void insert(T objet) {
+	objet.getDao().add(objet);
+    }
+
+    public static <T extends Entity<T>> void insertAll(List<T> objet) {
+	if (objet == null || objet.isEmpty()) {
+	    return;
+	}
+	// Check if T == get(0).getClass()
+	objet.get(0).getDao().addAll(objet);
+    }
+
+    // TODO Disabled method for uniformity. Maybe later.
+    // public static <T extends Entity<?>> SetClause<T, Integer> updateAndSet(T
+    // value) {
+    // return new UpdateClause<T>((Class<T>) value.getClass()).set(value);
+    // }
+
+    private Queries() {
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of query results, evicting an entry not used recently beyond
+ * its maximal size. Entries can also expire after a time to live.
+ * <p>
+ * Keys must be immutable value fingerprints of the query (model values,
+ * SQL and parameters...). Thread-safe: reads take no lock and only mark the
+ * entry as used, the least recently used order being approximated by a
+ * CLOCK (second chance) hand over the entries at eviction. Writes are
+ * serialized on the cache monitor, which callers may hold to make a check
+ * atomic with a {@link #put(Object, Object)}.
+ * </p>
+ *
+ * @author simplelib.org
+ *
+ * @param <K>
+ *            Key type.
+ * @param <V>
+ *            Result type.
+ */
+final class QueryResultCache<K, V> {
+    private static final class CachedResult<V> {
+	private final V RESULT;
+	/** Expiration date in ns, 0 if none. */
+	private final long EXPIRES;
+	/** Read since the clock hand last passed. */
+	private volatile boolean referenced;
+
+	private CachedResult(final V result, final long expires) {
+	    this.RESULT = result;
+	    this.EXPIRES = expires;
+	}
+    }
+
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+    private static final int EVICTIONS = 2;
+
+    private final int MAX_ENTRIES;
+    /** Time to live in ns, 0 if none. */
+    private final long TTL;
+    private final ConcurrentHashMap<K, CachedResult<V>> entries;
+    private final StripedCounters COUNTERS = new StripedCounters(3);
+
+    /** Clock hand, guarded by the cache monitor. */
+    private Iterator<K> hand;
+
+    /**
+     * @param maxEntries
+     *            Maximal number of entries.
+     * @param ttlSeconds
+     *            Time to live of an entry in s, 0 for no expiration.
+     */
+    QueryResultCache(final int maxEntries, final long ttlSeconds) {
+	if (maxEntries < 1) {
+	    throw new IllegalArgumentException("Invalid cache size: "
+		    + maxEntries);
+	}
+	this.MAX_ENTRIES = maxEntries;
+	this.TTL = ttlSeconds * 1000000000L;
+	this.entries = new ConcurrentHashMap<K, CachedResult<V>>(Math.min(
+		maxEntries, 1024) * 4 / 3 + 1);
+    }
+
+    /**
+     * Cached result.
+     *
+     * @param key
+     *            Query fingerprint.
+     * @return Result, {@code null} if absent or expired.
+     */
+    V get(final K key) {
+	CachedResult<V> cached = this.entries.get(key);
+	if (cached != null && cached.EXPIRES != 0
+		&& System.nanoTime() - cached.EXPIRES > 0) {
+	    if (this.entries.remove(key, cached)) {
+		this.COUNTERS.increment(EVICTIONS);
+	    }
+	    cached = null;
+	}
+	if (cached == null) {
+	    this.COUNTERS.increment(MISSES);
+	    return null;
+	}
+	// Written once per hand pass, not at every hit.
+	if (!cached.referenced) {
+	    cached.referenced = true;
+	}
+	this.COUNTERS.increment(HITS);
+	return cached.RESULT;
+    }
+
+    synchronized void put(final K key, final V result) {
+	putExpiring(key, result, this.TTL);
+    }
+
+    /**
+     * Cache a result with its own time to live.
+     *
+     * @param ttlSeconds
+     *            Time to live in s, 0 for the cache default.
+     */
+    synchronized void put(final K key, final V result, final int ttlSeconds) {
+	putExpiring(key, result, ttlSeconds == 0 ? this.TTL
+		: ttlSeconds * 1000000000L);
+    }
+
+    private void putExpiring(final K key, final V result, final long ttl) {
+	this.entries.put(key, new CachedResult<V>(result, ttl == 0 ? 0
+		: System.nanoTime() + ttl));
+	if (this.entries.size() > this.MAX_ENTRIES) {
+	    evict();
+	}
+    }
+
+    /**
+     * Eviction down to the maximal size: the hand gives a second chance to
+     * the entries read since its last pass and removes the first other one.
+     * After two full passes without victim, entries are removed regardless.
+     */
+    private void evict() {
+	int scanned = 0;
+	while (this.entries.size() > this.MAX_ENTRIES) {
+	    if (this.hand == null || !this.hand.hasNext()) {
+		this.hand = this.entries.keySet().iterator();
+		if (!this.hand.hasNext()) {
+		    return;
+		}
+	    }
+	    K key = this.hand.next();
+	    CachedResult<V> cached = this.entries.get(key);
+	    if (cached == null) {
+		continue;
+	    } else if (cached.referenced && scanned++ < 2 * this.MAX_ENTRIES) {
+		cached.referenced = false;
+	    } else if (this.entries.remove(key, cached)) {
+		this.COUNTERS.increment(EVICTIONS);
+	    }
+	}
+    }
+
+    synchronized void remove(final K key) {
+	if (this.entries.remove(key) != null) {
+	    this.COUNTERS.increment(EVICTIONS);
+	}
+    }
+
+    /** Remove all the entries. */
+    synchronized void clear() {
+	Iterator<CachedResult<V>> it = this.entries.values().iterator();
+	int removed = 0;
+	while (it.hasNext()) {
+	    it.next();
+	    it.remove();
+	    ++removed;
+	}
+	this.COUNTERS.add(EVICTIONS, removed);
+    }
+
+    /**
+     * Selection of the entries to invalidate.
+     *
+     * @param <K>
+     *            Key type.
+     * @param <V>
+     *            Result type.
+     */
+    static interface Filter<K, V> {
+	boolean accept(K key, V result);
+    }
+
+    /**
+     * Remove the entries accepted by a filter, called with the cache lock
+     * held.
+     *
+     * @param filter
+     *            Entries to remove.
+     * @return Removed entries count.
+     */
+    synchronized int removeIf(final Filter<? super K, ? super V> filter) {
+	if (this.entries.isEmpty()) {
+	    return 0;
+	}
+	int removed = 0;
+	// Keys then values: entrySet() allocates an entry per element.
+	for (K key : this.entries.keySet()) {
+	    CachedResult<V> cached = this.entries.get(key);
+	    if (cached != null && filter.accept(key, cached.RESULT)
+		    && this.entries.remove(key, cached)) {
+		++removed;
+	    }
+	}
+	this.COUNTERS.add(EVICTIONS, removed);
+	return removed;
+    }
+
+    int size() {
+	return this.entries.size();
+    }
+
+    long getHits() {
+	return this.COUNTERS.get(HITS);
+    }
+
+    long getMisses() {
+	return this.COUNTERS.get(MISSES);
+    }
+
+    long getEvictions() {
+	return this.COUNTERS.get(EVICTIONS);
+    }
+}
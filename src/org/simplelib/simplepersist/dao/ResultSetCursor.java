@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link Cursor} over an open {@link ResultSet}. The statement, the result
+ * set and the connection are released on close or when the last row has been
+ * read.
+ *
+ * @author simplelib.org
+ *
+ * @param <T>
+ *            Entity type.
+ */
+final class ResultSetCursor<T extends Entity<?>> implements Cursor<T> {
+    private final Connection CONNECTION;
+    private final Statement STATEMENT;
+    private final ResultSet RESULT_SET;
+    private final RowMapper<T> MAPPER;
+    /** Statistics of the owner DAO. */
+    private final DaoStats STATS;
+    /** Auto-commit disabled for the cursor, to restore on close. */
+    private final boolean RESTORE_AUTO_COMMIT;
+    /** Next row read and not yet returned. */
+    private boolean ahead;
+    private boolean closed;
+
+    /**
+     * @param connection
+     *            Borrowed {@link Connection}, released on close.
+     * @param statement
+     *            Uncached {@link Statement}, closed on close.
+     * @param rs
+     *            Open {@link ResultSet}.
+     * @param mapper
+     *            Row mapper.
+     * @param stats
+     *            Statistics counting the rows read.
+     * @param restoreAutoCommit
+     *            Auto-commit to restore on close.
+     */
+    ResultSetCursor(final Connection connection, final Statement statement,
+	    final ResultSet rs, final RowMapper<T> mapper,
+	    final DaoStats stats, final boolean restoreAutoCommit) {
+	this.CONNECTION = connection;
+	this.STATEMENT = statement;
+	this.RESULT_SET = rs;
+	this.MAPPER = mapper;
+	this.STATS = stats;
+	this.RESTORE_AUTO_COMMIT = restoreAutoCommit;
+    }
+
+    @Override
+    public boolean hasNext() {
+	if (this.closed) {
+	    return false;
+	}
+	if (!this.ahead) {
+	    try {
+		this.ahead = this.RESULT_SET.next();
+	    } catch (SQLException e) {
+		close();
+		AccesBdd.LOGGER.severe("Echec de la lecture du curseur.");
+		throw new RuntimeException(e);
+	    }
+	    if (!this.ahead) {
+		close();
+	    }
+	}
+	return this.ahead;
+    }
+
+    @Override
+    public T next() {
+	if (!hasNext()) {
+	    throw new NoSuchElementException();
+	}
+	this.ahead = false;
+	try {
+	    T entity = this.MAPPER.map(this.RESULT_SET);
+	    this.STATS.hydrated(1);
+	    return entity;
+	} catch (SQLException e) {
+	    close();
+	    AccesBdd.LOGGER.severe("Echec de la lecture du curseur.");
+	    throw new RuntimeException(e);
+	}
+    }
+
+    @Override
+    public void remove() {
+	throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+	return this;
+    }
+
+    @Override
+    public void close() {
+	if (this.closed) {
+	    return;
+	}
+	this.closed = true;
+	this.ahead = false;
+	try {
+	    this.RESULT_SET.close();
+	} catch (SQLException e) {
+	    AccesBdd.LOGGER.warning("Echec de la fermeture du curseur.");
+	}
+	AccesBdd.closeStatement(this.STATEMENT);
+	if (this.RESTORE_AUTO_COMMIT) {
+	    try {
+		// Read only transaction
+		this.CONNECTION.rollback();
+		this.CONNECTION.setAutoCommit(true);
+	    } catch (SQLException e) {
+		AccesBdd.LOGGER.warning("Echec du retour en auto-commit.");
+	    }
+	}
+	AccesBdd.releaseConnection(this.CONNECTION);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.lang.invoke.MethodHandle;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Precompiled mapping of a {@link ResultSet} row to an entity.
+ * <p>
+ * Column indices and typed getters are resolved once when the mapper is
+ * built, so hydrating a row is a straight sequence of typed reads and
+ * writes. Sub-entities are mapped by nested mappers, their id column being
+ * absent from the row.
+ * </p>
+ *
+ * @author simplelib.org
+ *
+ * @param <T>
+ *            Entity type.
+ */
+final class RowMapper<T extends Entity<?>> {
+    /** Typed column reads. */
+    private static enum Reader {
+	INT, INTEGER, DOUBLE, DOUBLE_OBJECT, BOOLEAN, BOOLEAN_OBJECT, CHAR,
+	CHARACTER, STRING, TIMESTAMP, DATE, OBJECT, ENTITY;
+
+	static Reader of(final FieldAccessor accessor) {
+	    Class<?> type = accessor.TYPE;
+	    switch (accessor.KIND) {
+	    case INT:
+		return INT;
+	    case DOUBLE:
+		return DOUBLE;
+	    case BOOLEAN:
+		return BOOLEAN;
+	    case CHAR:
+		return CHAR;
+	    case ENTITY:
+		return ENTITY;
+	    default:
+		if (type == Integer.class) {
+		    return INTEGER;
+		} else if (type == Double.class) {
+		    return DOUBLE_OBJECT;
+		} else if (type == Boolean.class) {
+		    return BOOLEAN_OBJECT;
+		} else if (type == Character.class) {
+		    return CHARACTER;
+		} else if (type == String.class) {
+		    return STRING;
+		} else if (type == Timestamp.class) {
+		    return TIMESTAMP;
+		} else if (type == Date.class) {
+		    return DATE;
+		}
+		return OBJECT;
+	    }
+	}
+    }
+
+    /** ()Object constructor. */
+    private final MethodHandle CONSTRUCTOR;
+    private final FieldAccessor[] ACCESSORS;
+    private final Reader[] READERS;
+    /** Column index of each field, 0 for sub-entities. */
+    private final int[] COLUMNS;
+    /** Mapper of each sub-entity field. */
+    private final RowMapper<?>[] SUB_MAPPERS;
+    /** Number of columns read. */
+    final int COLUMN_COUNT;
+
+    /**
+     * Build the mapper of an entity class.
+     *
+     * @param classe
+     *            Entity {@link Class}.
+     * @param firstColumn
+     *            Index of the first column read.
+     * @param withId
+     *            Read the id column.
+     */
+    RowMapper(final Class<T> classe, final int firstColumn,
+	    final boolean withId) {
+	this.CONSTRUCTOR = Entity.getConstructor(classe);
+	if (this.CONSTRUCTOR == null) {
+	    throw new IllegalStateException(classe.getName()
+		    + " has no constructor without parameter.");
+	}
+	FieldAccessor[] all = Entity.getAccessors(classe);
+	int first = withId ? 0 : 1; // Sub-entities: id removing hack
+	int count = all.length - first;
+	this.ACCESSORS = new FieldAccessor[count];
+	this.READERS = new Reader[count];
+	this.COLUMNS = new int[count];
+	this.SUB_MAPPERS = new RowMapper<?>[count];
+	int column = firstColumn;
+	for (int i = 0; i < count; ++i) {
+	    FieldAccessor accessor = all[i + first];
+	    this.ACCESSORS[i] = accessor;
+	    this.READERS[i] = Reader.of(accessor);
+	    if (this.READERS[i] == Reader.ENTITY) {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		RowMapper<?> sub = new RowMapper(accessor.TYPE, column, false);
+		this.SUB_MAPPERS[i] = sub;
+		column += sub.COLUMN_COUNT;
+	    } else {
+		this.COLUMNS[i] = column++;
+	    }
+	}
+	this.COLUMN_COUNT = column - firstColumn;
+    }
+
+    /**
+     * Hydrate a new entity from the current row.
+     *
+     * @param rs
+     *            {@link ResultSet} positionned on a row.
+     * @return New entity.
+     * @throws SQLException
+     *             Read error.
+     */
+    @SuppressWarnings("unchecked")
+    T map(final ResultSet rs) throws SQLException {
+	final T entity;
+	try {
+	    entity = (T) (Object) this.CONSTRUCTOR.invokeExact();
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Throwable t) {
+	    throw new RuntimeException(t);
+	}
+	for (int i = 0; i < this.ACCESSORS.length; ++i) {
+	    final FieldAccessor accessor = this.ACCESSORS[i];
+	    final int column = this.COLUMNS[i];
+	    switch (this.READERS[i]) {
+	    case INT:
+		accessor.setInt(entity, rs.getInt(column));
+		break;
+	    case INTEGER:
+		int intValue = rs.getInt(column);
+		accessor.set(entity, rs.wasNull() ? null : Integer
+			.valueOf(intValue));
+		break;
+	    case DOUBLE:
+		accessor.setDouble(entity, rs.getDouble(column));
+		break;
+	    case DOUBLE_OBJECT:
+		double doubleValue = rs.getDouble(column);
+		accessor.set(entity, rs.wasNull() ? null : Double
+			.valueOf(doubleValue));
+		break;
+	    case BOOLEAN:
+		accessor.setBoolean(entity, rs.getBoolean(column));
+		break;
+	    case BOOLEAN_OBJECT:
+		boolean boolValue = rs.getBoolean(column);
+		accessor.set(entity, rs.wasNull() ? null : Boolean
+			.valueOf(boolValue));
+		break;
+	    case CHAR:
+		String chars = rs.getString(column);
+		accessor.setChar(entity,
+			chars == null || chars.isEmpty() ? '\00' : chars
+				.charAt(0));
+		break;
+	    case CHARACTER:
+		String character = rs.getString(column);
+		accessor.set(entity,
+			character == null || character.isEmpty() ? null
+				: Character.valueOf(character.charAt(0)));
+		break;
+	    case STRING:
+		accessor.set(entity, rs.getString(column));
+		break;
+	    case TIMESTAMP:
+		accessor.set(entity, rs.getTimestamp(column));
+		break;
+	    case DATE:
+		accessor.set(entity, rs.getDate(column));
+		break;
+	    case ENTITY:
+		accessor.set(entity, this.SUB_MAPPERS[i].map(rs));
+		break;
+	    default:
+		accessor.set(entity, rs.getObject(column));
+	    }
+	}
+	return entity;
+    }
+}
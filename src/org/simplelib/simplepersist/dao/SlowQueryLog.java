@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.simplelib.simplepersist.dao;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log of the statements slower than a threshold, written at
+ * {@link Level#WARNING} on the {@code dao.slow} logger.
+ * <p>
+ * Each entry gives the elapsed time since the DAO call (connection wait
+ * included), the rows read or written, the entity, the SQL template and the
+ * bound values, possibly redacted. Disabled by default: a disabled log costs
+ * one volatile read by statement, nothing is formatted.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+final class SlowQueryLog {
+    static final Logger LOGGER = Logger.getLogger("dao.slow");
+    /** Longest value logged, in characters. */
+    private static final int MAX_VALUE_LENGTH = 64;
+
+    /** Threshold in ns, negative if disabled. */
+    private static volatile long thresholdNanos = -1;
+    /** Log the types of the values instead of the values. */
+    private static volatile boolean redactValues;
+
+    private SlowQueryLog() {
+    }
+
+    /**
+     * @param thresholdMillis
+     *            Threshold in ms, negative to disable the log.
+     * @param redact
+     *            Hide the bound values.
+     */
+    static void configure(final long thresholdMillis, final boolean redact) {
+	redactValues = redact;
+	thresholdNanos = thresholdMillis < 0 ? -1 : thresholdMillis * 1000000L;
+    }
+
+    /** @return {@code true} if statements are timed. */
+    static boolean isEnabled() {
+	return thresholdNanos >= 0;
+    }
+
+    /**
+     * Log a statement if slower than the threshold.
+     * 
+     * @param entity
+     *            Entity read or written.
+     * @param sql
+     *            SQL template.
+     * @param values
+     *            Bound values, {@code null} if not known (batches).
+     * @param skipNulls
+     *            Null values are not bound (search models).
+     * @param start
+     *            {@link System#nanoTime()} at the start of the call.
+     * @param rows
+     *            Rows read or written, negative if not known.
+     */
+    static void executed(final Class<?> entity, final String sql,
+	    final List<?> values, final boolean skipNulls, final long start,
+	    final int rows) {
+	final long threshold = thresholdNanos;
+	if (threshold < 0) {
+	    return;
+	}
+	final long elapsed = System.nanoTime() - start;
+	if (elapsed < threshold || !LOGGER.isLoggable(Level.WARNING)) {
+	    return;
+	}
+	StringBuilder msg = new StringBuilder(sql.length() + 128);
+	msg.append("Slow query (").append(elapsed / 1000000L).append(" ms");
+	if (rows >= 0) {
+	    msg.append(", ").append(rows).append(" rows");
+	}
+	msg.append(") on ").append(entity.getName()).append(": ").append(sql);
+	if (values != null) {
+	    appendValues(msg, values, skipNulls);
+	}
+	LOGGER.warning(msg.toString());
+    }
+
+    private static void appendValues(final StringBuilder msg,
+	    final List<?> values, final boolean skipNulls) {
+	final boolean redact = redactValues;
+	msg.append(" [");
+	boolean first = true;
+	for (Object value : values) {
+	    if (value == null && skipNulls) {
+		continue;
+	    }
+	    if (!first) {
+		msg.append(", ");
+	    }
+	    first = false;
+	    if (value == null) {
+		msg.append("NULL");
+	    } else if (redact) {
+		msg.append('<').append(value.getClass().getSimpleName())
+			.append('>');
+	    } else if (value instanceof String) {
+		String s = (String) value;
+		msg.append('\'');
+		if (s.length() > MAX_VALUE_LENGTH) {
+		    msg.append(s, 0, MAX_VALUE_LENGTH).append("...");
+		} else {
+		    msg.append(s);
+		}
+		msg.append('\'');
+	    } else {
+		msg.append(value);
+	    }
+	}
+	msg.append(']');
+    }
+
+    /**
+     * Elapsed time for the error messages.
+     * 
+     * @param start
+     *            {@link System#nanoTime()} at the start of the call.
+     * @return " (<i>n</i> ms)".
+     */
+    static String elapsed(final long start) {
+	return " (" + (System.nanoTime() - start) / 1000000L + " ms)";
+    }
+}
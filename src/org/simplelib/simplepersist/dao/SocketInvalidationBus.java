@@ -0,0 +1,319 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TCP {@link InvalidationBus}: each node listens on a port and sends its
+ * publications to the listening port of each peer.
+ * <p>
+ * A message is the table name ({@link DataOutputStream#writeUTF(String)}),
+ * the ids count ({@code -1} for the whole table) and the ids, an empty table
+ * name invalidating all the tables. Publication is synchronous: an
+ * unreachable peer is skipped for {@link #RETRY_DELAY} ms before
+ * reconnecting. As the publications skipped or lost with a broken connection
+ * are unknown, the next connection to the peer starts with the invalidation
+ * of all the tables, and a node invalidates all its tables when a connection
+ * from a peer drops.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+public final class SocketInvalidationBus implements InvalidationBus {
+    static final Logger LOGGER = AccesBdd.LOGGER;
+    /** Delay in ms before reconnecting to an unreachable peer. */
+    static final long RETRY_DELAY = 5000;
+    /** Connection timeout in ms. */
+    private static final int CONNECT_TIMEOUT = 1000;
+    /** Table name of the invalidation of all the tables. */
+    private static final String ALL_TABLES = "";
+
+    private final ServerSocket SERVER;
+    private final InetSocketAddress[] PEERS;
+    /** Connections to the peers, {@code null} if not connected. */
+    private final Socket[] sockets;
+    private final DataOutputStream[] outputs;
+    /** Next connection attempt by peer, in ms. */
+    private final long[] retryAt;
+    /** Publications skipped or possibly lost since the last connection. */
+    private final boolean[] lost;
+    /** Connections accepted from the peers. */
+    private final Set<Socket> accepted = Collections
+	    .synchronizedSet(Collections
+		    .newSetFromMap(new IdentityHashMap<Socket, Boolean>()));
+    private volatile Listener listener;
+    private volatile boolean closed;
+
+    /**
+     * Listen on the loopback interface.
+     *
+     * @param port
+     *            Listening port, 0 for any free port.
+     * @param peers
+     *            Listening addresses of the peers.
+     * @throws IOException
+     *             Listening error.
+     */
+    public SocketInvalidationBus(final int port,
+	    final InetSocketAddress... peers) throws IOException {
+	this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+		peers);
+    }
+
+    /**
+     * @param bind
+     *            Listening address.
+     * @param peers
+     *            Listening addresses of the peers.
+     * @throws IOException
+     *             Listening error.
+     */
+    public SocketInvalidationBus(final InetSocketAddress bind,
+	    final InetSocketAddress... peers) throws IOException {
+	this.SERVER = new ServerSocket();
+	this.SERVER.setReuseAddress(true);
+	this.SERVER.bind(bind);
+	this.PEERS = peers.clone();
+	this.sockets = new Socket[peers.length];
+	this.outputs = new DataOutputStream[peers.length];
+	this.retryAt = new long[peers.length];
+	this.lost = new boolean[peers.length];
+	Thread acceptor = new Thread("simplepersist-invalidation-"
+		+ getPort()) {
+	    @Override
+	    public void run() {
+		accept();
+	    }
+	};
+	acceptor.setDaemon(true);
+	acceptor.start();
+    }
+
+    /** @return Listening port. */
+    public int getPort() {
+	return this.SERVER.getLocalPort();
+    }
+
+    private void accept() {
+	while (!this.closed) {
+	    final Socket socket;
+	    try {
+		socket = this.SERVER.accept();
+	    } catch (IOException e) {
+		if (!this.closed) {
+		    LOGGER.warning("Invalidation bus: accept failed: " + e);
+		}
+		return;
+	    }
+	    this.accepted.add(socket);
+	    Thread reader = new Thread("simplepersist-invalidation-reader") {
+		@Override
+		public void run() {
+		    read(socket);
+		}
+	    };
+	    reader.setDaemon(true);
+	    reader.start();
+	}
+    }
+
+    private void read(final Socket socket) {
+	try {
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(
+		    socket.getInputStream()));
+	    while (true) {
+		String table = in.readUTF();
+		int count = in.readInt();
+		int[] ids = null;
+		if (count >= 0) {
+		    ids = new int[count];
+		    for (int i = 0; i < count; ++i) {
+			ids[i] = in.readInt();
+		    }
+		}
+		deliver(ALL_TABLES.equals(table) ? null : table, ids);
+	    }
+	} catch (EOFException e) {
+	    // Peer disconnected
+	} catch (IOException e) {
+	    if (!this.closed) {
+		LOGGER.warning("Invalidation bus: read failed: " + e);
+	    }
+	} finally {
+	    this.accepted.remove(socket);
+	    closeQuietly(socket);
+	    // Publications of the peer may be lost until it reconnects.
+	    if (!this.closed) {
+		deliver(null, null);
+	    }
+	}
+    }
+
+    private void deliver(final String table, final int[] ids) {
+	Listener target = this.listener;
+	if (target != null) {
+	    try {
+		target.invalidated(table, ids);
+	    } catch (RuntimeException e) {
+		LOGGER.log(Level.WARNING,
+			"Invalidation bus: invalidation failed.", e);
+	    }
+	}
+    }
+
+    @Override
+    public synchronized void publish(final String table, final int[] ids) {
+	if (this.closed) {
+	    return;
+	}
+	for (int i = 0; i < this.PEERS.length; ++i) {
+	    // Second attempt on a new connection if the old one is broken.
+	    for (int attempt = 0; attempt < 2; ++attempt) {
+		DataOutputStream out = connect(i);
+		if (out == null) {
+		    this.lost[i] = true;
+		    break;
+		}
+		try {
+		    write(out, table, ids);
+		    out.flush();
+		    break;
+		} catch (IOException e) {
+		    // Previous publications may be lost with the connection.
+		    disconnect(i);
+		    this.lost[i] = true;
+		    if (attempt > 0) {
+			LOGGER.warning("Invalidation bus: publication to "
+				+ this.PEERS[i] + " failed: " + e);
+			this.retryAt[i] = System.currentTimeMillis()
+				+ RETRY_DELAY;
+		    }
+		}
+	    }
+	}
+    }
+
+    private static void write(final DataOutputStream out, final String table,
+	    final int[] ids) throws IOException {
+	out.writeUTF(table);
+	if (ids == null) {
+	    out.writeInt(-1);
+	} else {
+	    out.writeInt(ids.length);
+	    for (int id : ids) {
+		out.writeInt(id);
+	    }
+	}
+    }
+
+    /**
+     * Connection to a peer, opened if needed, starting with the invalidation
+     * of all the tables if publications were lost. Must be called with the
+     * bus lock held.
+     *
+     * @return Output stream, {@code null} if the peer is unreachable.
+     */
+    private DataOutputStream connect(final int peer) {
+	if (this.outputs[peer] != null) {
+	    return this.outputs[peer];
+	}
+	if (System.currentTimeMillis() < this.retryAt[peer]) {
+	    return null;
+	}
+	Socket socket = new Socket();
+	try {
+	    socket.setTcpNoDelay(true);
+	    socket.connect(this.PEERS[peer], CONNECT_TIMEOUT);
+	    DataOutputStream out = new DataOutputStream(
+		    new BufferedOutputStream(socket.getOutputStream()));
+	    if (this.lost[peer]) {
+		// Sent with the next flush.
+		write(out, ALL_TABLES, null);
+		this.lost[peer] = false;
+	    }
+	    this.sockets[peer] = socket;
+	    this.outputs[peer] = out;
+	    return out;
+	} catch (IOException e) {
+	    closeQuietly(socket);
+	    LOGGER.warning("Invalidation bus: peer " + this.PEERS[peer]
+		    + " unreachable: " + e);
+	    this.retryAt[peer] = System.currentTimeMillis() + RETRY_DELAY;
+	    return null;
+	}
+    }
+
+    private void disconnect(final int peer) {
+	closeQuietly(this.sockets[peer]);
+	this.sockets[peer] = null;
+	this.outputs[peer] = null;
+    }
+
+    private static void closeQuietly(final Socket socket) {
+	if (socket != null) {
+	    try {
+		socket.close();
+	    } catch (IOException e) {
+		// Already closed
+	    }
+	}
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+	this.listener = listener;
+    }
+
+    @Override
+    public void close() {
+	this.closed = true;
+	this.listener = null;
+	try {
+	    this.SERVER.close();
+	} catch (IOException e) {
+	    LOGGER.warning("Invalidation bus: close failed: " + e);
+	}
+	synchronized (this) {
+	    for (int i = 0; i < this.PEERS.length; ++i) {
+		disconnect(i);
+	    }
+	}
+	synchronized (this.accepted) {
+	    for (Socket socket : this.accepted) {
+		closeQuietly(socket);
+	    }
+	}
+    }
+}
@@ -1,767 +1,1997 @@
-/*
- * Copyright 2012 simplelib.org
- * 
- * This file is part of SimplePersist.
- * 
- * SimplePersist is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * SimplePersist is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.simplelib.simplepersist.dao;
-
-import java.io.IOException;
-import java.lang.reflect.Field;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import org.simplelib.simplepersist.annotation.Column;
-import org.simplelib.simplepersist.annotation.Index;
-import org.simplelib.simplepersist.annotation.PrimaryKey;
-import org.simplelib.simplepersist.annotation.Table;
-import org.simplelib.simplepersist.dao.Queries.FromClause;
-import org.simplelib.simplepersist.dao.Queries.JoinClause;
-import org.simplelib.simplepersist.dao.Queries.OnClause;
-import org.simplelib.simplepersist.dao.Queries.Query;
-import org.simplelib.simplepersist.dao.Queries.SelectClause;
-import org.simplelib.simplepersist.dao.Queries.WhereClause;
-import org.simplelib.simplepersist.dao.TableDescription.ColumnDescription;
-import org.simplelib.simplepersist.dao.TableDescription.SqlProp;
-
-/**
- * Classe abstraite générique des DAO implémentant {@link IDao}. De plus des
- * méthodes de SELECT, INSERT, UPDATE et DELETE génériques sont définies ici
- * ainsi que des méthodes protégées que les DAOs doivent implémenter pour les
- * faire fonctionner.
- * 
- * Dans cet DAO chaque accès requiert un accès à la base de donnée.
- * 
- * @author simplelib.org
- * @version 1.0b
- * @param <T>
- *            Interface publique de l'objet métier géré.
- */
-class SqlDao<T extends Entity<?>> extends AbstractDao<T> {
-    /** Generated serial version UID. */
-    private static final long serialVersionUID = 4669398660990297631L;
-    /** Acces au logger de la DAO. */
-    static final Logger LOGGER = Logger.getLogger("dao");
-
-    /**
-     * Créer la clause de tri de la table.
-     * 
-     * @param order
-     *            Colonne de tri.
-     * @return Clause ORDER BY.
-     */
-    private static String createOrderClause(final String order) {
-	if (order != "") {
-	    return " ORDER BY " + order;
-	} else {
-	    return "";
-	}
-    }
-
-    private static TableDescription getTableDesc(final List<Field> fieldListe,
-	    final Class<? extends Entity<?>> classe) {
-	PrimaryKey primAn = classe.getAnnotation(PrimaryKey.class);
-	if (classe.isAnnotationPresent(Table.class)) {
-	    List<ColumnDescription> columns = new ArrayList<ColumnDescription>(
-		    fieldListe.size());
-	    Column colAn;
-	    String name = "";
-	    SqlProp sqlProp = null;
-	    boolean index;
-	    boolean primaryKey;
-
-	    for (Field field : fieldListe) {
-		colAn = field.getAnnotation(Column.class);
-		index = field.getAnnotation(Index.class) != null;
-		primaryKey = field.isAnnotationPresent(PrimaryKeyField.class);
-
-		name = getColumnName(field, classe);
-
-		// Colonne clé primaire
-		if (primaryKey && (primAn != null)) {
-		    assert (classe == Entity.class);
-		    // sqlProp = SqlProp.valueOf("INTEGER");
-		}
-		// Colonne décrite explicitement
-		else {
-		    if (field.isAnnotationPresent(Column.class)) {
-			sqlProp = SqlProp.valueOf(colAn.type());
-		    }
-		    // Colonne auto-générée
-		    else {
-			sqlProp = SqlProp.valueOf(field.getType());
-		    }
-		}
-		columns.add(new ColumnDescription(field, name, sqlProp, index,
-			primaryKey));
-	    }
-	    return new TableDescription(getTableName(classe),
-		    columns.toArray(new ColumnDescription[0]), classe);
-	} else {
-	    IllegalArgumentException e = new IllegalArgumentException(
-		    "Tag Sql non renseigné.");
-	    LOGGER.severe(e.getMessage());
-	    throw e;
-	}
-    }
-
-    /** Requete SELECT. */
-    private final String SELECT;
-    /** Jointure NULL. */
-    private final String NULL_JOIN;
-    /** Requete DELETE. */
-    private final String DELETE;
-    /** Requete INSERT. */
-    private final String INSERT;
-    /** Requete UPDATE. */
-    private final String UPDATE;
-    /** Clause ORDER BY. */
-    private final String ORDER;
-
-    /** Le PreparedStatement de suppression d'un objet. */
-//    private final PreparedStatement DELETE_STATEMENT;
-
-    /** Nom de la table associée en BDD. */
-    private final TableDescription TABLE_DESC;
-
-    /**
-     * Construction d'une Dao de type SQL.
-     * 
-     * @param queryCache
-     *            Utilisation du cache de requêtes.
-     * @param classe
-     *            {@link Class} à persister.
-     * @param fieldList
-     *            {@link List} des {@link Field} de la {@link Class}.
-     */
-    SqlDao(boolean queryCache, final Class<T> classe,
-	    final List<Field> fieldList) {
-	super(queryCache);
-	this.TABLE_DESC = getTableDesc(fieldList, classe);
-
-	try {
-	    // SELECT
-	    StringBuilder selectBuild = new StringBuilder();
-	    selectBuild.append("SELECT ");
-	    selectBuild.append(this.TABLE_DESC.COLUMNS[0].NAME); // ID
-	    selectBuild.append(", ");
-	    appendColumnClause(selectBuild);
-	    this.SELECT = selectBuild.toString();
-
-	    // NULL JOIN
-	    this.NULL_JOIN = " FROM " + this.TABLE_DESC.NAME;
-
-	    // INSERT
-	    StringBuilder insertBuild = new StringBuilder();
-	    insertBuild.append("INSERT INTO ");
-	    insertBuild.append(this.TABLE_DESC.NAME);
-	    insertBuild.append(" (");
-	    appendColumnClause(insertBuild);
-	    insertBuild.append(")\nVALUES ");
-	    this.INSERT = insertBuild.toString();
-	} catch (final Exception e) {
-	    LOGGER.severe("Erreur lors de l'initialisation des requêtes SQL.");
-	    throw new RuntimeException(e);
-	}
-
-	this.UPDATE = "UPDATE " + this.TABLE_DESC.NAME + " SET ";
-	this.DELETE = "DELETE FROM " + this.TABLE_DESC.NAME + " WHERE id=?;";
-
-	this.ORDER = createOrderClause(""); // TODO Ajouter paramètre.
-    }
-
-    @Override
-    public int add(final T o) {
-	unCache();
-	int res = 0;
-	PreparedStatement pstmt = null;
-	final List<Object> values = o.getValues();
-	StringBuilder reqBuilder = new StringBuilder();
-
-	try {
-	    reqBuilder.append(this.INSERT);
-	    appendValuesClause(values, reqBuilder);
-	    pstmt = AccesBdd.getPreparedStatementWithGenKeys(reqBuilder
-		    .toString());
-
-	    prepareStatement(pstmt, values, 1);
-	    LOGGER.log(Level.FINEST, pstmt.toString());
-	    res = pstmt.executeUpdate();
-	    if (res == 1) {
-		ResultSet rs = pstmt.getGeneratedKeys();
-		rs.next();
-		o.setId(rs.getInt(1));
-	    }
-	} catch (Exception e) {
-	    LOGGER.severe("Echec de lors de l'insertion des données.");
-	    throw new RuntimeException(e);
-	} finally {
-	    AccesBdd.closeStatement(pstmt);
-	}
-	return res;
-    }
-
-    /**
-     * Implémentation avancée de l'insertion multiple. Offre généralement de
-     * meilleures performances que de multiples appels à
-     * {@link SqlDao#add(Entity)}.
-     */
-    @Override
-    public int addAll(final List<T> objets) {
-	unCache();
-	PreparedStatement pstmt = null;
-	StringBuilder reqBuilder = new StringBuilder();
-	List<Object> values;
-	@SuppressWarnings("unchecked")
-	List<Object>[] valuesBuffer = new List[objets.size()];
-	int result = 0;
-
-	try {
-	    T o; // Objet courant
-
-	    reqBuilder.append(this.INSERT);
-	    boolean first = true;
-	    for (int i = 0; i < objets.size(); ++i) {
-		o = objets.get(i);
-		if (!first) {
-		    reqBuilder.append(",\n");
-		} else {
-		    first = false;
-		}
-		values = o.getValues();
-		valuesBuffer[i] = values;
-		appendValuesClause(values, reqBuilder);
-	    }
-
-	    pstmt = AccesBdd.getPreparedStatementWithGenKeys(reqBuilder
-		    .toString());
-
-	    int offset = 1;
-	    for (int i = 0; i < objets.size(); ++i) {
-		o = objets.get(i);
-		values = valuesBuffer[i];
-		offset = prepareStatement(pstmt, values, offset);
-	    }
-
-	    result = pstmt.executeUpdate();
-	    for (int i = 0; i < result; ++i) {
-		o = objets.get(i);
-		ResultSet rs = pstmt.getGeneratedKeys();
-		rs.next();
-		o.setId(rs.getInt(1));
-	    }
-	} catch (Exception e) {
-	    LOGGER.severe("Echec de lors de l'insertion des données.");
-	    throw new RuntimeException(e);
-	} finally {
-	    AccesBdd.closeStatement(pstmt);
-	}
-	return result;
-    }
-
-    /**
-     * Construction de la liste des colonne.
-     * 
-     * @param seq
-     *            {@link Appendable} séquence de sortie.
-     * @throws IOException
-     *             Erreur de sortie.
-     */
-    protected void appendColumnClause(final Appendable seq) throws IOException {
-	boolean first = true;
-	for (int i = 1; i < this.TABLE_DESC.COLUMNS.length; ++i) {
-	    ColumnDescription col = this.TABLE_DESC.COLUMNS[i];
-	    if (!first) {
-		seq.append(", ");
-	    } else {
-		first = false;
-	    }
-	    seq.append(col.NAME);
-	}
-    }
-
-    /**
-     * Créer les paramètres des requêtes INSERT en fonctions de la liste des
-     * paramètres du modèle.
-     * 
-     * @param columns
-     *            Liste des colonnes de la table.
-     * @return Paramètres de la requête.
-     * @throws IOException
-     */
-    protected void appendValuesClause(final List<Object> params,
-	    final Appendable seq) throws IOException {
-	seq.append('(');
-	boolean first = true;
-	for (int i = 1; i < this.TABLE_DESC.COLUMNS.length; ++i) {
-	    if (!first) {
-		seq.append(", ");
-	    } else {
-		first = false;
-	    }
-	    if (params.get(i) != null) {
-		seq.append('?');
-	    } else {
-		seq.append("null");
-	    }
-	}
-	seq.append(')');
-    }
-
-    /**
-     * Libération des ressources de la DAO. Fermeture de tous les statements.
-     */
-    @Override
-    public void close() {
-	// DO NOTHING
-//	try {
-//	    this.DELETE_STATEMENT.close();
-//	} catch (SQLException e) {
-//	    LOGGER.severe("Echec de la fermeture de la DAO.");
-//	    throw new RuntimeException(e);
-//	}
-    }
-
-    /**
-     * Construit le corps d'un WHERE en fonction d'un tableau de clauses fourni
-     * en paramètre.
-     * 
-     * @param clauses
-     *            Le tableau de clause.
-     * @param builder
-     *            StringBuilder.
-     * @return Le corps du WHERE.
-     */
-    protected String appendWhereClause(final List<String> clauses,
-	    final StringBuilder builder) {
-	builder.append(" WHERE ");
-	if (clauses.size() > 0) {
-	    builder.append(clauses.get(0));
-	    for (int i = 1; i < clauses.size(); i++) {
-		builder.append(" AND ");
-		builder.append(clauses.get(i));
-	    }
-	} else {
-	    builder.append("1=1"); // Tout
-	}
-	builder.append(this.ORDER);
-	return builder.toString();
-    }
-
-    /**
-     * Créer les paramètres des requêtes UPDATE en fonctions de la liste des
-     * colonnes de la table.
-     * 
-     * @param columns
-     *            Liste des colonnes de la table.
-     * @return Paramètres de la requête.
-     */
-    protected String createSetClause(final List<String> clauses) {
-	StringBuilder clause = new StringBuilder();
-	if (clauses.size() > 0) {
-	    clause.append(clauses.get(0));
-	}
-	for (int i = 1; i < clauses.size(); i++) {
-	    clause.append(", ");
-	    clause.append(clauses.get(i));
-	}
-	return clause.toString();
-    };
-
-    @Override
-    public boolean createTable() {
-	StringBuilder query = new StringBuilder();
-	query.append("CREATE TABLE ");
-	query.append(this.TABLE_DESC.NAME);
-	query.append(" (\n");
-
-	try {
-	    ColumnDescription primary = null;
-	    for (ColumnDescription col : this.TABLE_DESC.COLUMNS) {
-		if (col.PRIMARY_KEY) {
-		    primary = col;
-		    AccesBdd.currentDb().getType()
-			    .appendAutomaticKey(query, col.NAME);
-		} else {
-		    query.append(col.NAME);
-		    query.append(' ');
-		    query.append(col.SQL_PROP.toString());
-		}
-		query.append(",\n");
-	    }
-	    query.append("PRIMARY KEY (");
-	    query.append(primary.NAME);
-	    query.append(")\n)");
-
-	    Statement stmt = AccesBdd.getStatement();
-	    LOGGER.finest(query.toString());
-	    stmt.addBatch(query.toString());
-	    stmt.executeBatch();
-	    stmt.close();
-	} catch (final Exception e) {
-	    LOGGER.severe("Erreur SQL lors de la création de la table : "
-		    + this.TABLE_DESC.NAME);
-	    throw new RuntimeException(e);
-	}
-	return true;
-    }
-
-    @Override
-    public boolean dropTableIfExists() {
-	StringBuilder query = new StringBuilder();
-	query.append("DROP TABLE IF EXISTS ");
-	query.append(this.TABLE_DESC.NAME);
-	query.append("");
-	Statement stmt = AccesBdd.getStatement();
-	try {
-	    LOGGER.finest(query.toString());
-	    stmt.addBatch(query.toString());
-	    stmt.executeBatch();
-	} catch (final SQLException e) {
-	    LOGGER.severe("Erreur SQL lors de la suppression de la table : "
-		    + this.TABLE_DESC.NAME);
-	    throw new RuntimeException(e);
-	}
-	return true;
-    }
-
-    /** Extraction des entités d'un {@link ResultSet}. */
-    @SuppressWarnings("unchecked")
-    private List<T> extract(final ResultSet rs) throws SQLException,
-	    InstantiationException, IllegalAccessException {
-	List<T> res = new ArrayList<T>();
-	T t;
-	while (rs.next()) {
-	    t = (T) this.TABLE_DESC.CLASS.newInstance();
-	    t.setObject(rs, 0, true);
-	    res.add(t);
-	}
-	return res;
-    }
-
-    @Override
-    protected void finalize() throws Throwable {
-	try {
-	    close();
-	} finally {
-	    super.finalize();
-	}
-    }
-
-    /**
-     * Créer et renvoie le tableau des clauses utilisable dans un
-     * PreparedStatement à partir des attributs renseignés dans le modèle. Plus
-     * compliqué que d'utiliser directement un Statement mais évite les
-     * injections SQL !
-     * 
-     * @param o
-     *            Le modèle de recherche.
-     * @return Les clauses du PreparedStatement.
-     */
-    protected List<String> getClauses(final List<Object> params,
-	    boolean includeNull) {
-	final List<String> clauses = new ArrayList<String>();
-
-	for (int i = 0; i < params.size(); ++i) {
-	    if (params.get(i) != null) {
-		clauses.add(this.TABLE_DESC.COLUMNS[i].NAME + "=?");
-		LOGGER.finer(this.TABLE_DESC.COLUMNS[i].NAME
-			+ " has a null value : ignored.");
-	    } else if (includeNull) {
-		clauses.add(this.TABLE_DESC.COLUMNS[i].NAME + "=null");
-	    }
-	}
-	return clauses;
-    }
-
-    // @Override
-    // public void init() {
-    // super.init();
-    // // dropTableIfExists();
-    // // createTable();
-    // }
-
-    /**
-     * Preparing statement from {@link List} parameters.
-     * 
-     * @param pstmt
-     *            The {@link PreparedStatement}.
-     * @param params
-     *            Parameters.
-     * @param offset
-     *            Specify an offset to ignore {@code offset} first fields.
-     * @return Next column index in the statement.
-     */
-    protected int prepareStatement(final PreparedStatement pstmt,
-	    final List<Object> params, final int offset) {
-	int i = offset;
-	try {
-	    for (Object param : params) {
-		if (param != null) {
-		    if(param instanceof Character) {
-			// HACK MYSQL
-			pstmt.setString(i++, ((Character) param).toString());
-		    } else {
-			pstmt.setObject(i++, param);
-		    }
-		}
-	    }
-	} catch (SQLException e) {
-	    LOGGER.severe("Preparation of statement failed.");
-	    throw new RuntimeException(e);
-	}
-	return i;
-    }
-
-    @Override
-    public int remove(final T o) {
-	unCache();
-	try {
-	    PreparedStatement stmt = AccesBdd.getPreparedStatementWithGenKeys(this.DELETE);
-	    stmt.setInt(1, o.getId());
-	    LOGGER.finest(stmt.toString());
-	    int r = stmt.executeUpdate();
-	    stmt.close();
-	    return r;
-	} catch (SQLException e) {
-	    LOGGER.severe("Removal failed.");
-	    throw new RuntimeException(e);
-	}
-    }
-
-    private <R> R select(final Query<R> query) {
-	Object cache = query.getCache();
-	if (cache != null) {
-	    // return (R) sqlSearch((String) cache);
-	}
-	StringBuilder clauseBuilder = new StringBuilder(32);
-	clauseBuilder.append("SELECT ");
-	if (((SelectClause<?>) query).isDistinct()) {
-	    clauseBuilder.append("DISTINCT ");
-	}
-	clauseBuilder.append(this.TABLE_DESC.COLUMNS[0].NAME); // ID
-	clauseBuilder.append(", ");
-	try {
-	    appendColumnClause(clauseBuilder);
-	} catch (IOException e) {
-	    LOGGER.severe(e.getMessage());
-	    throw new RuntimeException(e);
-	}
-	Query<?> currentQ = query.getChild();
-	while (currentQ != null) {
-	    if (currentQ instanceof FromClause) {
-		currentQ = appendFromClause(currentQ, clauseBuilder);
-	    } else if (currentQ instanceof JoinClause) {
-		currentQ = appendJoinClause(currentQ, clauseBuilder);
-	    } else if (currentQ instanceof WhereClause) {
-		currentQ = appendWhereClause(currentQ, clauseBuilder);
-	    } else {
-		LOGGER.warning("Clause non supportée. Ignorée.");
-		currentQ = currentQ.getChild();
-	    }
-	}
-	String clause = clauseBuilder.toString();
-	query.setCache(clause);
-
-	@SuppressWarnings("unchecked")
-	R result = (R) sqlSearch(clause);
-	return result;
-    }
-
-    @Override
-    public <R> R execute(final Query<R> query) {
-	if (query instanceof SelectClause) {
-	    return select(query);
-	}
-	throw new UnsupportedOperationException(
-		"Execution de ce type de requête non supporté par cette DAO.");
-    }
-
-    @Override
-    public List<T> search(String query) {
-	StringBuilder clauseBuilder = new StringBuilder(32);
-	clauseBuilder.append(this.SELECT);
-	final String CLAUSE;
-	clauseBuilder.append(this.NULL_JOIN);
-	query = query.trim();
-	String upperCaseQuery = query.toUpperCase();
-	if (!query.isEmpty() && !upperCaseQuery.startsWith("WHERE ")
-		&& !upperCaseQuery.startsWith("ORDER ")
-		&& !upperCaseQuery.startsWith("LIMIT ")
-		&& !upperCaseQuery.startsWith("GROUP ")
-		&& !upperCaseQuery.startsWith("OFFSET ")) {
-	    clauseBuilder.append(" WHERE ");
-	}
-	clauseBuilder.append(query);
-	CLAUSE = clauseBuilder.toString();
-	return sqlSearch(CLAUSE);
-    }
-
-    private List<T> sqlSearch(String clause) {
-	Statement stmt = AccesBdd.getStatement();
-	final List<T> res;
-	LOGGER.log(Level.FINEST, clause);
-	try {
-	    ResultSet rs = stmt.executeQuery(clause);
-	    res = extract(rs);
-	} catch (Exception e) {
-	    LOGGER.severe("L'execution de la requête a échoué : " + clause);
-	    throw new RuntimeException(e);
-	} finally {
-	    // On ferme le statement
-	    AccesBdd.closeStatement(stmt);
-	}
-	return res;
-    }
-
-    @Override
-    public List<T> search(final T o) {
-	if (isInCache(o)) {
-	    return getCache(o);
-	}
-
-	final List<Object> values = o.getValues();
-	StringBuilder clauseBuilder = new StringBuilder();
-	clauseBuilder.append(this.SELECT);
-	clauseBuilder.append(this.NULL_JOIN);
-	appendWhereClause(getClauses(values, false), clauseBuilder);
-	String clause = clauseBuilder.toString();
-	final PreparedStatement select = AccesBdd.getPreparedStatement(clause);
-	final List<T> res;
-
-	LOGGER.log(Level.FINEST, clause);
-	try {
-	    prepareStatement(select, values, 1);
-	    ResultSet rs = select.executeQuery();
-	    res = extract(rs);
-	} catch (Exception e) {
-	    LOGGER.severe("L'execution de la requête a échoué : " + clause);
-	    throw new RuntimeException(e);
-	} finally {
-	    // On ferme le statement
-	    AccesBdd.closeStatement(select);
-	}
-
-	toCache(o, res);
-	return res;
-    }
-
-    @Override
-    public int update(final T o) {
-	unCache();
-	final List<Object> values = o.getValues();
-	final PreparedStatement pstmt = AccesBdd
-		.getPreparedStatementWithGenKeys(this.UPDATE
-			+ createSetClause(getClauses(values, true)) + " WHERE "
-			+ this.TABLE_DESC.COLUMNS[0].NAME + "=?;");
-
-	int i = prepareStatement(pstmt, values, 1);
-	try {
-	    if (o.getId() != null) {
-		pstmt.setInt(i, o.getId());
-	    }
-	    LOGGER.finest(pstmt.toString());
-	    return pstmt.executeUpdate();
-	} catch (SQLException e) {
-	    LOGGER.severe("Echec lors de la mise à jour des données.");
-	    throw new RuntimeException(e);
-	} finally {
-	    AccesBdd.closeStatement(pstmt);
-	}
-    }
-
-    private static String getTableName(Class<? extends Entity<?>> classe) {
-	Table tableAn = classe.getAnnotation(Table.class);
-	return tableAn == null ? classe.getName() : tableAn.name();
-    }
-
-    private static String getColumnName(Field field,
-	    Class<? extends Entity<?>> classe) {
-	boolean primaryKey = field.isAnnotationPresent(PrimaryKeyField.class);
-	PrimaryKey primAn = classe.getAnnotation(PrimaryKey.class);
-	if (primaryKey && primAn != null) {
-	    return primAn.name();
-	}
-	Column colAn = field.getAnnotation(Column.class);
-	return colAn == null ? field.getName() : colAn.name();
-    }
-
-    private static Query<?> appendFromClause(Query<?> query,
-	    StringBuilder builder) {
-	// if (!(query instanceof FromClause)) {
-	// throw new IllegalArgumentException("Type de requête incorrecte.");
-	// }
-	FromClause<?> fromClause = (FromClause<?>) query;
-	builder.append(" FROM ");
-	builder.append(getTableName(fromClause.getSourceClass()));
-	return fromClause.getChild();
-    }
-
-    private static Query<?> appendWhereClause(Query<?> query,
-	    StringBuilder builder) {
-	// if (!(query instanceof WhereClause)) {
-	// throw new IllegalArgumentException("Type de requête incorrecte.");
-	// }
-	WhereClause<?> whereClause = (WhereClause<?>) query;
-	builder.append(" WHERE ");
-	// TODO check de l'expression SQL.
-	builder.append(whereClause.getClause());
-	return whereClause.getChild();
-    }
-
-    private static Query<?> appendJoinClause(Query<?> query,
-	    StringBuilder builder) {
-	// if (!(query instanceof JoinClause)) {
-	// throw new IllegalArgumentException("Type de requête incorrecte.");
-	// }
-	Query<?> currentQ = query;
-	JoinClause<?> currentJ;
-	do {
-	    currentJ = (JoinClause<?>) currentQ;
-	    switch (currentJ.getType()) {
-	    case INNER:
-		builder.append(" INNER");
-		break;
-	    case LEFT:
-		builder.append(" LEFT");
-		break;
-	    case RIGHT:
-		builder.append(" RIGHT");
-		break;
-	    }
-	    builder.append(" JOIN ");
-	    builder.append(getTableName(currentJ.getJoinedClass()));
-	    currentQ = currentQ.getChild();
-	} while (currentQ instanceof JoinClause);
-
-	OnClause<?> currentO;
-	if (currentQ instanceof OnClause) {
-	    currentO = (OnClause<?>) currentQ;
-	    builder.append(" ON ");
-	    // TODO check de l'expression SQL.
-	    builder.append(currentO.getClause());
-	    currentQ = currentQ.getChild();
-	}
-
-	return currentQ;
-    }
-}
+/*
+ * Copyright 2012 simplelib.org
+ * 
+ * This file is part of SimplePersist.
+ * 
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.simplelib.simplepersist.annotation.Column;
+import org.simplelib.simplepersist.annotation.IdentityCache;
+import org.simplelib.simplepersist.annotation.Index;
+import org.simplelib.simplepersist.annotation.PrimaryKey;
+import org.simplelib.simplepersist.annotation.QueryCache;
+import org.simplelib.simplepersist.annotation.Table;
+import org.simplelib.simplepersist.dao.Queries.Aggregate;
+import org.simplelib.simplepersist.dao.DaoStats.Operation;
+import org.simplelib.simplepersist.dao.Queries.CacheStatistics;
+import org.simplelib.simplepersist.dao.Queries.FromClause;
+import org.simplelib.simplepersist.dao.Queries.JoinClause;
+import org.simplelib.simplepersist.dao.Queries.OnClause;
+import org.simplelib.simplepersist.dao.Queries.ProjectClause;
+import org.simplelib.simplepersist.dao.Queries.Query;
+import org.simplelib.simplepersist.dao.Queries.SelectClause;
+import org.simplelib.simplepersist.dao.Queries.WhereClause;
+import org.simplelib.simplepersist.dao.TableDescription.ColumnDescription;
+import org.simplelib.simplepersist.dao.TableDescription.SqlProp;
+
+/**
+ * Classe abstraite générique des DAO implémentant {@link IDao}. De plus des
+ * méthodes de SELECT, INSERT, UPDATE et DELETE génériques sont définies ici
+ * ainsi que des méthodes protégées que les DAOs doivent implémenter pour les
+ * faire fonctionner.
+ * 
+ * Dans cet DAO chaque accès requiert un accès à la base de donnée.
+ * 
+ * @author simplelib.org
+ * @version 1.0b
+ * @param <T>
+ *            Interface publique de l'objet métier géré.
+ */
+class SqlDao<T extends Entity<?>> extends AbstractDao<T> {
+    /** Generated serial version UID. */
+    private static final long serialVersionUID = 4669398660990297631L;
+    /** Acces au logger de la DAO. */
+    static final Logger LOGGER = Logger.getLogger("dao");
+
+    /**
+     * Créer la clause de tri de la table.
+     * 
+     * @param order
+     *            Colonne de tri.
+     * @return Clause ORDER BY.
+     */
+    private static String createOrderClause(final String order) {
+	if (order != "") {
+	    return " ORDER BY " + order;
+	} else {
+	    return "";
+	}
+    }
+
+    private static TableDescription getTableDesc(final List<Field> fieldListe,
+	    final Class<? extends Entity<?>> classe) {
+	PrimaryKey primAn = classe.getAnnotation(PrimaryKey.class);
+	if (classe.isAnnotationPresent(Table.class)) {
+	    List<ColumnDescription> columns = new ArrayList<ColumnDescription>(
+		    fieldListe.size());
+	    Column colAn;
+	    String name = "";
+	    SqlProp sqlProp = null;
+	    boolean index;
+	    boolean primaryKey;
+
+	    for (Field field : fieldListe) {
+		colAn = field.getAnnotation(Column.class);
+		index = field.getAnnotation(Index.class) != null;
+		primaryKey = field.isAnnotationPresent(PrimaryKeyField.class);
+
+		name = getColumnName(field, classe);
+
+		// Colonne clé primaire
+		if (primaryKey && (primAn != null)) {
+		    assert (classe == Entity.class);
+		    // sqlProp = SqlProp.valueOf("INTEGER");
+		}
+		// Colonne décrite explicitement
+		else {
+		    if (field.isAnnotationPresent(Column.class)) {
+			sqlProp = SqlProp.valueOf(colAn.type());
+		    }
+		    // Colonne auto-générée
+		    else {
+			sqlProp = SqlProp.valueOf(field.getType());
+		    }
+		}
+		columns.add(new ColumnDescription(field, name, sqlProp, index,
+			primaryKey));
+	    }
+	    return new TableDescription(getTableName(classe),
+		    columns.toArray(new ColumnDescription[0]), classe);
+	} else {
+	    IllegalArgumentException e = new IllegalArgumentException(
+		    "Tag Sql non renseigné.");
+	    LOGGER.severe(e.getMessage());
+	    throw e;
+	}
+    }
+
+    /** Requete SELECT. */
+    private final String SELECT;
+    /** Jointure NULL. */
+    private final String NULL_JOIN;
+    /** Requete DELETE. */
+    private final String DELETE;
+    /** Requete INSERT. */
+    private final String INSERT;
+    /** Requete INSERT, tous les paramètres étant fournis. */
+    private final String INSERT_TEMPLATE;
+    /** Requete UPDATE. */
+    private final String UPDATE;
+    /** Requete UPDATE de toutes les colonnes d'une ligne. */
+    private final String UPDATE_TEMPLATE;
+    /** Clause ORDER BY. */
+    private final String ORDER;
+    /** Maximal number of cached search requests. */
+    private static final int MAX_SEARCH_SHAPES = 256;
+    /** Search requests by mask of the non null model columns. */
+    private final ConcurrentMap<Long, String> SEARCHES = new ConcurrentHashMap<Long, String>();
+
+    /** Entités par id, {@code null} si l'entité n'est pas annotée
+     * {@link IdentityCache}. */
+    private final transient QueryResultCache<Integer, T> IDENTITY_CACHE;
+
+    /**
+     * Résultats des requêtes DSL par base, SQL et paramètres, partagés par
+     * toutes les DAO. {@code null} si désactivé.
+     */
+    private static volatile QueryResultCache<List<Object>, CachedSelect> selectCache = new QueryResultCache<List<Object>, CachedSelect>(
+	    Queries.selectCacheSize, 0);
+
+    /** Le PreparedStatement de suppression d'un objet. */
+//    private final PreparedStatement DELETE_STATEMENT;
+
+    /** Nom de la table associée en BDD. */
+    private final TableDescription TABLE_DESC;
+
+    /**
+     * Construction d'une Dao de type SQL.
+     * 
+     * @param queryCache
+     *            Configuration du cache de requêtes, {@code null} pour le
+     *            désactiver.
+     * @param classe
+     *            {@link Class} à persister.
+     * @param fieldList
+     *            {@link List} des {@link Field} de la {@link Class}.
+     */
+    SqlDao(final QueryCache queryCache, final Class<T> classe,
+	    final List<Field> fieldList) {
+	super(queryCache);
+	this.TABLE_DESC = getTableDesc(fieldList, classe);
+	Invalidations.register(this.TABLE_DESC.NAME, this);
+	IdentityCache identityCache = classe.getAnnotation(IdentityCache.class);
+	this.IDENTITY_CACHE = identityCache == null ? null
+		: new QueryResultCache<Integer, T>(identityCache.maxEntries(),
+			identityCache.ttlSeconds());
+
+	try {
+	    // SELECT
+	    StringBuilder selectBuild = new StringBuilder();
+	    selectBuild.append("SELECT ");
+	    selectBuild.append(this.TABLE_DESC.COLUMNS[0].NAME); // ID
+	    selectBuild.append(", ");
+	    appendColumnClause(selectBuild);
+	    this.SELECT = selectBuild.toString();
+
+	    // NULL JOIN
+	    this.NULL_JOIN = " FROM " + this.TABLE_DESC.NAME;
+
+	    // INSERT
+	    StringBuilder insertBuild = new StringBuilder();
+	    insertBuild.append("INSERT INTO ");
+	    insertBuild.append(this.TABLE_DESC.NAME);
+	    insertBuild.append(" (");
+	    appendColumnClause(insertBuild);
+	    insertBuild.append(")\nVALUES ");
+	    this.INSERT = insertBuild.toString();
+
+	    // INSERT TEMPLATE
+	    insertBuild.append('(');
+	    for (int i = 1; i < this.TABLE_DESC.COLUMNS.length; ++i) {
+		insertBuild.append(i > 1 ? ", ?" : "?");
+	    }
+	    insertBuild.append(')');
+	    this.INSERT_TEMPLATE = insertBuild.toString();
+	} catch (final Exception e) {
+	    LOGGER.severe("Erreur lors de l'initialisation des requêtes SQL.");
+	    throw new RuntimeException(e);
+	}
+
+	this.UPDATE = "UPDATE " + this.TABLE_DESC.NAME + " SET ";
+	StringBuilder updateBuild = new StringBuilder(this.UPDATE);
+	for (int i = 1; i < this.TABLE_DESC.COLUMNS.length; ++i) {
+	    if (i > 1) {
+		updateBuild.append(", ");
+	    }
+	    updateBuild.append(this.TABLE_DESC.COLUMNS[i].NAME).append("=?");
+	}
+	updateBuild.append(" WHERE ").append(this.TABLE_DESC.COLUMNS[0].NAME)
+		.append("=?");
+	this.UPDATE_TEMPLATE = updateBuild.toString();
+	this.DELETE = "DELETE FROM " + this.TABLE_DESC.NAME + " WHERE id=?;";
+
+	this.ORDER = createOrderClause(""); // TODO Ajouter paramètre.
+    }
+
+    @Override
+    public int add(final T o) {
+	final long start = System.nanoTime();
+	int res = 0;
+	final Connection con = borrowConnection();
+	PreparedStatement pstmt = null;
+	final List<Object> values = o.getValues();
+
+	try {
+	    pstmt = AccesBdd.getPreparedStatementWithGenKeys(con,
+		    this.INSERT_TEMPLATE);
+
+	    bindAll(pstmt, values, 1);
+	    if (LOGGER.isLoggable(Level.FINEST)) {
+		LOGGER.finest(pstmt.toString());
+	    }
+	    res = pstmt.executeUpdate();
+	    if (res == 1) {
+		ResultSet rs = pstmt.getGeneratedKeys();
+		rs.next();
+		o.setId(rs.getInt(1));
+		rs.close();
+	    }
+	    if (SlowQueryLog.isEnabled()) {
+		SlowQueryLog.executed(this.TABLE_DESC.CLASS,
+			this.INSERT_TEMPLATE, boundValues(values, false), false,
+			start, res);
+	    }
+	} catch (Exception e) {
+	    this.STATS.failed(Operation.ADD);
+	    LOGGER.severe("Echec de lors de l'insertion des données."
+		    + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.releaseStatement(con, pstmt);
+	    AccesBdd.releaseConnection(con);
+	    invalidate(o);
+	    this.STATS.record(Operation.ADD, start);
+	}
+	return res;
+    }
+
+    /**
+     * Implémentation avancée de l'insertion multiple. Offre généralement de
+     * meilleures performances que de multiples appels à
+     * {@link SqlDao#add(Entity)}.
+     * <p>
+     * Les lignes sont envoyées par lots JDBC ({@code addBatch}) d'au plus
+     * {@link Queries#setBatchSize(int)} lignes, limités au nombre de
+     * paramètres supporté par le SGBD pour les pilotes qui réécrivent les lots
+     * en une seule requête. L'ensemble est inséré dans une transaction si
+     * aucune n'est en cours.
+     * </p>
+     */
+    @Override
+    public int addAll(final List<T> objets) {
+	if (objets.isEmpty()) {
+	    return 0;
+	}
+	final long begin = System.nanoTime();
+	final Connection con = borrowConnection();
+	PreparedStatement pstmt = null;
+	boolean autoCommit = false;
+	int keysRead = 0;
+	int result = 0;
+
+	try {
+	    autoCommit = con.getAutoCommit();
+	    if (autoCommit) {
+		con.setAutoCommit(false);
+	    }
+	    pstmt = AccesBdd.getPreparedStatementWithGenKeys(con,
+		    this.INSERT_TEMPLATE);
+
+	    final int chunk = getBatchRows();
+	    for (int start = 0; start < objets.size(); start += chunk) {
+		int end = Math.min(objets.size(), start + chunk);
+		for (int i = start; i < end; ++i) {
+		    bindAll(pstmt, objets.get(i).getValues(), 1);
+		    pstmt.addBatch();
+		}
+		result += countUpdates(pstmt.executeBatch());
+
+		// Generated keys of the chunk, in insertion order.
+		ResultSet rs = pstmt.getGeneratedKeys();
+		try {
+		    for (int i = start; i < end && rs.next(); ++i) {
+			objets.get(i).setId(rs.getInt(1));
+			keysRead = i + 1;
+		    }
+		} finally {
+		    rs.close();
+		}
+	    }
+	    if (keysRead < objets.size()) {
+		LOGGER.warning("Generated keys not returned by the driver for "
+			+ (objets.size() - keysRead) + " rows.");
+	    }
+	    if (autoCommit) {
+		con.commit();
+	    }
+	    SlowQueryLog.executed(this.TABLE_DESC.CLASS, this.INSERT_TEMPLATE,
+		    null, false, begin, result);
+	} catch (Exception e) {
+	    this.STATS.failed(Operation.ADD_ALL);
+	    LOGGER.severe("Echec de lors de l'insertion des données."
+		    + SlowQueryLog.elapsed(begin));
+	    if (autoCommit) {
+		rollback(con);
+		// Rows not inserted anymore.
+		for (int i = 0; i < keysRead; ++i) {
+		    objets.get(i).setId(null);
+		}
+	    }
+	    clearBatch(pstmt);
+	    throw new RuntimeException(e);
+	} finally {
+	    if (autoCommit) {
+		restoreAutoCommit(con);
+	    }
+	    AccesBdd.releaseStatement(con, pstmt);
+	    AccesBdd.releaseConnection(con);
+	    invalidate(objets);
+	    this.STATS.record(Operation.ADD_ALL, begin);
+	}
+	return result;
+    }
+
+    /**
+     * Implémentation avancée de la mise à jour multiple : une seule requête
+     * UPDATE de toutes les colonnes, envoyée par lots JDBC comme pour
+     * {@link #addAll(List)}. L'ensemble est mis à jour dans une transaction si
+     * aucune n'est en cours.
+     */
+    @Override
+    public int updateAll(final List<T> objets) {
+	if (objets.isEmpty()) {
+	    return 0;
+	}
+	for (T o : objets) {
+	    if (!o.isInserted()) {
+		throw new IllegalArgumentException(
+			"Mise à jour d'un objet sans id : " + o);
+	    }
+	}
+	final long begin = System.nanoTime();
+	final Connection con = borrowConnection();
+	PreparedStatement pstmt = null;
+	boolean autoCommit = false;
+	int result = 0;
+
+	try {
+	    autoCommit = con.getAutoCommit();
+	    if (autoCommit) {
+		con.setAutoCommit(false);
+	    }
+	    pstmt = AccesBdd.getPreparedStatement(con, this.UPDATE_TEMPLATE);
+
+	    final int chunk = getBatchRows();
+	    for (int start = 0; start < objets.size(); start += chunk) {
+		int end = Math.min(objets.size(), start + chunk);
+		for (int i = start; i < end; ++i) {
+		    T o = objets.get(i);
+		    int index = bindAll(pstmt, o.getValues(), 1);
+		    pstmt.setInt(index, o.getId());
+		    pstmt.addBatch();
+		}
+		result += countUpdates(pstmt.executeBatch());
+	    }
+	    if (autoCommit) {
+		con.commit();
+	    }
+	    SlowQueryLog.executed(this.TABLE_DESC.CLASS, this.UPDATE_TEMPLATE,
+		    null, false, begin, result);
+	} catch (Exception e) {
+	    this.STATS.failed(Operation.UPDATE_ALL);
+	    LOGGER.severe("Echec lors de la mise à jour des données."
+		    + SlowQueryLog.elapsed(begin));
+	    if (autoCommit) {
+		rollback(con);
+	    }
+	    clearBatch(pstmt);
+	    throw new RuntimeException(e);
+	} finally {
+	    if (autoCommit) {
+		restoreAutoCommit(con);
+	    }
+	    AccesBdd.releaseStatement(con, pstmt);
+	    AccesBdd.releaseConnection(con);
+	    invalidate(objets);
+	    this.STATS.record(Operation.UPDATE_ALL, begin);
+	}
+	return result;
+    }
+
+    /**
+     * Rows by JDBC batch: the configured batch size, limited by the number of
+     * parameters the database accepts in one statement.
+     */
+    private int getBatchRows() {
+	int params = Math.max(1, this.TABLE_DESC.COLUMNS.length);
+	int maxRows = AccesBdd.currentDb().getType().getMaxParameters()
+		/ params;
+	return Math.max(1, Math.min(Queries.batchSize, maxRows));
+    }
+
+    /**
+     * Total of the update counts of a batch.
+     * 
+     * @param counts
+     *            Result of {@link Statement#executeBatch()}.
+     * @return Updated rows.
+     */
+    private static int countUpdates(final int[] counts) {
+	int result = 0;
+	for (int count : counts) {
+	    if (count > 0) {
+		result += count;
+	    } else if (count == Statement.SUCCESS_NO_INFO) {
+		++result;
+	    }
+	}
+	return result;
+    }
+
+    private static void rollback(final Connection con) {
+	try {
+	    con.rollback();
+	} catch (SQLException e) {
+	    LOGGER.severe("Echec de l'annulation de la transaction.");
+	}
+    }
+
+    private static void restoreAutoCommit(final Connection con) {
+	try {
+	    con.setAutoCommit(true);
+	} catch (SQLException e) {
+	    LOGGER.severe("Echec du retour en auto-commit.");
+	}
+    }
+
+    private static void clearBatch(final Statement stmt) {
+	if (stmt != null) {
+	    try {
+		stmt.clearBatch();
+	    } catch (SQLException e) {
+		LOGGER.warning("Echec de la suppression du lot.");
+	    }
+	}
+    }
+
+    /**
+     * Construction de la liste des colonne.
+     * 
+     * @param seq
+     *            {@link Appendable} séquence de sortie.
+     * @throws IOException
+     *             Erreur de sortie.
+     */
+    protected void appendColumnClause(final Appendable seq) throws IOException {
+	boolean first = true;
+	for (int i = 1; i < this.TABLE_DESC.COLUMNS.length; ++i) {
+	    ColumnDescription col = this.TABLE_DESC.COLUMNS[i];
+	    if (!first) {
+		seq.append(", ");
+	    } else {
+		first = false;
+	    }
+	    seq.append(col.NAME);
+	}
+    }
+
+    /**
+     * Libération des ressources de la DAO. Fermeture de tous les statements.
+     */
+    @Override
+    public void close() {
+	// DO NOTHING
+//	try {
+//	    this.DELETE_STATEMENT.close();
+//	} catch (SQLException e) {
+//	    LOGGER.severe("Echec de la fermeture de la DAO.");
+//	    throw new RuntimeException(e);
+//	}
+    }
+
+    /**
+     * Construit le corps d'un WHERE en fonction d'un tableau de clauses fourni
+     * en paramètre.
+     * 
+     * @param clauses
+     *            Le tableau de clause.
+     * @param builder
+     *            StringBuilder.
+     * @return Le corps du WHERE.
+     */
+    protected String appendWhereClause(final List<String> clauses,
+	    final StringBuilder builder) {
+	builder.append(" WHERE ");
+	if (clauses.size() > 0) {
+	    builder.append(clauses.get(0));
+	    for (int i = 1; i < clauses.size(); i++) {
+		builder.append(" AND ");
+		builder.append(clauses.get(i));
+	    }
+	} else {
+	    builder.append("1=1"); // Tout
+	}
+	builder.append(this.ORDER);
+	return builder.toString();
+    }
+
+    /**
+     * Créer les paramètres des requêtes UPDATE en fonctions de la liste des
+     * colonnes de la table.
+     * 
+     * @param columns
+     *            Liste des colonnes de la table.
+     * @return Paramètres de la requête.
+     */
+    protected String createSetClause(final List<String> clauses) {
+	StringBuilder clause = new StringBuilder();
+	if (clauses.size() > 0) {
+	    clause.append(clauses.get(0));
+	}
+	for (int i = 1; i < clauses.size(); i++) {
+	    clause.append(", ");
+	    clause.append(clauses.get(i));
+	}
+	return clause.toString();
+    };
+
+    @Override
+    public boolean createTable() {
+	StringBuilder query = new StringBuilder();
+	query.append("CREATE TABLE ");
+	query.append(this.TABLE_DESC.NAME);
+	query.append(" (\n");
+
+	final Connection con = borrowConnection();
+	Statement stmt = null;
+	try {
+	    ColumnDescription primary = null;
+	    for (ColumnDescription col : this.TABLE_DESC.COLUMNS) {
+		if (col.PRIMARY_KEY) {
+		    primary = col;
+		    AccesBdd.currentDb().getType()
+			    .appendAutomaticKey(query, col.NAME);
+		} else {
+		    query.append(col.NAME);
+		    query.append(' ');
+		    query.append(col.SQL_PROP.toString());
+		}
+		query.append(",\n");
+	    }
+	    query.append("PRIMARY KEY (");
+	    query.append(primary.NAME);
+	    query.append(")\n)");
+
+	    stmt = AccesBdd.getStatement(con);
+	    if (LOGGER.isLoggable(Level.FINEST)) {
+		LOGGER.finest(query.toString());
+	    }
+	    stmt.addBatch(query.toString());
+	    stmt.executeBatch();
+	} catch (final Exception e) {
+	    LOGGER.severe("Erreur SQL lors de la création de la table : "
+		    + this.TABLE_DESC.NAME);
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.closeStatement(stmt);
+	    AccesBdd.releaseConnection(con);
+	}
+	return true;
+    }
+
+    @Override
+    public boolean dropTableIfExists() {
+	StringBuilder query = new StringBuilder();
+	query.append("DROP TABLE IF EXISTS ");
+	query.append(this.TABLE_DESC.NAME);
+	query.append("");
+	final Connection con = borrowConnection();
+	Statement stmt = null;
+	try {
+	    stmt = AccesBdd.getStatement(con);
+	    if (LOGGER.isLoggable(Level.FINEST)) {
+		LOGGER.finest(query.toString());
+	    }
+	    stmt.addBatch(query.toString());
+	    stmt.executeBatch();
+	} catch (final SQLException e) {
+	    LOGGER.severe("Erreur SQL lors de la suppression de la table : "
+		    + this.TABLE_DESC.NAME);
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.closeStatement(stmt);
+	    AccesBdd.releaseConnection(con);
+	}
+	return true;
+    }
+
+    /** Emprunt d'une connexion, le temps d'attente étant compté. */
+    private Connection borrowConnection() {
+	final long start = System.nanoTime();
+	final Connection con = AccesBdd.borrowConnection();
+	this.STATS.borrowed(start);
+	return con;
+    }
+
+    /** Extraction des entités d'un {@link ResultSet}. */
+    @SuppressWarnings("unchecked")
+    private List<T> extract(final ResultSet rs) throws SQLException {
+	final RowMapper<T> mapper = (RowMapper<T>) this.TABLE_DESC
+		.getRowMapper();
+	List<T> res = new ArrayList<T>();
+	while (rs.next()) {
+	    res.add(mapper.map(rs));
+	}
+	this.STATS.hydrated(res.size());
+	return res;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+	try {
+	    close();
+	} finally {
+	    super.finalize();
+	}
+    }
+
+    /**
+     * Créer et renvoie le tableau des clauses utilisable dans un
+     * PreparedStatement à partir des attributs renseignés dans le modèle. Plus
+     * compliqué que d'utiliser directement un Statement mais évite les
+     * injections SQL !
+     * 
+     * @param o
+     *            Le modèle de recherche.
+     * @return Les clauses du PreparedStatement, une par valeur non nulle.
+     */
+    protected List<String> getClauses(final List<Object> params) {
+	final List<String> clauses = new ArrayList<String>();
+
+	for (int i = 0; i < params.size(); ++i) {
+	    if (params.get(i) != null) {
+		clauses.add(this.TABLE_DESC.COLUMNS[i].NAME + "=?");
+	    } else if (LOGGER.isLoggable(Level.FINER)) {
+		LOGGER.finer(this.TABLE_DESC.COLUMNS[i].NAME
+			+ " has a null value : ignored.");
+	    }
+	}
+	return clauses;
+    }
+
+    /**
+     * Requête de recherche d'un modèle. La requête ne dépend que des colonnes
+     * renseignées du modèle : elle est construite une fois par combinaison de
+     * colonnes non nulles.
+     * 
+     * @param values
+     *            Valeurs du modèle.
+     * @return Requête SELECT.
+     */
+    private String getSearchRequest(final List<Object> values) {
+	if (values.size() > Long.SIZE) {
+	    return createSearchRequest(values);
+	}
+	long mask = 0;
+	for (int i = 0; i < values.size(); ++i) {
+	    if (values.get(i) != null) {
+		mask |= 1L << i;
+	    }
+	}
+	final Long key = Long.valueOf(mask);
+	String request = this.SEARCHES.get(key);
+	if (request == null) {
+	    request = createSearchRequest(values);
+	    if (this.SEARCHES.size() < MAX_SEARCH_SHAPES) {
+		this.SEARCHES.putIfAbsent(key, request);
+	    }
+	}
+	return request;
+    }
+
+    private String createSearchRequest(final List<Object> values) {
+	StringBuilder clauseBuilder = new StringBuilder();
+	clauseBuilder.append(this.SELECT);
+	clauseBuilder.append(this.NULL_JOIN);
+	appendWhereClause(getClauses(values), clauseBuilder);
+	return clauseBuilder.toString();
+    }
+
+    // @Override
+    // public void init() {
+    // super.init();
+    // // dropTableIfExists();
+    // // createTable();
+    // }
+
+    /**
+     * Preparing statement from {@link List} parameters.
+     * 
+     * @param pstmt
+     *            The {@link PreparedStatement}.
+     * @param params
+     *            Parameters.
+     * @param offset
+     *            Specify an offset to ignore {@code offset} first fields.
+     * @return Next column index in the statement.
+     */
+    protected int prepareStatement(final PreparedStatement pstmt,
+	    final List<Object> params, final int offset) {
+	int i = offset;
+	try {
+	    for (Object param : params) {
+		if (param != null) {
+		    if(param instanceof Character) {
+			// HACK MYSQL
+			pstmt.setString(i++, ((Character) param).toString());
+		    } else {
+			pstmt.setObject(i++, param);
+		    }
+		}
+	    }
+	} catch (SQLException e) {
+	    LOGGER.severe("Preparation of statement failed.");
+	    throw new RuntimeException(e);
+	}
+	return i;
+    }
+
+    /**
+     * Binding of query parameters, {@code null} values included.
+     * 
+     * @param pstmt
+     *            The {@link PreparedStatement}.
+     * @param params
+     *            Parameters, in statement order.
+     * @throws SQLException
+     *             Binding error.
+     */
+    private static void bindParams(final PreparedStatement pstmt,
+	    final List<Object> params) throws SQLException {
+	int i = 1;
+	for (Object param : params) {
+	    if (param == null) {
+		bindNull(pstmt, i++);
+	    } else if (param instanceof Character) {
+		// HACK MYSQL
+		pstmt.setString(i++, ((Character) param).toString());
+	    } else {
+		pstmt.setObject(i++, param);
+	    }
+	}
+    }
+
+    /**
+     * Binding of a {@code null} parameter with the SQL type of the parameter,
+     * {@link Types#NULL} being refused by some drivers (Oracle, DB2...).
+     * Without parameter metadata, the driver infers the type.
+     */
+    private static void bindNull(final PreparedStatement pstmt,
+	    final int index) throws SQLException {
+	int type = Types.NULL;
+	try {
+	    ParameterMetaData metaData = pstmt.getParameterMetaData();
+	    if (metaData != null) {
+		type = metaData.getParameterType(index);
+	    }
+	} catch (SQLException e) {
+	    // Métadonnées non supportées par le pilote.
+	}
+	if (type == Types.NULL) {
+	    pstmt.setObject(index, null);
+	} else {
+	    pstmt.setNull(index, type);
+	}
+    }
+
+    /**
+     * Binding of all the column values, {@code null} values included, on a
+     * statement with a parameter for each column but the id.
+     * 
+     * @param pstmt
+     *            The {@link PreparedStatement}.
+     * @param params
+     *            Values, as returned by {@link Entity#getValues()}.
+     * @param offset
+     *            Index of the first parameter.
+     * @return Next parameter index in the statement.
+     * @throws SQLException
+     *             Binding error.
+     */
+    protected int bindAll(final PreparedStatement pstmt,
+	    final List<Object> params, final int offset) throws SQLException {
+	int i = offset;
+	for (int c = 1; c < this.TABLE_DESC.COLUMNS.length; ++c) {
+	    Object param = params.get(c);
+	    if (param == null) {
+		pstmt.setNull(i++,
+			this.TABLE_DESC.COLUMNS[c].SQL_PROP.SQL_TYPE.JDBC_TYPE);
+	    } else if (param instanceof Character) {
+		// HACK MYSQL
+		pstmt.setString(i++, ((Character) param).toString());
+	    } else {
+		pstmt.setObject(i++, param);
+	    }
+	}
+	return i;
+    }
+
+    /**
+     * Valeurs liées par {@link #bindAll(PreparedStatement, List, int)}, pour
+     * le journal des requêtes lentes.
+     * 
+     * @param values
+     *            Valeurs de l'entité, id en premier.
+     * @param withId
+     *            Id lié en dernier (UPDATE).
+     */
+    private static List<Object> boundValues(final List<Object> values,
+	    final boolean withId) {
+	List<Object> bound = new ArrayList<Object>(values.subList(1,
+		values.size()));
+	if (withId) {
+	    bound.add(values.get(0));
+	}
+	return bound;
+    }
+
+    @Override
+    public int remove(final T o) {
+	final long start = System.nanoTime();
+	final Connection con = borrowConnection();
+	PreparedStatement stmt = null;
+	try {
+	    stmt = AccesBdd.getPreparedStatementWithGenKeys(con, this.DELETE);
+	    stmt.setInt(1, o.getId());
+	    if (LOGGER.isLoggable(Level.FINEST)) {
+		LOGGER.finest(stmt.toString());
+	    }
+	    final int res = stmt.executeUpdate();
+	    if (SlowQueryLog.isEnabled()) {
+		SlowQueryLog.executed(this.TABLE_DESC.CLASS, this.DELETE,
+			Collections.singletonList(o.getId()), false, start, res);
+	    }
+	    return res;
+	} catch (SQLException e) {
+	    this.STATS.failed(Operation.REMOVE);
+	    LOGGER.severe("Removal failed." + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.releaseStatement(con, stmt);
+	    AccesBdd.releaseConnection(con);
+	    invalidate(o);
+	    this.STATS.record(Operation.REMOVE, start);
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R select(final Query<R> query, final Object[] args) {
+	final CompiledSelect compiled = compileSelect(query);
+	final List<Object> params = compiled.bind(args);
+	final List<Object> key = getSelectKey(compiled, false, params);
+	final List<?> cached = getCachedSelect(key);
+	if (cached != null) {
+	    return (R) new ArrayList<Object>(cached);
+	}
+	final long[] versions = getVersions(compiled, key);
+	final List<T> result = sqlSearch(compiled.SQL, params);
+	toSelectCache(key, compiled, versions, result);
+	return (R) result;
+    }
+
+    /** Résultat en cache d'une requête DSL et entités des tables lues. */
+    private static final class CachedSelect {
+	private final List<?> RESULT;
+	private final List<Class<? extends Entity<?>>> TABLES;
+
+	private CachedSelect(final List<?> result,
+		final List<Class<? extends Entity<?>>> tables) {
+	    this.RESULT = new ArrayList<Object>(result);
+	    this.TABLES = tables;
+	}
+    }
+
+    /**
+     * Clé de cache d'une exécution : base, type de résultat, SQL et
+     * paramètres liés.
+     * 
+     * @return Clé, {@code null} si la requête n'est pas mise en cache (dans
+     *         une transaction notamment).
+     */
+    private static List<Object> getSelectKey(final CompiledSelect compiled,
+	    final boolean rows, final List<Object> params) {
+	if (compiled.DAOS == null || selectCache == null || !Queries.useCache
+		|| AccesBdd.isInTransaction()) {
+	    return null;
+	}
+	List<Object> key = new ArrayList<Object>(params.size() + 3);
+	key.add(AccesBdd.currentDb());
+	key.add(Boolean.valueOf(rows));
+	key.add(compiled.SQL);
+	key.addAll(params);
+	return key;
+    }
+
+    private List<?> getCachedSelect(final List<Object> key) {
+	final QueryResultCache<List<Object>, CachedSelect> cache = selectCache;
+	if (key == null || cache == null) {
+	    return null;
+	}
+	final CachedSelect cached = cache.get(key);
+	if (cached == null) {
+	    this.STATS.cacheMiss();
+	    return null;
+	}
+	this.STATS.cacheHit();
+	return cached.RESULT;
+    }
+
+    /**
+     * Versions des tables lues, avant l'exécution d'une requête à mettre en
+     * cache.
+     */
+    private static long[] getVersions(final CompiledSelect compiled,
+	    final List<Object> key) {
+	if (key == null) {
+	    return null;
+	}
+	long[] versions = new long[compiled.DAOS.length];
+	for (int i = 0; i < versions.length; ++i) {
+	    versions[i] = compiled.DAOS[i].getVersion();
+	}
+	return versions;
+    }
+
+    /**
+     * Mise en cache du résultat d'une requête DSL, sauf écriture sur une des
+     * tables lues depuis le début de l'exécution.
+     */
+    private static void toSelectCache(final List<Object> key,
+	    final CompiledSelect compiled, final long[] versions,
+	    final List<?> result) {
+	final QueryResultCache<List<Object>, CachedSelect> cache = selectCache;
+	if (key == null || cache == null) {
+	    return;
+	}
+	final CachedSelect cached = new CachedSelect(result, compiled.TABLES);
+	// Vérifié avec le verrou pris par les invalidations.
+	synchronized (cache) {
+	    for (int i = 0; i < versions.length; ++i) {
+		if (compiled.DAOS[i].getVersion() != versions[i]) {
+		    return;
+		}
+	    }
+	    cache.put(key, cached, compiled.TTL);
+	}
+    }
+
+    /** Suppression des requêtes DSL en cache lisant la table. */
+    private void invalidateSelects() {
+	final QueryResultCache<List<Object>, CachedSelect> cache = selectCache;
+	if (cache == null) {
+	    return;
+	}
+	final Class<? extends Entity<?>> table = this.TABLE_DESC.CLASS;
+	cache.removeIf(new QueryResultCache.Filter<List<Object>, CachedSelect>() {
+	    @Override
+	    public boolean accept(final List<Object> key,
+		    final CachedSelect cached) {
+		return cached.TABLES.contains(table);
+	    }
+	});
+    }
+
+    /**
+     * Taille du cache des requêtes DSL, partagé par toutes les DAO.
+     * 
+     * @param size
+     *            Nombre maximal de résultats, 0 pour désactiver le cache.
+     */
+    static void setSelectCacheSize(final int size) {
+	selectCache = size > 0 ? new QueryResultCache<List<Object>, CachedSelect>(
+		size, 0) : null;
+    }
+
+    static CacheStatistics getSelectCacheStatistics() {
+	final QueryResultCache<List<Object>, CachedSelect> cache = selectCache;
+	return cache == null ? null : new CacheStatistics(cache);
+    }
+
+    /**
+     * Requête de sélection compilée : SQL et paramètres à lier. Immuable,
+     * elle peut être exécutée par plusieurs threads avec d'autres valeurs des
+     * paramètres des clauses where et on.
+     */
+    private static final class CompiledSelect {
+	final String SQL;
+	/** Paramètres des clauses, puis de la pagination par clé. */
+	private final List<Object> PARAMS;
+	/** Nombre de paramètres des clauses where et on. */
+	private final int CLAUSE_PARAMS;
+	/** Entités des tables lues : FROM puis JOIN. */
+	final List<Class<? extends Entity<?>>> TABLES;
+	/**
+	 * DAO des tables lues, {@code null} si une des entités n'est pas
+	 * annotée {@link QueryCache}.
+	 */
+	final AbstractDao<?>[] DAOS;
+	/** Durée de vie en cache en s, la plus courte des tables. */
+	final int TTL;
+
+	CompiledSelect(final String sql, final List<Object> params,
+		final int clauseParams,
+		final List<Class<? extends Entity<?>>> tables) {
+	    this.SQL = sql;
+	    this.PARAMS = Collections.unmodifiableList(new ArrayList<Object>(
+		    params));
+	    this.CLAUSE_PARAMS = clauseParams;
+	    this.TABLES = Collections
+		    .unmodifiableList(new ArrayList<Class<? extends Entity<?>>>(
+			    tables));
+	    AbstractDao<?>[] daos = new AbstractDao<?>[tables.size()];
+	    int ttl = 0;
+	    for (int i = 0; i < daos.length; ++i) {
+		QueryCache config = tables.get(i).getAnnotation(
+			QueryCache.class);
+		if (config == null) {
+		    daos = null;
+		    break;
+		}
+		if (config.ttlSeconds() > 0
+			&& (ttl == 0 || config.ttlSeconds() < ttl)) {
+		    ttl = config.ttlSeconds();
+		}
+		daos[i] = (AbstractDao<?>) Entity.getDao(tables.get(i));
+	    }
+	    this.DAOS = daos;
+	    this.TTL = ttl;
+	}
+
+	/**
+	 * Paramètres d'une exécution.
+	 * 
+	 * @param args
+	 *            Valeurs des paramètres des clauses, {@code null} pour
+	 *            celles de la requête.
+	 * @return Paramètres à lier.
+	 */
+	List<Object> bind(final Object[] args) {
+	    if (args == null) {
+		return this.PARAMS;
+	    }
+	    if (args.length != this.CLAUSE_PARAMS) {
+		throw new IllegalArgumentException(this.CLAUSE_PARAMS
+			+ " paramètres attendus, " + args.length + " fournis.");
+	    }
+	    List<Object> params = new ArrayList<Object>(this.PARAMS.size());
+	    params.addAll(Arrays.asList(args));
+	    params.addAll(this.PARAMS.subList(this.CLAUSE_PARAMS,
+		    this.PARAMS.size()));
+	    return params;
+	}
+    }
+
+    /**
+     * Compilation d'une requête de sélection en SQL. Les clauses sont d'abord
+     * collectées puis rendues dans l'ordre SQL : FROM, JOIN, WHERE (clauses et
+     * pagination par clé), ORDER BY, puis LIMIT/OFFSET selon le SGBD.
+     * <p>
+     * La requête compilée est mise en cache dans la requête objet jusqu'à sa
+     * prochaine modification.
+     * </p>
+     */
+    private CompiledSelect compileSelect(final Query<?> query) {
+	Object cache = query.getCache();
+	if (cache instanceof CompiledSelect) {
+	    return (CompiledSelect) cache;
+	}
+	StringBuilder clauseBuilder = new StringBuilder(32);
+	clauseBuilder.append("SELECT ");
+	if (query instanceof ProjectClause) {
+	    // Colonnes projetées seulement
+	    ProjectClause<?> project = (ProjectClause<?>) query;
+	    if (project.isDistinct()) {
+		clauseBuilder.append("DISTINCT ");
+	    }
+	    String[] fields = project.getFields();
+	    for (int i = 0; i < fields.length; ++i) {
+		if (i > 0) {
+		    clauseBuilder.append(", ");
+		}
+		clauseBuilder.append(getColumnOf(fields[i]));
+	    }
+	} else {
+	    if (((SelectClause<?>) query).isDistinct()) {
+		clauseBuilder.append("DISTINCT ");
+	    }
+	    clauseBuilder.append(this.TABLE_DESC.COLUMNS[0].NAME); // ID
+	    clauseBuilder.append(", ");
+	    try {
+		appendColumnClause(clauseBuilder);
+	    } catch (IOException e) {
+		LOGGER.severe(e.getMessage());
+		throw new RuntimeException(e);
+	    }
+	}
+	final List<String> wheres = new ArrayList<String>();
+	final List<Object> params = new ArrayList<Object>();
+	final List<Class<? extends Entity<?>>> tables = new ArrayList<Class<? extends Entity<?>>>();
+	final Queries.Paging paging = new Queries.Paging();
+	Query<?> currentQ = query.getChild();
+	while (currentQ != null) {
+	    if (currentQ instanceof FromClause) {
+		currentQ = appendFromClause(currentQ, clauseBuilder, tables);
+	    } else if (currentQ instanceof JoinClause) {
+		currentQ = appendJoinClause(currentQ, clauseBuilder, params,
+			tables);
+	    } else if (currentQ instanceof WhereClause) {
+		// TODO check de l'expression SQL.
+		WhereClause<?> where = (WhereClause<?>) currentQ;
+		wheres.add(where.getClause());
+		params.addAll(Arrays.asList(where.getParams()));
+		currentQ = currentQ.getChild();
+	    } else {
+		if (!paging.collect(currentQ)) {
+		    LOGGER.warning("Clause non supportée. Ignorée.");
+		}
+		currentQ = currentQ.getChild();
+	    }
+	}
+
+	// Tri, l'id départageant les égalités si nécessaire ; une projection
+	// DISTINCT ne peut trier que sur ses colonnes
+	final boolean distinctProjection = query instanceof ProjectClause
+		&& ((ProjectClause<?>) query).isDistinct();
+	if (distinctProjection) {
+	    paging.orderDistinct(((ProjectClause<?>) query).getFields());
+	}
+	final List<String> order = new ArrayList<String>(paging.ORDER.size() + 1);
+	for (String field : paging.ORDER) {
+	    order.add(getColumnOf(field));
+	}
+	final List<Boolean> descending = new ArrayList<Boolean>(
+		paging.DESCENDING);
+	final String idColumn = this.TABLE_DESC.COLUMNS[0].NAME;
+	if (!distinctProjection && (paging.after != null || paging.isPaged())
+		&& !order.contains(idColumn)) {
+	    order.add(idColumn);
+	    descending.add(Boolean.FALSE);
+	}
+
+	final int clauseParams = params.size();
+	if (paging.after != null) {
+	    wheres.add(createKeysetClause(paging, order, descending, params));
+	}
+	for (int i = 0; i < wheres.size(); ++i) {
+	    clauseBuilder.append(i == 0 ? " WHERE " : " AND ");
+	    if (wheres.size() > 1) {
+		clauseBuilder.append('(').append(wheres.get(i)).append(')');
+	    } else {
+		clauseBuilder.append(wheres.get(i));
+	    }
+	}
+	for (int i = 0; i < order.size(); ++i) {
+	    clauseBuilder.append(i == 0 ? " ORDER BY " : ", ");
+	    clauseBuilder.append(order.get(i));
+	    if (descending.get(i)) {
+		clauseBuilder.append(" DESC");
+	    }
+	}
+	if (paging.isPaged()) {
+	    AccesBdd.currentDb().getType()
+		    .appendLimit(clauseBuilder, paging.limit, paging.offset);
+	}
+
+	CompiledSelect compiled = new CompiledSelect(clauseBuilder.toString(),
+		params, clauseParams, tables);
+	query.setCache(compiled);
+	return compiled;
+    }
+
+    /**
+     * Colonne d'un attribut de l'entité. Un nom inconnu est considéré comme
+     * un nom de colonne SQL.
+     */
+    private String getColumnOf(final String field) {
+	for (ColumnDescription col : this.TABLE_DESC.COLUMNS) {
+	    if (col.FIELD.getName().equals(field)) {
+		return col.NAME;
+	    }
+	}
+	return field;
+    }
+
+    /**
+     * Prédicat de pagination par clé : pour un tri (c1, c2, id),
+     * {@code c1 > ? OR (c1 = ? AND c2 > ?) OR (c1 = ? AND c2 = ? AND id > ?)},
+     * l'opérateur suivant le sens du tri. Les valeurs de la dernière entité
+     * sont ajoutées aux paramètres.
+     */
+    private String createKeysetClause(final Queries.Paging paging,
+	    final List<String> order, final List<Boolean> descending,
+	    final List<Object> params) {
+	final Entity<?> last = paging.after;
+	final List<Object> values = new ArrayList<Object>(order.size());
+	for (int i = 0; i < order.size(); ++i) {
+	    String field = i < paging.ORDER.size() ? paging.ORDER.get(i)
+		    : this.TABLE_DESC.COLUMNS[0].FIELD.getName();
+	    values.add(getKeyValue(last, field));
+	}
+	StringBuilder keyset = new StringBuilder();
+	for (int i = 0; i < order.size(); ++i) {
+	    if (i > 0) {
+		keyset.append(" OR ");
+	    }
+	    keyset.append('(');
+	    for (int j = 0; j < i; ++j) {
+		keyset.append(order.get(j)).append(" = ? AND ");
+		params.add(values.get(j));
+	    }
+	    keyset.append(order.get(i));
+	    keyset.append(descending.get(i) ? " < ?" : " > ?");
+	    params.add(values.get(i));
+	    keyset.append(')');
+	}
+	return keyset.toString();
+    }
+
+    /** Valeur d'un attribut de tri de l'entité, non nulle. */
+    private static Object getKeyValue(final Entity<?> entity,
+	    final String field) {
+	@SuppressWarnings("unchecked")
+	Class<? extends Entity<?>> classe = (Class<? extends Entity<?>>) entity
+		.getClass();
+	for (FieldAccessor accessor : Entity.getAccessors(classe)) {
+	    if (accessor.FIELD.getName().equals(field)) {
+		Object value = accessor.get(entity);
+		if (value == null) {
+		    throw new IllegalArgumentException(
+			    "Pagination sur une valeur nulle : " + field);
+		}
+		return value instanceof Character ? value.toString() : value;
+	    }
+	}
+	throw new IllegalArgumentException("Attribut de tri inconnu : "
+		+ field);
+    }
+
+    @Override
+    public Cursor<T> stream(final Query<?> query) {
+	if (!(query instanceof SelectClause)) {
+	    throw new UnsupportedOperationException(
+		    "Lecture paresseuse de ce type de requête non supportée.");
+	}
+	CompiledSelect compiled = compileSelect(query);
+	return openCursor(compiled.SQL, compiled.bind(null));
+    }
+
+    @Override
+    public Cursor<T> stream(final T o) {
+	final List<Object> values = o.getValues();
+	final List<Object> params = new ArrayList<Object>(values.size());
+	for (Object value : values) {
+	    if (value != null) {
+		params.add(value);
+	    }
+	}
+	return openCursor(getSearchRequest(values), params);
+    }
+
+    /**
+     * Ouverture d'un curseur. La connexion est conservée par le curseur
+     * jusqu'à sa fermeture et le statement, configuré pour la lecture en flux,
+     * n'est pas mis en cache.
+     * 
+     * @param clause
+     *            Requête SELECT.
+     * @param values
+     *            Paramètres à lier.
+     * @return {@link Cursor} sur les résultats.
+     */
+    @SuppressWarnings("unchecked")
+    private Cursor<T> openCursor(final String clause,
+	    final List<Object> values) {
+	final long start = System.nanoTime();
+	// Pas la connexion liée au thread hors transaction : ses écritures
+	// pendant le parcours seraient annulées à la fermeture du curseur.
+	final Connection con = AccesBdd.borrowCursorConnection();
+	this.STATS.borrowed(start);
+	final AccesBdd.DatabaseType type = AccesBdd.currentDb().getType();
+	PreparedStatement pstmt = null;
+	boolean autoCommit = false;
+	LOGGER.log(Level.FINEST, clause);
+	try {
+	    if (type.isCursorTransactional() && con.getAutoCommit()) {
+		con.setAutoCommit(false);
+		autoCommit = true;
+	    }
+	    pstmt = con.prepareStatement(clause, ResultSet.TYPE_FORWARD_ONLY,
+		    ResultSet.CONCUR_READ_ONLY);
+	    type.setStreaming(pstmt, Queries.fetchSize);
+	    bindParams(pstmt, values);
+	    ResultSet rs = pstmt.executeQuery();
+	    return new ResultSetCursor<T>(con, pstmt, rs,
+		    (RowMapper<T>) this.TABLE_DESC.getRowMapper(), this.STATS,
+		    autoCommit);
+	} catch (Exception e) {
+	    LOGGER.severe("L'execution de la requête a échoué : " + clause
+		    + SlowQueryLog.elapsed(start));
+	    AccesBdd.closeStatement(pstmt);
+	    if (autoCommit) {
+		rollback(con);
+		restoreAutoCommit(con);
+	    }
+	    AccesBdd.releaseConnection(con);
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Exécution d'une projection : lecture des seules colonnes demandées,
+     * sans construction d'entité.
+     */
+    private <P> List<P> project(final ProjectClause<P> query,
+	    final Object[] args) {
+	final CompiledSelect compiled = compileSelect(query);
+	final List<Object> params = compiled.bind(args);
+	final List<Object> key = getSelectKey(compiled, true, params);
+	@SuppressWarnings("unchecked")
+	List<Object[]> rows = (List<Object[]>) getCachedSelect(key);
+	if (rows == null) {
+	    final long[] versions = getVersions(compiled, key);
+	    rows = readRows(compiled.SQL, params, query.getFields().length);
+	    toSelectCache(key, compiled, versions, rows);
+	}
+	final ProjectionMapper<P> mapper = query.getMapper();
+	final List<P> res = new ArrayList<P>(rows.size());
+	for (Object[] row : rows) {
+	    // Lignes en cache non modifiables par l'appelant.
+	    res.add(mapper.map(key == null ? row : row.clone()));
+	}
+	return res;
+    }
+
+    private List<Object[]> readRows(final String clause,
+	    final List<Object> params, final int columns) {
+	final long start = System.nanoTime();
+	final Connection con = borrowConnection();
+	PreparedStatement pstmt = null;
+	final List<Object[]> rows = new ArrayList<Object[]>();
+	LOGGER.log(Level.FINEST, clause);
+	try {
+	    pstmt = AccesBdd.getPreparedStatement(con, clause);
+	    bindParams(pstmt, params);
+	    ResultSet rs = pstmt.executeQuery();
+	    while (rs.next()) {
+		Object[] row = new Object[columns];
+		for (int i = 0; i < columns; ++i) {
+		    row[i] = rs.getObject(i + 1);
+		}
+		rows.add(row);
+	    }
+	    rs.close();
+	    SlowQueryLog.executed(this.TABLE_DESC.CLASS, clause, params, false,
+		    start, rows.size());
+	} catch (Exception e) {
+	    LOGGER.severe("L'execution de la requête a échoué : " + clause
+		    + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.releaseStatement(con, pstmt);
+	    AccesBdd.releaseConnection(con);
+	}
+	return rows;
+    }
+
+    @Override
+    public <R> R execute(final Query<R> query) {
+	return execute(query, null);
+    }
+
+    @Override
+    public <R> R execute(final Query<R> query, final Object[] params) {
+	final long start = System.nanoTime();
+	try {
+	    if (query instanceof SelectClause) {
+		return select(query, params);
+	    } else if (query instanceof ProjectClause) {
+		@SuppressWarnings("unchecked")
+		R result = (R) project((ProjectClause<?>) query, params);
+		return result;
+	    }
+	    throw new UnsupportedOperationException(
+		    "Execution de ce type de requête non supporté par cette DAO.");
+	} catch (RuntimeException e) {
+	    this.STATS.failed(Operation.EXECUTE);
+	    throw e;
+	} finally {
+	    this.STATS.record(Operation.EXECUTE, start);
+	}
+    }
+
+    @Override
+    public List<T> search(String query) {
+	StringBuilder clauseBuilder = new StringBuilder(32);
+	clauseBuilder.append(this.SELECT);
+	final String CLAUSE;
+	clauseBuilder.append(this.NULL_JOIN);
+	query = query.trim();
+	String upperCaseQuery = query.toUpperCase();
+	if (!query.isEmpty() && !upperCaseQuery.startsWith("WHERE ")
+		&& !upperCaseQuery.startsWith("ORDER ")
+		&& !upperCaseQuery.startsWith("LIMIT ")
+		&& !upperCaseQuery.startsWith("GROUP ")
+		&& !upperCaseQuery.startsWith("OFFSET ")) {
+	    clauseBuilder.append(" WHERE ");
+	}
+	clauseBuilder.append(query);
+	CLAUSE = clauseBuilder.toString();
+	return sqlSearch(CLAUSE);
+    }
+
+    /**
+     * Exécution d'une requête de sélection.
+     * 
+     * @param clause
+     *            Requête SELECT.
+     * @param params
+     *            Paramètres à lier.
+     * @return Entités sélectionnées.
+     */
+    private List<T> sqlSearch(final String clause, final List<Object> params) {
+	final long start = System.nanoTime();
+	final Connection con = borrowConnection();
+	PreparedStatement pstmt = null;
+	final List<T> res;
+	LOGGER.log(Level.FINEST, clause);
+	try {
+	    pstmt = AccesBdd.getPreparedStatement(con, clause);
+	    bindParams(pstmt, params);
+	    ResultSet rs = pstmt.executeQuery();
+	    res = extract(rs);
+	    rs.close();
+	    SlowQueryLog.executed(this.TABLE_DESC.CLASS, clause, params, false,
+		    start, res.size());
+	} catch (Exception e) {
+	    LOGGER.severe("L'execution de la requête a échoué : " + clause
+		    + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.releaseStatement(con, pstmt);
+	    AccesBdd.releaseConnection(con);
+	}
+	return res;
+    }
+
+    private List<T> sqlSearch(String clause) {
+	final long start = System.nanoTime();
+	final Connection con = borrowConnection();
+	Statement stmt = null;
+	final List<T> res;
+	LOGGER.log(Level.FINEST, clause);
+	try {
+	    stmt = AccesBdd.getStatement(con);
+	    ResultSet rs = stmt.executeQuery(clause);
+	    res = extract(rs);
+	    SlowQueryLog.executed(this.TABLE_DESC.CLASS, clause, null, false,
+		    start, res.size());
+	} catch (Exception e) {
+	    this.STATS.failed(Operation.SEARCH);
+	    LOGGER.severe("L'execution de la requête a échoué : " + clause
+		    + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    // On ferme le statement
+	    AccesBdd.closeStatement(stmt);
+	    AccesBdd.releaseConnection(con);
+	    this.STATS.record(Operation.SEARCH, start);
+	}
+	return res;
+    }
+
+    @Override
+    public List<T> search(final T o) {
+	final long start = System.nanoTime();
+	final List<Object> values = o.getValues();
+	final List<T> cached = getCached(values);
+	if (cached != null) {
+	    this.STATS.record(Operation.SEARCH, start);
+	    return cached;
+	}
+	final T identity = getIdentity(values);
+	if (identity != null) {
+	    List<T> res = new ArrayList<T>(1);
+	    res.add(identity);
+	    this.STATS.record(Operation.SEARCH, start);
+	    return res;
+	}
+
+	final long version = getVersion();
+	final String clause = getSearchRequest(values);
+	final Connection con = borrowConnection();
+	PreparedStatement select = null;
+	final List<T> res;
+
+	LOGGER.log(Level.FINEST, clause);
+	try {
+	    select = AccesBdd.getPreparedStatement(con, clause);
+	    prepareStatement(select, values, 1);
+	    ResultSet rs = select.executeQuery();
+	    res = extract(rs);
+	    // Statement kept in cache: release the cursor now.
+	    rs.close();
+	    SlowQueryLog.executed(this.TABLE_DESC.CLASS, clause, values, true,
+		    start, res.size());
+	} catch (Exception e) {
+	    this.STATS.failed(Operation.SEARCH);
+	    this.STATS.record(Operation.SEARCH, start);
+	    LOGGER.severe("L'execution de la requête a échoué : " + clause
+		    + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    // On ferme le statement
+	    AccesBdd.releaseStatement(con, select);
+	    AccesBdd.releaseConnection(con);
+	}
+
+	toCache(values, res, version);
+	if (res.size() == 1) {
+	    toIdentityCache(values, res.get(0), version);
+	}
+	this.STATS.record(Operation.SEARCH, start);
+	return res;
+    }
+
+    /**
+     * Entité en cache d'un modèle ne renseignant que l'id.
+     * 
+     * @param values
+     *            Valeurs du modèle, id en premier.
+     * @return Copie de l'entité en cache, {@code null} si absente.
+     */
+    private T getIdentity(final List<Object> values) {
+	final Integer id = getIdOnly(values);
+	if (id == null) {
+	    return null;
+	}
+	final T cached = this.IDENTITY_CACHE.get(id);
+	if (cached == null) {
+	    this.STATS.cacheMiss();
+	    return null;
+	}
+	this.STATS.cacheHit();
+	return copyOf(cached);
+    }
+
+    /**
+     * Mise en cache de l'entité chargée par un modèle ne renseignant que
+     * l'id, sauf écriture depuis le début de la recherche.
+     */
+    private void toIdentityCache(final List<Object> values, final T entity,
+	    final long version) {
+	final Integer id = getIdOnly(values);
+	if (id != null && entity != null) {
+	    final T copy = copyOf(entity);
+	    synchronized (this.IDENTITY_CACHE) {
+		if (getVersion() == version) {
+		    this.IDENTITY_CACHE.put(id, copy);
+		}
+	    }
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private T copyOf(final T entity) {
+	return (T) entity.copy();
+    }
+
+    /**
+     * Pas de cache dans une transaction : elle lit ses propres écritures non
+     * validées, que les autres threads ne doivent pas voir.
+     */
+    @Override
+    protected List<T> getCached(final List<Object> key) {
+	return AccesBdd.isInTransaction() ? null : super.getCached(key);
+    }
+
+    @Override
+    protected void toCache(final List<Object> key, final List<T> result,
+	    final long version) {
+	if (!AccesBdd.isInTransaction()) {
+	    super.toCache(key, result, version);
+	}
+    }
+
+    /**
+     * Comparaison du SGBD : un modèle renseignant une chaîne, un caractère, un
+     * nombre non entier ou une date peut correspondre à une entité de valeur
+     * différente en Java (collation insensible à la casse, complétion des
+     * CHAR, conversions), ses résultats en cache sont donc invalidés.
+     */
+    @Override
+    protected boolean mayMatch(final T written, final List<Object> model) {
+	return written.mayMatchInDatabase(model);
+    }
+
+    /**
+     * Invalidation des résultats en cache, des requêtes DSL lisant la table,
+     * puis des entités écrites dans le cache d'identité. Les ids écrits sont
+     * publiés aux autres noeuds.
+     */
+    @Override
+    protected void invalidate(final List<T> written) {
+	super.invalidate(written);
+	invalidateSelects();
+	final int[] ids = new int[written.size()];
+	int count = 0;
+	for (T o : written) {
+	    if (o.isInserted()) {
+		ids[count++] = o.getId();
+	    }
+	}
+	if (this.IDENTITY_CACHE != null) {
+	    for (int i = 0; i < count; ++i) {
+		this.IDENTITY_CACHE.remove(ids[i]);
+	    }
+	}
+	Invalidations.written(this.TABLE_DESC.NAME,
+		count == ids.length ? ids : Arrays.copyOf(ids, count));
+    }
+
+    /**
+     * Invalidation reçue d'un autre noeud ou réappliquée en fin de
+     * transaction. Les nouvelles valeurs étant inconnues, tous les résultats
+     * de recherche sont supprimés.
+     * 
+     * @param ids
+     *            Ids écrits, {@code null} pour toute la table.
+     */
+    void invalidateRemote(final int[] ids) {
+	super.unCache();
+	invalidateSelects();
+	if (this.IDENTITY_CACHE != null) {
+	    if (ids == null) {
+		this.IDENTITY_CACHE.clear();
+	    } else {
+		for (int id : ids) {
+		    this.IDENTITY_CACHE.remove(id);
+		}
+	    }
+	}
+    }
+
+    @Override
+    protected void unCache() {
+	super.unCache();
+	invalidateSelects();
+	if (this.IDENTITY_CACHE != null) {
+	    this.IDENTITY_CACHE.clear();
+	}
+    }
+
+    /**
+     * Id d'un modèle ne renseignant que l'id, le cache d'identité étant
+     * actif et le thread hors transaction.
+     * 
+     * @return Id ou {@code null}.
+     */
+    private Integer getIdOnly(final List<Object> values) {
+	if (this.IDENTITY_CACHE == null || !Queries.useCache
+		|| values.get(0) == null || AccesBdd.isInTransaction()) {
+	    return null;
+	}
+	for (int i = 1; i < values.size(); ++i) {
+	    if (values.get(i) != null) {
+		return null;
+	    }
+	}
+	return (Integer) values.get(0);
+    }
+
+    /** Lecture du résultat d'une requête. */
+    private static interface ResultReader<V> {
+	V read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Exécution d'une requête filtrée par un modèle.
+     * 
+     * @param selectList
+     *            Liste de sélection.
+     * @param modele
+     *            Modèle de recherche.
+     * @param tail
+     *            Fin de requête (GROUP BY...), ou {@code null}.
+     * @param limit
+     *            Nombre maximal de lignes, -1 si non limité.
+     * @param reader
+     *            Lecture du résultat.
+     * @param operation
+     *            Opération comptée dans les statistiques.
+     * @return Résultat lu.
+     */
+    private <V> V modelQuery(final String selectList, final T modele,
+	    final String tail, final int limit, final ResultReader<V> reader,
+	    final Operation operation) {
+	final long start = System.nanoTime();
+	final List<Object> values = modele.getValues();
+	StringBuilder clauseBuilder = new StringBuilder(64);
+	clauseBuilder.append("SELECT ").append(selectList);
+	clauseBuilder.append(this.NULL_JOIN);
+	appendWhereClause(getClauses(values), clauseBuilder);
+	if (tail != null) {
+	    clauseBuilder.append(tail);
+	}
+	if (limit >= 0) {
+	    AccesBdd.currentDb().getType().appendLimit(clauseBuilder, limit, 0);
+	}
+	final String clause = clauseBuilder.toString();
+	final Connection con = borrowConnection();
+	PreparedStatement pstmt = null;
+	LOGGER.log(Level.FINEST, clause);
+	try {
+	    pstmt = AccesBdd.getPreparedStatement(con, clause);
+	    prepareStatement(pstmt, values, 1);
+	    ResultSet rs = pstmt.executeQuery();
+	    final V result;
+	    try {
+		result = reader.read(rs);
+	    } finally {
+		rs.close();
+	    }
+	    SlowQueryLog.executed(this.TABLE_DESC.CLASS, clause, values, true,
+		    start, -1);
+	    return result;
+	} catch (SQLException e) {
+	    this.STATS.failed(operation);
+	    LOGGER.severe("L'execution de la requête a échoué : " + clause
+		    + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.releaseStatement(con, pstmt);
+	    AccesBdd.releaseConnection(con);
+	    this.STATS.record(operation, start);
+	}
+    }
+
+    /** Expression SQL d'un agrégat. */
+    private String aggregateOf(final Aggregate function, final String field) {
+	if (field == null) {
+	    if (function != Aggregate.COUNT) {
+		throw new IllegalArgumentException("Attribut de l'agrégat "
+			+ function + " manquant.");
+	    }
+	    return "COUNT(*)";
+	}
+	return function.name() + '(' + getColumnOf(field) + ')';
+    }
+
+    @Override
+    public long count(final T modele) {
+	return modelQuery("COUNT(*)", modele, null, -1,
+		new ResultReader<Long>() {
+		    @Override
+		    public Long read(final ResultSet rs) throws SQLException {
+			return rs.next() ? rs.getLong(1) : 0L;
+		    }
+		}, Operation.EXECUTE);
+    }
+
+    @Override
+    public boolean exists(final T modele) {
+	return modelQuery("1", modele, null, 1, new ResultReader<Boolean>() {
+	    @Override
+	    public Boolean read(final ResultSet rs) throws SQLException {
+		return rs.next();
+	    }
+	}, Operation.EXECUTE);
+    }
+
+    @Override
+    public T findFirst(final T modele) {
+	final List<Object> values = modele.getValues();
+	final long start = System.nanoTime();
+	final T identity = getIdentity(values);
+	if (identity != null) {
+	    this.STATS.record(Operation.SEARCH, start);
+	    return identity;
+	}
+	final long version = getVersion();
+	final String selectList = this.SELECT.substring("SELECT ".length());
+	// Plus petit id, comme la plus petite entité de ObjectDao.
+	final T result = modelQuery(selectList, modele, " ORDER BY "
+		+ this.TABLE_DESC.COLUMNS[0].NAME, 1, new ResultReader<T>() {
+		    @Override
+		    @SuppressWarnings("unchecked")
+		    public T read(final ResultSet rs) throws SQLException {
+			if (!rs.next()) {
+			    return null;
+			}
+			STATS.hydrated(1);
+			return ((RowMapper<T>) TABLE_DESC.getRowMapper()).map(rs);
+		    }
+		}, Operation.SEARCH);
+	toIdentityCache(values, result, version);
+	return result;
+    }
+
+    @Override
+    public Object aggregate(final Aggregate function, final String field,
+	    final T modele) {
+	return modelQuery(aggregateOf(function, field), modele, null, -1,
+		new ResultReader<Object>() {
+		    @Override
+		    public Object read(final ResultSet rs) throws SQLException {
+			return rs.next() ? rs.getObject(1) : null;
+		    }
+		}, Operation.EXECUTE);
+    }
+
+    @Override
+    public Map<Object, Object> groupBy(final String field,
+	    final Aggregate function, final String aggregated, final T modele) {
+	final String column = getColumnOf(field);
+	return modelQuery(column + ", " + aggregateOf(function, aggregated),
+		modele, " GROUP BY " + column + " ORDER BY " + column, -1,
+		new ResultReader<Map<Object, Object>>() {
+		    @Override
+		    public Map<Object, Object> read(final ResultSet rs)
+			    throws SQLException {
+			Map<Object, Object> groups = new LinkedHashMap<Object, Object>();
+			while (rs.next()) {
+			    groups.put(rs.getObject(1), rs.getObject(2));
+			}
+			return groups;
+		    }
+		}, Operation.EXECUTE);
+    }
+
+    @Override
+    public int update(final T o) {
+	if (!o.isInserted()) {
+	    throw new IllegalArgumentException(
+		    "Mise à jour d'un objet sans id : " + o);
+	}
+	final long start = System.nanoTime();
+	final List<Object> values = o.getValues();
+	final Connection con = borrowConnection();
+	PreparedStatement pstmt = null;
+	try {
+	    pstmt = AccesBdd.getPreparedStatement(con, this.UPDATE_TEMPLATE);
+	    int i = bindAll(pstmt, values, 1);
+	    pstmt.setInt(i, o.getId());
+	    if (LOGGER.isLoggable(Level.FINEST)) {
+		LOGGER.finest(pstmt.toString());
+	    }
+	    final int res = pstmt.executeUpdate();
+	    if (SlowQueryLog.isEnabled()) {
+		SlowQueryLog.executed(this.TABLE_DESC.CLASS,
+			this.UPDATE_TEMPLATE, boundValues(values, true), false,
+			start, res);
+	    }
+	    return res;
+	} catch (SQLException e) {
+	    this.STATS.failed(Operation.UPDATE);
+	    LOGGER.severe("Echec lors de la mise à jour des données."
+		    + SlowQueryLog.elapsed(start));
+	    throw new RuntimeException(e);
+	} finally {
+	    AccesBdd.releaseStatement(con, pstmt);
+	    AccesBdd.releaseConnection(con);
+	    invalidate(o);
+	    this.STATS.record(Operation.UPDATE, start);
+	}
+    }
+
+    private static String getTableName(Class<? extends Entity<?>> classe) {
+	Table tableAn = classe.getAnnotation(Table.class);
+	return tableAn == null ? classe.getName() : tableAn.name();
+    }
+
+    private static String getColumnName(Field field,
+	    Class<? extends Entity<?>> classe) {
+	boolean primaryKey = field.isAnnotationPresent(PrimaryKeyField.class);
+	PrimaryKey primAn = classe.getAnnotation(PrimaryKey.class);
+	if (primaryKey && primAn != null) {
+	    return primAn.name();
+	}
+	Column colAn = field.getAnnotation(Column.class);
+	return colAn == null ? field.getName() : colAn.name();
+    }
+
+    private static Query<?> appendFromClause(Query<?> query,
+	    StringBuilder builder, List<Class<? extends Entity<?>>> tables) {
+	// if (!(query instanceof FromClause)) {
+	// throw new IllegalArgumentException("Type de requête incorrecte.");
+	// }
+	FromClause<?> fromClause = (FromClause<?>) query;
+	builder.append(" FROM ");
+	builder.append(getTableName(fromClause.getSourceClass()));
+	tables.add(fromClause.getSourceClass());
+	return fromClause.getChild();
+    }
+
+    private static Query<?> appendJoinClause(Query<?> query,
+	    StringBuilder builder, List<Object> params,
+	    List<Class<? extends Entity<?>>> tables) {
+	// if (!(query instanceof JoinClause)) {
+	// throw new IllegalArgumentException("Type de requête incorrecte.");
+	// }
+	Query<?> currentQ = query;
+	JoinClause<?> currentJ;
+	do {
+	    currentJ = (JoinClause<?>) currentQ;
+	    switch (currentJ.getType()) {
+	    case INNER:
+		builder.append(" INNER");
+		break;
+	    case LEFT:
+		builder.append(" LEFT");
+		break;
+	    case RIGHT:
+		builder.append(" RIGHT");
+		break;
+	    }
+	    builder.append(" JOIN ");
+	    builder.append(getTableName(currentJ.getJoinedClass()));
+	    tables.add(currentJ.getJoinedClass());
+	    currentQ = currentQ.getChild();
+	} while (currentQ instanceof JoinClause);
+
+	OnClause<?> currentO;
+	if (currentQ instanceof OnClause) {
+	    currentO = (OnClause<?>) currentQ;
+	    builder.append(" ON ");
+	    // TODO check de l'expression SQL.
+	    builder.append(currentO.getClause());
+	    params.addAll(Arrays.asList(currentO.getParams()));
+	    currentQ = currentQ.getChild();
+	}
+
+	return currentQ;
+    }
+}
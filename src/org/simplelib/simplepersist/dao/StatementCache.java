@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of the {@link PreparedStatement}s of one connection.
+ * <p>
+ * Only used by the thread which borrowed the connection, so not thread-safe.
+ * A cached statement is handed out to one user at a time: asking again for a
+ * statement still in use gives a fresh statement, closed on release.
+ * </p>
+ *
+ * @author simplelib.org
+ */
+final class StatementCache {
+    /** Cache key: SQL text and generated keys mode. */
+    private static final class Key {
+	private final String SQL;
+	private final boolean GEN_KEYS;
+
+	private Key(final String sql, final boolean genKeys) {
+	    this.SQL = sql;
+	    this.GEN_KEYS = genKeys;
+	}
+
+	@Override
+	public int hashCode() {
+	    return this.GEN_KEYS ? ~this.SQL.hashCode() : this.SQL.hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+	    if (!(obj instanceof Key)) {
+		return false;
+	    }
+	    Key other = (Key) obj;
+	    return this.GEN_KEYS == other.GEN_KEYS && this.SQL.equals(other.SQL);
+	}
+    }
+
+    private static final class CachedStatement {
+	private final PreparedStatement STATEMENT;
+	private boolean inUse;
+
+	private CachedStatement(final PreparedStatement statement) {
+	    this.STATEMENT = statement;
+	}
+    }
+
+    private final Connection CONNECTION;
+    private final Map<Key, CachedStatement> statements;
+    /** Cached statements lookup on release. */
+    private final Map<PreparedStatement, CachedStatement> entries = new IdentityHashMap<PreparedStatement, CachedStatement>();
+    /** Hit counter shared by all the caches of a pool. */
+    private final AtomicLong HITS;
+    /** Miss counter shared by all the caches of a pool. */
+    private final AtomicLong MISSES;
+
+    /**
+     * @param connection
+     *            Owner {@link Connection}.
+     * @param capacity
+     *            Maximal number of cached statements.
+     * @param hits
+     *            Hit counter.
+     * @param misses
+     *            Miss counter.
+     */
+    StatementCache(final Connection connection, final int capacity,
+	    final AtomicLong hits, final AtomicLong misses) {
+	this.CONNECTION = connection;
+	this.HITS = hits;
+	this.MISSES = misses;
+	this.statements = new LinkedHashMap<Key, CachedStatement>(
+		capacity * 4 / 3 + 1, 0.75f, true) {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(
+		    final Map.Entry<Key, CachedStatement> eldest) {
+		if (size() > capacity) {
+		    CachedStatement entry = eldest.getValue();
+		    entries.remove(entry.STATEMENT);
+		    // A statement in use is closed on release.
+		    if (!entry.inUse) {
+			AccesBdd.closeStatement(entry.STATEMENT);
+		    }
+		    return true;
+		}
+		return false;
+	    }
+	};
+    }
+
+    /**
+     * Get a cached statement, preparing it on miss.
+     *
+     * @param sql
+     *            SQL text.
+     * @param genKeys
+     *            Return generated keys.
+     * @return The {@link PreparedStatement}, to give back with
+     *         {@link #release(PreparedStatement)}.
+     * @throws SQLException
+     *             SQL error.
+     */
+    PreparedStatement prepare(final String sql, final boolean genKeys)
+	    throws SQLException {
+	final Key key = new Key(sql, genKeys);
+	CachedStatement entry = this.statements.get(key);
+	if (entry != null) {
+	    if (!entry.inUse) {
+		this.HITS.incrementAndGet();
+		entry.inUse = true;
+		return entry.STATEMENT;
+	    }
+	    // Reentrant use: uncached statement.
+	    this.MISSES.incrementAndGet();
+	    return create(sql, genKeys);
+	}
+	this.MISSES.incrementAndGet();
+	entry = new CachedStatement(create(sql, genKeys));
+	entry.inUse = true;
+	this.entries.put(entry.STATEMENT, entry);
+	this.statements.put(key, entry);
+	return entry.STATEMENT;
+    }
+
+    private PreparedStatement create(final String sql, final boolean genKeys)
+	    throws SQLException {
+	return genKeys ? this.CONNECTION.prepareStatement(sql,
+		Statement.RETURN_GENERATED_KEYS) : this.CONNECTION
+		.prepareStatement(sql);
+    }
+
+    /**
+     * Give back a statement obtained by
+     * {@link #prepare(String, boolean)}. Uncached statements are closed.
+     *
+     * @param stmt
+     *            The statement.
+     */
+    void release(final PreparedStatement stmt) {
+	CachedStatement entry = this.entries.get(stmt);
+	if (entry != null) {
+	    entry.inUse = false;
+	} else {
+	    AccesBdd.closeStatement(stmt);
+	}
+    }
+
+    /** Close all the cached statements. */
+    void clear() {
+	for (CachedStatement entry : this.statements.values()) {
+	    AccesBdd.closeStatement(entry.STATEMENT);
+	}
+	this.statements.clear();
+	this.entries.clear();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 simplelib.org
+ *
+ * This file is part of SimplePersist.
+ *
+ * SimplePersist is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SimplePersist is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SimplePersist. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.simplelib.simplepersist.dao;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Array of counters striped by thread: each thread increments the cells of
+ * its stripe, a read sums all the stripes. Increments from different threads
+ * seldom touch the same cache line.
+ *
+ * @author simplelib.org
+ */
+final class StripedCounters {
+    /** Longs by cache line. */
+    private static final int LINE = 8;
+    private static final int STRIPES;
+    static {
+	int stripes = 1;
+	int cpus = Runtime.getRuntime().availableProcessors();
+	while (stripes < cpus && stripes < 8) {
+	    stripes <<= 1;
+	}
+	STRIPES = stripes;
+    }
+
+    private final int LENGTH;
+    /** Cells by stripe, padded to whole cache lines. */
+    private final int ROW;
+    private final AtomicLongArray CELLS;
+
+    /**
+     * @param length
+     *            Number of counters.
+     */
+    StripedCounters(final int length) {
+	this.LENGTH = length;
+	this.ROW = (length + LINE - 1) / LINE * LINE + LINE;
+	this.CELLS = new AtomicLongArray(this.ROW * STRIPES);
+    }
+
+    void add(final int index, final long delta) {
+	this.CELLS.getAndAdd(stripe() * this.ROW + index, delta);
+    }
+
+    void increment(final int index) {
+	add(index, 1);
+    }
+
+    long get(final int index) {
+	long sum = 0;
+	for (int s = 0; s < STRIPES; ++s) {
+	    sum += this.CELLS.get(s * this.ROW + index);
+	}
+	return sum;
+    }
+
+    /** @return Sum of all the counters, read once each. */
+    long[] snapshot() {
+	long[] values = new long[this.LENGTH];
+	for (int i = 0; i < this.LENGTH; ++i) {
+	    values[i] = get(i);
+	}
+	return values;
+    }
+
+    /** Reset to 0, not atomic with concurrent increments. */
+    void reset() {
+	for (int i = 0; i < this.CELLS.length(); ++i) {
+	    this.CELLS.set(i, 0);
+	}
+    }
+
+    private static int stripe() {
+	long id = Thread.currentThread().getId();
+	return (int) (id ^ id >>> 7) & (STRIPES - 1);
+    }
+}